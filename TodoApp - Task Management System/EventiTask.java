@@ -0,0 +1,203 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Flusso delle modifiche fatte agli alberi dei progetti: chi tiene uno stato derivato (contatori esterni,
+// un'interfaccia, un indice fuori dall'albero) si iscrive e riceve solo quello che è cambiato, senza riscandire.
+// Project pubblica gli eventi mentre tiene il lock dell'albero, quindi ogni iscritto li vede nell'ordine delle modifiche;
+// la pubblicazione non blocca mai. Ogni iscritto ha la sua coda e il suo thread, che consegna gli eventi a lotti.
+// Quando un iscritto resta indietro decide lui come: chi modifica aspetta (fuori dal lock) oppure gli eventi si perdono
+// e il lotto successivo dice quanti, così l'iscritto sa che deve rileggere l'albero.
+// Aspettano le modifiche fatte da TodoApp, ServerTask e dall'import; quelle fatte da StorageManager con il suo monitor
+// preso (rimuoviCompletati, la riesecuzione del journal) non aspettano mai e possono superare la capacità
+public class EventiTask {
+    public enum Tipo { AGGIUNTO, RIMOSSO, COMPLETATO, RIAPERTO, SVUOTATO, STRATEGIA }
+
+    // Cosa fare quando la coda di un iscritto è piena
+    public enum Pressione { ATTENDI, SCARTA }
+
+    public interface Ricevitore {
+        // "persi" sono gli eventi scartati dall'ultimo lotto consegnato (sempre 0 con Pressione.ATTENDI)
+        void ricevi(List<Evento> eventi, long persi);
+    }
+
+    // Progetto in cui è avvenuta la modifica e componente coinvolto (null per SVUOTATO e STRATEGIA)
+    public static final class Evento {
+        private final Tipo tipo;
+        private final Project progetto;
+        private final TaskComponent componente;
+
+        Evento(Tipo tipo, Project progetto, TaskComponent componente) {
+            this.tipo = tipo;
+            this.progetto = progetto;
+            this.componente = componente;
+        }
+
+        public Tipo getTipo() {
+            return tipo;
+        }
+
+        public Project getProgetto() {
+            return progetto;
+        }
+
+        public TaskComponent getComponente() {
+            return componente;
+        }
+
+        @Override
+        public String toString() {
+            return tipo + " " + progetto.getName() + (componente == null ? "" : "/" + componente.getName());
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(EventiTask.class.getName());
+
+    private final List<Iscrizione> iscrizioni = new CopyOnWriteArrayList<>();
+    // Senza iscritti Project non crea nemmeno gli eventi
+    private volatile boolean attivo;
+
+    EventiTask() {
+    }
+
+    private static class Holder {
+        private static final EventiTask INSTANCE = new EventiTask();
+    }
+
+    public static EventiTask getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    public boolean isAttivo() {
+        return attivo;
+    }
+
+    // "capacita" è la lunghezza massima della coda, "lotto" il numero massimo di eventi per consegna
+    public Iscrizione iscrivi(String nome, int capacita, int lotto, Pressione pressione, Ricevitore ricevitore) {
+        Iscrizione iscrizione = new Iscrizione(nome, capacita, lotto, pressione, ricevitore);
+        synchronized (this) {
+            iscrizioni.add(iscrizione);
+            attivo = true;
+        }
+        iscrizione.consegna.start();
+        return iscrizione;
+    }
+
+    // Chiamato da Project con il lock dell'albero preso: non deve mai bloccarsi
+    void pubblica(Evento evento) {
+        for (Iscrizione iscrizione : iscrizioni) {
+            iscrizione.accoda(evento);
+        }
+    }
+
+    // Chiamato da Project dopo aver lasciato il lock: aspetta che gli iscritti con Pressione.ATTENDI rientrino nella capacità.
+    // Chi tiene il monitor di StorageManager non aspetta: un iscritto che richiama StorageManager si fermerebbe
+    // su quel monitor, la sua coda non si svuoterebbe più e i due thread resterebbero bloccati per sempre
+    void attendiSpazio() {
+        if (Thread.holdsLock(StorageManager.getInstance())) return;
+        for (Iscrizione iscrizione : iscrizioni) {
+            iscrizione.attendiSpazio();
+        }
+    }
+
+    public final class Iscrizione implements AutoCloseable {
+        private final int capacita;
+        private final int lotto;
+        private final Pressione pressione;
+        private final Ricevitore ricevitore;
+        private final LinkedBlockingQueue<Evento> coda = new LinkedBlockingQueue<>();
+        private final AtomicLong persi = new AtomicLong();
+        private final Thread consegna;
+        // Eventi accodati e non ancora consegnati, compresi quelli del lotto in consegna
+        private final AtomicLong inAttesa = new AtomicLong();
+        private volatile boolean chiusa;
+
+        private Iscrizione(String nome, int capacita, int lotto, Pressione pressione, Ricevitore ricevitore) {
+            this.capacita = Math.max(1, capacita);
+            this.lotto = Math.max(1, lotto);
+            this.pressione = pressione;
+            this.ricevitore = ricevitore;
+            this.consegna = new Thread(this::consegna, "eventi-" + nome);
+            this.consegna.setDaemon(true);
+        }
+
+        private void accoda(Evento evento) {
+            if (chiusa) return;
+            if (pressione == Pressione.SCARTA && coda.size() >= capacita) {
+                persi.incrementAndGet();
+                return;
+            }
+            inAttesa.incrementAndGet();
+            coda.offer(evento);
+        }
+
+        private synchronized void attendiSpazio() {
+            // Il thread di consegna non aspetta sé stesso: un iscritto che modifica l'albero non si blocca
+            if (pressione != Pressione.ATTENDI || Thread.currentThread() == consegna) return;
+            boolean interrotto = false;
+            while (!chiusa && inAttesa.get() > capacita) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrotto = true;
+                }
+            }
+            if (interrotto) Thread.currentThread().interrupt();
+        }
+
+        private void consegna() {
+            List<Evento> eventi = new ArrayList<>(lotto);
+            while (!chiusa) {
+                try {
+                    Evento primo = coda.poll(1, TimeUnit.SECONDS);
+                    if (primo == null) continue;
+                    eventi.add(primo);
+                    coda.drainTo(eventi, lotto - 1);
+                    ricevitore.ricevi(List.copyOf(eventi), persi.getAndSet(0));
+                } catch (InterruptedException e) {
+                    break;
+                } catch (RuntimeException e) {
+                    // Un iscritto che sbaglia perde il suo lotto ma non ferma la consegna degli altri
+                    LOGGER.log(Level.WARNING, "Errore di un iscritto agli eventi", e);
+                } finally {
+                    inAttesa.addAndGet(-eventi.size());
+                    eventi.clear();
+                    synchronized (this) {
+                        notifyAll();
+                    }
+                }
+            }
+        }
+
+        // Aspetta che tutti gli eventi pubblicati finora siano stati consegnati; falso se il tempo scade prima
+        public synchronized boolean aspetta(long millis) throws InterruptedException {
+            long scadenza = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+            while (!chiusa && inAttesa.get() > 0) {
+                long resto = TimeUnit.NANOSECONDS.toMillis(scadenza - System.nanoTime());
+                if (resto <= 0) return false;
+                wait(resto);
+            }
+            return true;
+        }
+
+        // Gli eventi ancora in coda vengono buttati; chi aspettava spazio riparte
+        @Override
+        public void close() {
+            chiusa = true;
+            synchronized (EventiTask.this) {
+                iscrizioni.remove(this);
+                attivo = !iscrizioni.isEmpty();
+            }
+            coda.clear();
+            consegna.interrupt();
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+// Ricerca per parole sui nomi di un sottoalbero. Ogni nome viene diviso in parole normalizzate
+// (minuscole e senza accenti, così "perche" trova "Perché"); per ogni parola tengo i componenti che la contengono.
+// Le parole sono in una mappa ordinata, quindi tutte quelle con un certo prefisso sono un intervallo contiguo:
+// fa il lavoro di un trie senza un nodo per ogni lettera. Project la aggiorna insieme all'indice dei nomi
+class IndiceRicerca {
+    private final NavigableMap<String, Set<TaskComponent>> parole = new TreeMap<>();
+
+    // Un componente trovato insieme al progetto che lo contiene direttamente. La radice della ricerca non è mai
+    // tra i risultati e un progetto contiene solo task semplici e sotto-progetti, quindi il progetto c'è sempre
+    static final class Risultato {
+        private final TaskComponent task;
+        private final Project progetto;
+
+        Risultato(TaskComponent task, Project progetto) {
+            this.task = task;
+            this.progetto = progetto;
+        }
+
+        TaskComponent getTask() {
+            return task;
+        }
+
+        Project getProgetto() {
+            return progetto;
+        }
+    }
+
+    void aggiungi(TaskComponent componente) {
+        for (String parola : parole(componente.getName())) {
+            parole.computeIfAbsent(parola, k -> Collections.newSetFromMap(new IdentityHashMap<>())).add(componente);
+        }
+    }
+
+    void rimuovi(TaskComponent componente) {
+        for (String parola : parole(componente.getName())) {
+            Set<TaskComponent> componenti = parole.get(parola);
+            if (componenti != null && componenti.remove(componente) && componenti.isEmpty()) {
+                parole.remove(parola);
+            }
+        }
+    }
+
+    // Tutte le parole della ricerca tranne l'ultima devono comparire intere; l'ultima basta come inizio di parola,
+    // così si trova il task mentre lo si sta ancora scrivendo. Al massimo "limite" risultati, senza un ordine preciso
+    List<Risultato> cerca(String testo, int limite) {
+        List<String> termini = parole(testo);
+        List<Risultato> risultati = new ArrayList<>();
+        if (termini.isEmpty() || limite <= 0) return risultati;
+
+        String prefisso = termini.get(termini.size() - 1);
+        List<Set<TaskComponent>> intere = new ArrayList<>();
+        Set<TaskComponent> piuPiccola = null;
+        for (String termine : termini.subList(0, termini.size() - 1)) {
+            Set<TaskComponent> componenti = parole.get(termine);
+            if (componenti == null) return risultati;
+            intere.add(componenti);
+            if (piuPiccola == null || componenti.size() < piuPiccola.size()) piuPiccola = componenti;
+        }
+        NavigableMap<String, Set<TaskComponent>> conPrefisso = parole.subMap(prefisso, true, prefisso + Character.MAX_VALUE, false);
+
+        // Scorro il gruppo più piccolo tra la parola intera più rara e le parole con il prefisso, e verifico il resto
+        if (piuPiccola != null && piuPiccola.size() < contaFinoA(conPrefisso, piuPiccola.size())) {
+            for (TaskComponent c : piuPiccola) {
+                if (risultati.size() >= limite) break;
+                if (contieneTutte(intere, c) && haPrefisso(c, prefisso)) {
+                    risultati.add(risultato(c));
+                }
+            }
+            return risultati;
+        }
+
+        Set<TaskComponent> visti = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Set<TaskComponent> componenti : conPrefisso.values()) {
+            for (TaskComponent c : componenti) {
+                if (risultati.size() >= limite) return risultati;
+                if (contieneTutte(intere, c) && visti.add(c)) {
+                    risultati.add(risultato(c));
+                }
+            }
+        }
+        return risultati;
+    }
+
+    // Minuscole e senza accenti: copre le lettere accentate ammesse da TaskFactory e le altre vocali latine comuni
+    static String normalizza(String testo) {
+        StringBuilder normalizzato = new StringBuilder(testo.length());
+        for (int i = 0; i < testo.length(); i++) {
+            normalizzato.append(senzaAccento(Character.toLowerCase(testo.charAt(i))));
+        }
+        return normalizzato.toString();
+    }
+
+    // Parole normalizzate: sequenze di lettere e cifre
+    static List<String> parole(String testo) {
+        List<String> parole = new ArrayList<>(4);
+        String normalizzato = normalizza(testo);
+        int inizio = -1;
+        for (int i = 0; i <= normalizzato.length(); i++) {
+            boolean parte = i < normalizzato.length() && Character.isLetterOrDigit(normalizzato.charAt(i));
+            if (parte && inizio < 0) {
+                inizio = i;
+            } else if (!parte && inizio >= 0) {
+                parole.add(normalizzato.substring(inizio, i));
+                inizio = -1;
+            }
+        }
+        return parole;
+    }
+
+    private static char senzaAccento(char c) {
+        switch (c) {
+            case 'à': case 'á': case 'â': case 'ä':
+                return 'a';
+            case 'è': case 'é': case 'ê': case 'ë':
+                return 'e';
+            case 'ì': case 'í': case 'î': case 'ï':
+                return 'i';
+            case 'ò': case 'ó': case 'ô': case 'ö':
+                return 'o';
+            case 'ù': case 'ú': case 'û': case 'ü':
+                return 'u';
+            default:
+                return c;
+        }
+    }
+
+    private static boolean contieneTutte(List<Set<TaskComponent>> intere, TaskComponent c) {
+        for (Set<TaskComponent> componenti : intere) {
+            if (!componenti.contains(c)) return false;
+        }
+        return true;
+    }
+
+    private static boolean haPrefisso(TaskComponent c, String prefisso) {
+        for (String parola : parole(c.getName())) {
+            if (parola.startsWith(prefisso)) return true;
+        }
+        return false;
+    }
+
+    // Quanti componenti hanno il prefisso, fermandomi appena supero il confronto
+    private static long contaFinoA(Map<String, Set<TaskComponent>> conPrefisso, long limite) {
+        long totale = 0;
+        for (Set<TaskComponent> componenti : conPrefisso.values()) {
+            totale += componenti.size();
+            if (totale > limite) break;
+        }
+        return totale;
+    }
+
+    private static Risultato risultato(TaskComponent c) {
+        Project progetto = c instanceof SimpleTask ? ((SimpleTask) c).getGenitore() : ((Project) c).getGenitore();
+        return new Risultato(c, progetto);
+    }
+}
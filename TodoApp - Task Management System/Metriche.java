@@ -0,0 +1,255 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+// Registro delle metriche dell'applicazione: contatori, istogrammi delle durate e sonde che leggono un valore
+// al momento. Chi misura si tiene il riferimento alla metrica (di solito in un campo static final), così sul
+// percorso caldo non c'è nessuna ricerca per nome: solo un LongAdder o una cella di un array atomico.
+// Le stesse istantanee vengono lette dall'esportatore JMX e dalla stampa periodica in testo
+public class Metriche {
+    private final Map<String, Object> metriche = new ConcurrentHashMap<>();
+    // Con le metriche spente chi misura non chiama nemmeno System.nanoTime
+    private volatile boolean attive = true;
+    private ObjectName nomeJmx;
+
+    Metriche() {
+    }
+
+    private static class Holder {
+        private static final Metriche INSTANCE = new Metriche();
+    }
+
+    public static Metriche getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    public boolean isAttive() {
+        return attive;
+    }
+
+    public void setAttive(boolean attive) {
+        this.attive = attive;
+    }
+
+    // Restituisce sempre la stessa metrica per lo stesso nome
+    public Contatore contatore(String nome) {
+        return registra(nome, Contatore.class, new Contatore());
+    }
+
+    public Istogramma istogramma(String nome) {
+        return registra(nome, Istogramma.class, new Istogramma());
+    }
+
+    // Una sonda legge il valore solo quando qualcuno guarda le metriche (per esempio i progetti in memoria)
+    public void sonda(String nome, LongSupplier lettura) {
+        metriche.put(nome, lettura);
+    }
+
+    // Tutti i valori in ordine di nome; ogni istogramma diventa conteggio, media, percentili e massimo
+    public Map<String, Long> istantanea() {
+        Map<String, Long> valori = new TreeMap<>();
+        for (Map.Entry<String, Object> voce : metriche.entrySet()) {
+            String nome = voce.getKey();
+            Object metrica = voce.getValue();
+            if (metrica instanceof Contatore) {
+                valori.put(nome, ((Contatore) metrica).valore());
+            } else if (metrica instanceof Istogramma) {
+                ((Istogramma) metrica).leggi(nome, valori);
+            } else {
+                valori.put(nome, ((LongSupplier) metrica).getAsLong());
+            }
+        }
+        return valori;
+    }
+
+    public String comeTesto() {
+        StringBuilder testo = new StringBuilder("--- METRICHE ---").append(System.lineSeparator());
+        for (Map.Entry<String, Long> voce : istantanea().entrySet()) {
+            testo.append(voce.getKey()).append(" = ").append(voce.getValue()).append(System.lineSeparator());
+        }
+        return testo.toString();
+    }
+
+    // Stampa periodica su un thread daemon; chiudere il valore restituito ferma la stampa
+    public AutoCloseable avviaStampa(long periodo, TimeUnit unita, Consumer<String> destinazione) {
+        ScheduledExecutorService esecutore = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "stampa-metriche");
+            thread.setDaemon(true);
+            return thread;
+        });
+        esecutore.scheduleAtFixedRate(() -> destinazione.accept(comeTesto()), periodo, periodo, unita);
+        return esecutore::shutdownNow;
+    }
+
+    // Registra il registro come MBean (OOB:type=Metriche); una seconda chiamata restituisce lo stesso nome
+    public synchronized ObjectName esportaJmx() throws JMException {
+        if (nomeJmx != null) return nomeJmx;
+        ObjectName nome = new ObjectName("OOB:type=Metriche");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (!server.isRegistered(nome)) {
+            server.registerMBean(new MBeanMetriche(), nome);
+        }
+        nomeJmx = nome;
+        return nome;
+    }
+
+    private <T> T registra(String nome, Class<T> tipo, T nuova) {
+        Object esistente = metriche.putIfAbsent(nome, nuova);
+        if (esistente == null) return nuova;
+        if (!tipo.isInstance(esistente)) {
+            throw new IllegalArgumentException("La metrica " + nome + " esiste già con un altro tipo");
+        }
+        return tipo.cast(esistente);
+    }
+
+    // Contatore senza contesa tra thread: ogni thread incrementa la sua cella, la somma si fa solo in lettura
+    public final class Contatore {
+        private final LongAdder valore = new LongAdder();
+
+        private Contatore() {
+        }
+
+        public void aggiungi(long quanto) {
+            if (attive) valore.add(quanto);
+        }
+
+        public void incrementa() {
+            if (attive) valore.increment();
+        }
+
+        public long valore() {
+            return valore.sum();
+        }
+    }
+
+    // Istogramma a potenze di due: il valore v finisce nella cella del suo numero di bit, quindi registrare
+    // costa un numberOfLeadingZeros e due incrementi. I percentili sono il limite superiore della cella
+    public final class Istogramma {
+        private final AtomicLongArray celle = new AtomicLongArray(65);
+        private final LongAdder somma = new LongAdder();
+        private final LongAccumulator massimo = new LongAccumulator(Math::max, 0);
+
+        private Istogramma() {
+        }
+
+        // Da usare con fine(): con le metriche spente restituisce 0 e non legge l'orologio
+        public long inizio() {
+            return attive ? System.nanoTime() : 0;
+        }
+
+        public void fine(long inizio) {
+            if (inizio != 0) registra(System.nanoTime() - inizio);
+        }
+
+        public void registra(long valore) {
+            if (!attive) return;
+            long v = Math.max(0, valore);
+            celle.incrementAndGet(64 - Long.numberOfLeadingZeros(v));
+            somma.add(v);
+            if (v > massimo.get()) massimo.accumulate(v);
+        }
+
+        public long conteggio() {
+            long totale = 0;
+            for (int i = 0; i < celle.length(); i++) {
+                totale += celle.get(i);
+            }
+            return totale;
+        }
+
+        // Limite superiore del valore sotto cui cade la frazione richiesta delle misure
+        public long percentile(double frazione) {
+            long[] copia = new long[celle.length()];
+            long totale = 0;
+            for (int i = 0; i < copia.length; i++) {
+                copia[i] = celle.get(i);
+                totale += copia[i];
+            }
+            if (totale == 0) return 0;
+            long soglia = (long) Math.ceil(totale * frazione);
+            long visti = 0;
+            for (int i = 0; i < copia.length; i++) {
+                visti += copia[i];
+                if (visti >= soglia) return i == 0 ? 0 : i == 64 ? Long.MAX_VALUE : (1L << i) - 1;
+            }
+            return massimo.get();
+        }
+
+        private void leggi(String nome, Map<String, Long> valori) {
+            long conteggio = conteggio();
+            valori.put(nome + ".conteggio", conteggio);
+            valori.put(nome + ".media", conteggio == 0 ? 0 : somma.sum() / conteggio);
+            valori.put(nome + ".p50", Math.min(percentile(0.5), massimo.get()));
+            valori.put(nome + ".p99", Math.min(percentile(0.99), massimo.get()));
+            valori.put(nome + ".massimo", massimo.get());
+        }
+    }
+
+    // Ogni valore dell'istantanea è un attributo Long in sola lettura; l'elenco si rifà a ogni richiesta
+    // perché le metriche nascono quando le classi che le usano vengono caricate
+    private final class MBeanMetriche implements DynamicMBean {
+        @Override
+        public Object getAttribute(String attributo) throws AttributeNotFoundException {
+            Long valore = istantanea().get(attributo);
+            if (valore == null) throw new AttributeNotFoundException(attributo);
+            return valore;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributi) {
+            Map<String, Long> valori = istantanea();
+            AttributeList lista = new AttributeList();
+            for (String attributo : attributi) {
+                if (valori.containsKey(attributo)) lista.add(new Attribute(attributo, valori.get(attributo)));
+            }
+            return lista;
+        }
+
+        @Override
+        public void setAttribute(Attribute attributo) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Le metriche sono in sola lettura");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributi) {
+            return new AttributeList();
+        }
+
+        // Nessuna operazione in MBeanInfo: la risposta è quella che JMX dà per un metodo che non esiste
+        @Override
+        public Object invoke(String operazione, Object[] parametri, String[] firma) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(operazione), "Le metriche non hanno operazioni");
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributi = new ArrayList<>();
+            for (String nome : istantanea().keySet()) {
+                attributi.add(new MBeanAttributeInfo(nome, Long.class.getName(), nome, true, false, false));
+            }
+            return new MBeanInfo(Metriche.class.getName(), "Metriche di OOB", attributi.toArray(new MBeanAttributeInfo[0]),
+                    null, null, null);
+        }
+    }
+}
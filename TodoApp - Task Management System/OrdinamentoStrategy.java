@@ -1,24 +1,138 @@
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.function.ToIntFunction;
 
 // Interfaccia per decidere come ordinare i task
 public interface OrdinamentoStrategy {
-    void ordina(List<TaskComponent> componenti);
+    // Il criterio di confronto: è l'unica cosa che ogni strategia deve definire
+    Comparator<TaskComponent> getComparatore();
+
+    // Lettera del menu che identifica la strategia, usata anche per salvarla
+    String getCodice();
+
+    // Strategia corrispondente alla lettera del menu; null significa ordine di inserimento
+    static OrdinamentoStrategy daCodice(String codice) {
+        if (codice == null) return null;
+        switch (codice.toUpperCase()) {
+            case "A":
+                return new OrdineAlfabetico();
+            case "Z":
+                return new OrdineInverso();
+            case "N":
+                return OrdineComposto.naturale();
+            case "S":
+                return OrdineComposto.perStato();
+            default:
+                return null;
+        }
+    }
+
+    // Ordina direttamente la lista passata
+    default void ordina(List<TaskComponent> componenti) {
+        componenti.sort(getComparatore());
+    }
+
+    // Restituisce una copia ordinata, lasciando intatto l'ordine di inserimento della lista originale
+    default List<TaskComponent> creaVista(List<TaskComponent> componenti) {
+        List<TaskComponent> vista = new ArrayList<>(componenti);
+        ordina(vista);
+        return vista;
+    }
+
+    // Aggiunge un elemento a una vista già ordinata con una ricerca binaria, senza riordinare tutto.
+    // A parità di chiave va in fondo, come farebbe l'ordinamento stabile dopo un inserimento in coda
+    default void inserisciInVista(List<TaskComponent> vista, TaskComponent nuovo) {
+        Comparator<TaskComponent> comparatore = getComparatore();
+        int basso = 0;
+        int alto = vista.size();
+        while (basso < alto) {
+            int medio = (basso + alto) >>> 1;
+            if (comparatore.compare(vista.get(medio), nuovo) <= 0) {
+                basso = medio + 1;
+            } else {
+                alto = medio;
+            }
+        }
+        vista.add(basso, nuovo);
+    }
+
+    // Come sopra per un elemento che non è l'ultimo arrivato (un task riaperto, una pulizia annullata): a parità
+    // di chiave decide la sua posizione tra i figli, come in ordina. Le posizioni si chiedono solo agli elementi
+    // con la stessa chiave, che di solito non ci sono
+    default void inserisciInVista(List<TaskComponent> vista, TaskComponent nuovo, ToIntFunction<TaskComponent> posizione) {
+        Comparator<TaskComponent> comparatore = getComparatore();
+        int i = inizioChiave(vista, nuovo, comparatore);
+        if (i < vista.size() && comparatore.compare(vista.get(i), nuovo) == 0) {
+            int mia = posizione.applyAsInt(nuovo);
+            while (i < vista.size() && comparatore.compare(vista.get(i), nuovo) == 0
+                    && posizione.applyAsInt(vista.get(i)) < mia) {
+                i++;
+            }
+        }
+        vista.add(i, nuovo);
+    }
+
+    // Vero se la posizione dipende dallo stato dei task: Project allora sposta nelle viste i figli che cambiano stato
+    default boolean dipendeDaStato() {
+        return false;
+    }
+
+    // Toglie un elemento da una vista ordinata trovandolo con una ricerca binaria tra quelli con la stessa chiave.
+    // L'elemento deve avere ancora la chiave con cui è entrato nella vista; falso se non c'è
+    default boolean togliDaVista(List<TaskComponent> vista, TaskComponent vecchio) {
+        Comparator<TaskComponent> comparatore = getComparatore();
+        for (int i = inizioChiave(vista, vecchio, comparatore); i < vista.size() && comparatore.compare(vista.get(i), vecchio) == 0; i++) {
+            if (vista.get(i) == vecchio) {
+                vista.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Il primo elemento della vista con chiave uguale o maggiore di quella dell'elemento dato
+    private static int inizioChiave(List<TaskComponent> vista, TaskComponent elemento, Comparator<TaskComponent> comparatore) {
+        int basso = 0;
+        int alto = vista.size();
+        while (basso < alto) {
+            int medio = (basso + alto) >>> 1;
+            if (comparatore.compare(vista.get(medio), elemento) < 0) {
+                basso = medio + 1;
+            } else {
+                alto = medio;
+            }
+        }
+        return basso;
+    }
 }
 
 // Opzione 1: Ordine alfabetico
 class OrdineAlfabetico implements OrdinamentoStrategy {
+    private static final Comparator<TaskComponent> COMPARATORE = Comparator.comparing(TaskComponent::getName);
+
+    @Override
+    public Comparator<TaskComponent> getComparatore() {
+        return COMPARATORE;
+    }
+
     @Override
-    public void ordina(List<TaskComponent> componenti) {
-        componenti.sort(Comparator.comparing(TaskComponent::getName));
+    public String getCodice() {
+        return "A";
     }
 }
 
 // Opzione 2: Ordine inverso
 class OrdineInverso implements OrdinamentoStrategy {
+    private static final Comparator<TaskComponent> COMPARATORE = (c1, c2) -> c2.getName().compareToIgnoreCase(c1.getName());
+
+    @Override
+    public Comparator<TaskComponent> getComparatore() {
+        return COMPARATORE;
+    }
+
     @Override
-    public void ordina(List<TaskComponent> componenti) {
-        componenti.sort((c1, c2) -> c2.getName().compareToIgnoreCase(c1.getName()));
+    public String getCodice() {
+        return "Z";
     }
 }
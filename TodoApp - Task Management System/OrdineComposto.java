@@ -0,0 +1,122 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.IntStream;
+
+// Opzione 3: ordine a più chiavi (per esempio prima i task da fare, poi il nome), a parità di tutto l'ordine di inserimento.
+// Il nome si confronta con una chiave normalizzata calcolata una volta sola e tenuta dal task: prima il nome senza
+// maiuscole né accenti, come lo vede la ricerca, poi gli accenti ("perche" < "Perché" < "perchi"); le maiuscole non contano.
+// Per ordinare una lista intera ogni elemento diventa una Voce con stato, chiave e posizione già pronti
+class OrdineComposto implements OrdinamentoStrategy {
+    enum Criterio { STATO, NOME }
+
+    // Da qui in su chiavi e ordinamento usano tutti i core
+    private static final int SOGLIA_PARALLELA = 1 << 13;
+
+    private final String codice;
+    private final Criterio[] criteri;
+    private final Comparator<TaskComponent> comparatore;
+    private final Comparator<Voce> ordineVoci;
+
+    OrdineComposto(String codice, Criterio... criteri) {
+        this.codice = codice;
+        this.criteri = criteri.clone();
+        this.comparatore = (c1, c2) -> confronta(c1.isCompleted(), chiaveDi(c1), c2.isCompleted(), chiaveDi(c2));
+        // L'ordine dei criteri è deciso una volta; a parità vince chi stava prima nella lista
+        this.ordineVoci = (v1, v2) -> {
+            int esito = confronta(v1.completato, v1.chiave, v2.completato, v2.chiave);
+            return esito != 0 ? esito : Integer.compare(v1.posizione, v2.posizione);
+        };
+    }
+
+    // Dalla A alla Z senza badare alle maiuscole
+    static OrdineComposto naturale() {
+        return new OrdineComposto("N", Criterio.NOME);
+    }
+
+    // Prima i task da fare, poi quelli completati, ognuno dalla A alla Z
+    static OrdineComposto perStato() {
+        return new OrdineComposto("S", Criterio.STATO, Criterio.NOME);
+    }
+
+    @Override
+    public Comparator<TaskComponent> getComparatore() {
+        return comparatore;
+    }
+
+    @Override
+    public String getCodice() {
+        return codice;
+    }
+
+    @Override
+    public boolean dipendeDaStato() {
+        for (Criterio criterio : criteri) {
+            if (criterio == Criterio.STATO) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void ordina(List<TaskComponent> componenti) {
+        int n = componenti.size();
+        Voce[] voci = new Voce[n];
+        if (n < SOGLIA_PARALLELA) {
+            for (int i = 0; i < n; i++) {
+                voci[i] = new Voce(componenti.get(i), i);
+            }
+            Arrays.sort(voci, ordineVoci);
+        } else {
+            // In parallelo solo i task semplici, che non prendono lock: stato e nome degli altri componenti si leggono
+            // sotto un lock che chi ordina di solito tiene già, e i thread del pool resterebbero fermi ad aspettarlo
+            IntStream.range(0, n).parallel().forEach(i -> {
+                TaskComponent c = componenti.get(i);
+                if (c instanceof SimpleTask) voci[i] = new Voce(c, i);
+            });
+            for (int i = 0; i < n; i++) {
+                if (voci[i] == null) voci[i] = new Voce(componenti.get(i), i);
+            }
+            Arrays.parallelSort(voci, ordineVoci);
+        }
+        for (int i = 0; i < n; i++) {
+            componenti.set(i, voci[i].componente);
+        }
+    }
+
+    private int confronta(boolean completato1, String chiave1, boolean completato2, String chiave2) {
+        for (Criterio criterio : criteri) {
+            int esito = criterio == Criterio.STATO
+                    ? Boolean.compare(completato1, completato2)
+                    : chiave1.compareTo(chiave2);
+            if (esito != 0) return esito;
+        }
+        return 0;
+    }
+
+    // La chiave tenuta dal componente; per i tipi che non la tengono la calcolo ogni volta
+    static String chiaveDi(TaskComponent c) {
+        if (c instanceof SimpleTask) return ((SimpleTask) c).getChiaveOrdinamento();
+        if (c instanceof Project) return ((Project) c).getChiaveOrdinamento();
+        return chiave(c.getName());
+    }
+
+    // Il separatore è minore di qualsiasi carattere di un nome, quindi decide la prima parte e gli accenti solo a parità
+    static String chiave(String nome) {
+        return IndiceRicerca.normalizza(nome) + '\u0000' + nome.toLowerCase(Locale.ROOT);
+    }
+
+    private static final class Voce {
+        private final TaskComponent componente;
+        private final boolean completato;
+        private final String chiave;
+        private final int posizione;
+
+        Voce(TaskComponent componente, int posizione) {
+            this.componente = componente;
+            this.completato = componente.isCompleted();
+            this.chiave = chiaveDi(componente);
+            this.posizione = posizione;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Insieme di nomi di un tabellone compatto: ogni nome distinto viene salvato una volta sola,
+// in UTF-8 dentro un unico array di byte, e identificato da un intero.
+// La tabella hash è ad indirizzamento aperto su un int[], quindi non crea un oggetto per ogni nome.
+// Solo chi aggiunge prende il monitor: chi legge usa l'ultima istantanea pubblicata, senza lock
+class PoolNomi {
+    // Array e numero di nomi visti insieme. Si aggiunge solo in coda, quindi gli array possono crescere sul posto:
+    // i nomi con id minore di "numero" sono già scritti quando l'istantanea viene pubblicata
+    private static final class Istantanea {
+        private final byte[] dati;
+        // inizi[id] è il primo byte del nome id; il nome finisce dove comincia il successivo
+        private final int[] inizi;
+        // id + 1 di ogni nome, 0 se la cella è vuota. L'hash non distingue maiuscole e minuscole,
+        // così tutti i nomi uguali a meno delle maiuscole stanno nella stessa sequenza di celle
+        private final int[] tabella;
+        private final int numero;
+        private final int byteUsati;
+
+        Istantanea(byte[] dati, int[] inizi, int[] tabella, int numero, int byteUsati) {
+            this.dati = dati;
+            this.inizi = inizi;
+            this.tabella = tabella;
+            this.numero = numero;
+            this.byteUsati = byteUsati;
+        }
+
+        String nome(int id) {
+            return new String(dati, inizi[id], inizi[id + 1] - inizi[id], StandardCharsets.UTF_8);
+        }
+    }
+
+    private volatile Istantanea stato = new Istantanea(new byte[1 << 12], new int[257], new int[512], 0, 0);
+
+    // Restituisce l'id del nome, aggiungendolo se non c'è ancora
+    synchronized int interna(String nome) {
+        Istantanea s = stato;
+        byte[] bytes = nome.getBytes(StandardCharsets.UTF_8);
+        int maschera = s.tabella.length - 1;
+        for (int cella = hash(nome) & maschera; ; cella = (cella + 1) & maschera) {
+            int id = s.tabella[cella] - 1;
+            if (id < 0) {
+                aggiungi(s, bytes, cella);
+                return s.numero;
+            }
+            if (uguale(s, id, bytes)) return id;
+        }
+    }
+
+    // Gli id dei nomi uguali a questo senza distinguere maiuscole e minuscole (di solito uno solo o nessuno).
+    // Una cella scritta dopo l'istantanea può già essere visibile: i suoi id non ancora pubblicati si saltano
+    int[] cercaIgnorandoMaiuscole(String nome) {
+        Istantanea s = stato;
+        int maschera = s.tabella.length - 1;
+        int[] trovati = new int[0];
+        for (int cella = hash(nome) & maschera; s.tabella[cella] != 0; cella = (cella + 1) & maschera) {
+            int id = s.tabella[cella] - 1;
+            if (id < s.numero && s.nome(id).equalsIgnoreCase(nome)) {
+                trovati = Arrays.copyOf(trovati, trovati.length + 1);
+                trovati[trovati.length - 1] = id;
+            }
+        }
+        return trovati;
+    }
+
+    // Il nome viene ricostruito a ogni chiamata: chi lo usa spesso dovrebbe tenerselo
+    String nome(int id) {
+        return stato.nome(id);
+    }
+
+    int getNumero() {
+        return stato.numero;
+    }
+
+    // Byte occupati dai nomi e dalle tabelle, utile per confrontare l'occupazione di memoria
+    long getByteOccupati() {
+        Istantanea s = stato;
+        return s.dati.length + 4L * s.inizi.length + 4L * s.tabella.length;
+    }
+
+    private void aggiungi(Istantanea s, byte[] bytes, int cella) {
+        int numero = s.numero;
+        int byteUsati = s.byteUsati;
+        byte[] dati = s.dati;
+        int[] inizi = s.inizi;
+        int[] tabella = s.tabella;
+        if (byteUsati + bytes.length > dati.length) {
+            dati = Arrays.copyOf(dati, Math.max(dati.length * 2, byteUsati + bytes.length));
+        }
+        if (numero + 2 > inizi.length) {
+            inizi = Arrays.copyOf(inizi, inizi.length * 2);
+        }
+        System.arraycopy(bytes, 0, dati, byteUsati, bytes.length);
+        byteUsati += bytes.length;
+        inizi[numero + 1] = byteUsati;
+        numero++;
+        if (numero * 2 > tabella.length) {
+            tabella = nuovaTabella(dati, inizi, numero, tabella.length * 2);
+        } else {
+            tabella[cella] = numero;
+        }
+        stato = new Istantanea(dati, inizi, tabella, numero, byteUsati);
+    }
+
+    private static boolean uguale(Istantanea s, int id, byte[] bytes) {
+        int inizio = s.inizi[id];
+        return s.inizi[id + 1] - inizio == bytes.length
+                && Arrays.equals(s.dati, inizio, inizio + bytes.length, bytes, 0, bytes.length);
+    }
+
+    // La tabella nuova si riempie per intero prima di essere pubblicata
+    private static int[] nuovaTabella(byte[] dati, int[] inizi, int numero, int dimensione) {
+        int[] nuova = new int[dimensione];
+        int maschera = nuova.length - 1;
+        for (int id = 0; id < numero; id++) {
+            String nome = new String(dati, inizi[id], inizi[id + 1] - inizi[id], StandardCharsets.UTF_8);
+            int cella = hash(nome) & maschera;
+            while (nuova[cella] != 0) cella = (cella + 1) & maschera;
+            nuova[cella] = id + 1;
+        }
+        return nuova;
+    }
+
+    // Stesso criterio di equalsIgnoreCase carattere per carattere, poi mescolo i bit come il finale di MurmurHash3:
+    // nomi quasi uguali ("Task 1", "Task 2"...) finirebbero in celle vicine, e cercaIgnorandoMaiuscole scorre
+    // tutta la sequenza di celle piene fino a una vuota
+    private static int hash(String nome) {
+        int h = 0;
+        for (int i = 0; i < nome.length(); i++) {
+            h = 31 * h + Character.toLowerCase(Character.toUpperCase(nome.charAt(i)));
+        }
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        return h ^ (h >>> 16);
+    }
+}
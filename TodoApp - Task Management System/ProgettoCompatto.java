@@ -0,0 +1,408 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Progetto per tabelloni molto grandi: invece di un oggetto SimpleTask per ogni task tengo delle colonne,
+// l'id del nome nel pool del tabellone e un bit per lo stato. Contiene solo task semplici, in ordine di inserimento.
+// Da fuori si usa come un Project: i task vengono restituiti come viste leggere create al momento.
+// Non si mette dentro un Project (contatori, indice e salvataggio non conoscono le colonne): prima si chiama espandi().
+// Ogni tabellone ha il suo pool, che sparisce con lui; quando le rimozioni lasciano nel pool più nomi morti
+// che vivi il pool viene ricostruito con i soli nomi rimasti
+public class ProgettoCompatto implements TaskComponent, Iterable<TaskComponent> {
+    // Sotto questo numero di nomi non vale la pena ricostruire il pool
+    private static final int NOMI_MINIMI_RICOSTRUZIONE = 64;
+
+    private final String nomeProgetto;
+    // Un pool passato da fuori può essere condiviso con altri tabelloni, quindi non lo ricostruisco
+    private final boolean poolProprio;
+    private PoolNomi pool;
+
+    private int[] nomi = new int[16];
+    private final BitSet completati = new BitSet();
+    private int numero;
+    private int numeroCompletati;
+    // Indice nome -> righe: per ogni id del pool la prima riga che lo usa, più uno (0 se nessuna).
+    // Gli id sono densi, quindi basta un int[] e la ricerca di completaTask è O(1) come in Project
+    private int[] primaRiga = new int[16];
+    // Cambia a ogni rimozione: le viste create prima puntano a righe che potrebbero essersi spostate
+    private int versioneRighe;
+
+    private final ReadWriteLock blocco = new ReentrantReadWriteLock();
+
+    public ProgettoCompatto(String nome) {
+        this(nome, new PoolNomi(), true);
+    }
+
+    ProgettoCompatto(String nome, PoolNomi pool) {
+        this(nome, pool, false);
+    }
+
+    private ProgettoCompatto(String nome, PoolNomi pool, boolean poolProprio) {
+        this.nomeProgetto = nome;
+        this.pool = pool;
+        this.poolProprio = poolProprio;
+    }
+
+    // Copia compatta di un progetto che contiene solo task semplici
+    public static ProgettoCompatto da(Project progetto) {
+        ProgettoCompatto compatto = new ProgettoCompatto(progetto.getName());
+        compatto.addAll(progetto.getFigli());
+        return compatto;
+    }
+
+    // Il percorso inverso, per esempio per passare il progetto a StorageManager
+    public Project espandi() {
+        Project progetto = new Project(nomeProgetto);
+        List<TaskComponent> tasks = new ArrayList<>();
+        for (TaskComponent riga : this) {
+            SimpleTask task = new SimpleTask(riga.getName());
+            task.setCompletato(riga.isCompleted());
+            tasks.add(task);
+        }
+        progetto.addAll(tasks);
+        return progetto;
+    }
+
+    // Il nome passa dalla TaskFactory come quelli dei task semplici: stessa validazione, stessa pulizia dei tag
+    public void add(String nomeTask) {
+        String nome = TaskFactory.createTask("SIMPLE", nomeTask).getName();
+        Lock lock = blocco.writeLock();
+        lock.lock();
+        try {
+            aggiungiRiga(pool.interna(nome), false);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Accetta task semplici (anche viste di altri progetti compatti) copiandone nome e stato
+    public void add(TaskComponent task) {
+        addAll(List.of(task));
+    }
+
+    public void addAll(List<? extends TaskComponent> nuovi) {
+        // Nomi e stati letti prima del lock: le viste di un altro progetto compatto prendono il lock del loro
+        String[] nomiNuovi = new String[nuovi.size()];
+        boolean[] stati = new boolean[nomiNuovi.length];
+        for (int i = 0; i < nomiNuovi.length; i++) {
+            TaskComponent task = nuovi.get(i);
+            if (task instanceof Project || task instanceof ProgettoCompatto) {
+                throw new IllegalArgumentException("Un progetto compatto contiene solo task semplici");
+            }
+            nomiNuovi[i] = task.getName();
+            stati[i] = task.isCompleted();
+        }
+        Lock lock = blocco.writeLock();
+        lock.lock();
+        try {
+            if (numero + nomiNuovi.length > nomi.length) {
+                nomi = Arrays.copyOf(nomi, Math.max(nomi.length * 2, numero + nomiNuovi.length));
+            }
+            for (int i = 0; i < nomiNuovi.length; i++) {
+                aggiungiRiga(pool.interna(nomiNuovi[i]), stati[i]);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Stessa ricerca di Project.completaTask (senza distinguere maiuscole): gli id del nome dal pool, la riga dall'indice
+    public boolean completaTask(String nome) {
+        Lock lock = blocco.writeLock();
+        lock.lock();
+        try {
+            int riga = cercaRiga(nome);
+            if (riga < 0) return false;
+            impostaStato(riga, true);
+        } finally {
+            lock.unlock();
+        }
+        System.out.println("Task '" + nome + "' segnato come completato!");
+        if (isCompleted()) {
+            System.out.println("\n🌟 Complimenti! Tutti i task del progetto \"" + nomeProgetto + "\" sono stati completati; well done!");
+        }
+        return true;
+    }
+
+    public boolean contiene(String nome) {
+        Lock lock = blocco.readLock();
+        lock.lock();
+        try {
+            return cercaRiga(nome) >= 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Compattazione sul posto: una sola passata che sposta indietro le righe da tenere
+    public void rimuoviCompletati() {
+        Lock lock = blocco.writeLock();
+        lock.lock();
+        try {
+            if (numeroCompletati == 0) return;
+            int scritte = 0;
+            for (int letta = completati.nextClearBit(0); letta < numero; letta = completati.nextClearBit(letta + 1)) {
+                nomi[scritte++] = nomi[letta];
+            }
+            completati.clear();
+            numero = scritte;
+            numeroCompletati = 0;
+            versioneRighe++;
+            // Le righe vive sono al più "numero" nomi distinti: se il pool ne ha più del doppio, almeno metà sono morti
+            if (poolProprio && pool.getNumero() > Math.max(NOMI_MINIMI_RICOSTRUZIONE, 2 * numero)) {
+                ricostruisciPool();
+            } else {
+                ricostruisciIndice();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void svuotaProgetto() {
+        Lock lock = blocco.writeLock();
+        lock.lock();
+        try {
+            nomi = new int[16];
+            completati.clear();
+            numero = 0;
+            numeroCompletati = 0;
+            primaRiga = new int[16];
+            if (poolProprio) pool = new PoolNomi();
+            versioneRighe++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getTotaleTask() {
+        Lock lock = blocco.readLock();
+        lock.lock();
+        try {
+            return numero;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getTaskCompletati() {
+        Lock lock = blocco.readLock();
+        lock.lock();
+        try {
+            return numeroCompletati;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getPercentualeCompletamento() {
+        Lock lock = blocco.readLock();
+        lock.lock();
+        try {
+            if (numero == 0) return 0;
+            return (int) ((long) numeroCompletati * 100 / numero);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Stessa regola di Project: un progetto vuoto non è completato
+    @Override
+    public boolean isCompleted() {
+        Lock lock = blocco.readLock();
+        lock.lock();
+        try {
+            return numero > 0 && numeroCompletati == numero;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String getName() {
+        return nomeProgetto;
+    }
+
+    @Override
+    public void display(String spazi) {
+        TaskRenderer.stampa(this, spazi);
+    }
+
+    // L'iteratore crea una vista alla volta, così scorrere milioni di task non copia niente
+    @Override
+    public Iterator<TaskComponent> createIterator() {
+        return iterator();
+    }
+
+    @Override
+    public Iterator<TaskComponent> iterator() {
+        return new Iterator<TaskComponent>() {
+            private int prossima;
+            private final int versione = getVersioneRighe();
+
+            @Override
+            public boolean hasNext() {
+                return prossima < getTotaleTask() && versione == getVersioneRighe();
+            }
+
+            @Override
+            public TaskComponent next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return new Riga(prossima++, versione);
+            }
+        };
+    }
+
+    // --- Colonne ---
+
+    private void aggiungiRiga(int id, boolean completato) {
+        if (numero == nomi.length) {
+            nomi = Arrays.copyOf(nomi, nomi.length * 2);
+        }
+        nomi[numero] = id;
+        if (id >= primaRiga.length) {
+            primaRiga = Arrays.copyOf(primaRiga, Math.max(primaRiga.length * 2, id + 1));
+        }
+        if (primaRiga[id] == 0) primaRiga[id] = numero + 1;
+        if (completato) {
+            completati.set(numero);
+            numeroCompletati++;
+        }
+        numero++;
+    }
+
+    private void impostaStato(int riga, boolean completato) {
+        if (completati.get(riga) == completato) return;
+        completati.set(riga, completato);
+        numeroCompletati += completato ? 1 : -1;
+    }
+
+    // Prima riga con uno dei nomi uguali a questo a meno delle maiuscole (di solito un id solo), -1 se non c'è
+    private int cercaRiga(String nome) {
+        int trovata = Integer.MAX_VALUE;
+        for (int id : pool.cercaIgnorandoMaiuscole(nome)) {
+            if (id < primaRiga.length && primaRiga[id] != 0) trovata = Math.min(trovata, primaRiga[id] - 1);
+        }
+        return trovata == Integer.MAX_VALUE ? -1 : trovata;
+    }
+
+    // Dopo una compattazione le righe si sono spostate: una passata sulla colonna dei nomi
+    private void ricostruisciIndice() {
+        Arrays.fill(primaRiga, 0);
+        for (int riga = 0; riga < numero; riga++) {
+            if (primaRiga[nomi[riga]] == 0) primaRiga[nomi[riga]] = riga + 1;
+        }
+    }
+
+    // Un pool nuovo con i soli nomi ancora usati; gli id cambiano, quindi rimappo la colonna e rifaccio l'indice
+    private void ricostruisciPool() {
+        PoolNomi nuovo = new PoolNomi();
+        int[] rimappati = new int[pool.getNumero()];
+        Arrays.fill(rimappati, -1);
+        for (int riga = 0; riga < numero; riga++) {
+            int id = nomi[riga];
+            if (rimappati[id] < 0) rimappati[id] = nuovo.interna(pool.nome(id));
+            nomi[riga] = rimappati[id];
+        }
+        pool = nuovo;
+        primaRiga = new int[Math.max(16, nuovo.getNumero())];
+        ricostruisciIndice();
+    }
+
+    // Nomi distinti nel pool del tabellone, compresi quelli non più usati (per test e benchmark)
+    int getNomiNelPool() {
+        Lock lock = blocco.readLock();
+        lock.lock();
+        try {
+            return pool.getNumero();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int getVersioneRighe() {
+        Lock lock = blocco.readLock();
+        lock.lock();
+        try {
+            return versioneRighe;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Vista leggera su una riga: non copia niente e legge sempre lo stato attuale delle colonne.
+    // Dopo una rimozione le righe si spostano, quindi una vista vecchia non è più valida
+    final class Riga implements TaskComponent {
+        private final int indice;
+        private final int versione;
+
+        private Riga(int indice, int versione) {
+            this.indice = indice;
+            this.versione = versione;
+        }
+
+        public void setCompletato(boolean completato) {
+            Lock lock = blocco.writeLock();
+            lock.lock();
+            try {
+                controlla();
+                impostaStato(indice, completato);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public boolean isCompleted() {
+            Lock lock = blocco.readLock();
+            lock.lock();
+            try {
+                controlla();
+                return completati.get(indice);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Il nome si ricostruisce fuori dal lock: il pool si legge senza monitor, quindi più thread che disegnano
+        // lo stesso tabellone non si mettono in fila
+        @Override
+        public String getName() {
+            int id;
+            PoolNomi nomiRiga;
+            Lock lock = blocco.readLock();
+            lock.lock();
+            try {
+                controlla();
+                id = nomi[indice];
+                nomiRiga = pool;
+            } finally {
+                lock.unlock();
+            }
+            return nomiRiga.nome(id);
+        }
+
+        @Override
+        public void display(String spazi) {
+            TaskRenderer.stampa(this, spazi);
+        }
+
+        @Override
+        public Iterator<TaskComponent> createIterator() {
+            return Collections.emptyIterator();
+        }
+
+        private void controlla() {
+            if (versione != versioneRighe || indice >= numero) {
+                throw new IllegalStateException("Il task non è più in questa posizione del progetto");
+            }
+        }
+    }
+}
@@ -1,73 +1,636 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class Project implements TaskComponent, Iterable<TaskComponent> {
     private String nomeProgetto;
     private List<TaskComponent> componenti = new ArrayList<>();
     private OrdinamentoStrategy strategia;
+    private Project genitore;
+    private String chiaveOrdinamento;
+
+    // Un solo lock per tutto l'albero: contatori, indice e viste degli antenati cambiano insieme a quelli del figlio.
+    // Un progetto aggiunto come figlio adotta il lock del nuovo genitore, quindi alberi diversi lavorano in parallelo
+    private volatile ReadWriteLock blocco = new ReentrantReadWriteLock();
+
+    // Contatori mantenuti ad ogni modifica: figli diretti completati e task (foglie) dell'intero sottoalbero
+    private int figliCompletati;
+    private int totaleTask;
+    private int taskCompletati;
+
+    // Indice nome (minuscolo) -> componenti dell'intero sottoalbero.
+    // Ogni progetto lo aggiorna anche nei suoi antenati, così la ricerca è O(1) a qualsiasi livello.
+    // Il valore è il componente stesso e diventa una lista solo quando ci sono nomi duplicati
+    private Map<String, Object> indiceNomi = new HashMap<>();
+    // Indice per parole e prefissi del sottoalbero: nasce alla prima ricerca e da lì segue l'indice dei nomi
+    private IndiceRicerca ricerca;
+
+    // Viste ordinate già calcolate, una per tipo di strategia. La lista "componenti" resta
+    // sempre in ordine di inserimento: le viste sono copie che si buttano solo quando cambia qualcosa
+    private Map<String, Vista> viste = new HashMap<>();
+    // Quanti omonimi dell'indice scorre la ricerca di completaTask prima del task, e quante volte il nome non c'era
+    private static final Metriche.Istogramma CANDIDATI_RICERCA = Metriche.getInstance().istogramma("completaTask.candidati");
+    private static final Metriche.Contatore COMPLETAMENTI_MANCATI = Metriche.getInstance().contatore("completaTask.nonTrovati");
+    private static final EventiTask EVENTI = EventiTask.getInstance();
+
+    // Oltre questo numero di inserimenti in blocco riordinare da zero costa meno che inserire uno alla volta
+    private static final int SOGLIA_VISTE = 64;
+
+    // Una vista ricorda la strategia che l'ha prodotta, così posso aggiornarla anche quando non è quella attiva
+    private static class Vista {
+        private final OrdinamentoStrategy strategia;
+        private final List<TaskComponent> elementi;
+
+        Vista(OrdinamentoStrategy strategia, List<TaskComponent> componenti) {
+            this.strategia = strategia;
+            this.elementi = strategia.creaVista(componenti);
+        }
+    }
+
+    // Quello che rimuoviCompletati ha tolto: ogni task con il percorso del progetto da cui veniva
+    // (i progetti completati tolti interi vengono aperti) e quanti progetti sono spariti con loro.
+    // Ricorda anche i figli tolti così come erano, con genitore e posizione, per poterli rimettere al loro posto
+    public static final class Pulizia {
+        private final List<String> percorsi = new ArrayList<>();
+        private final List<TaskComponent> task = new ArrayList<>();
+        private int progetti;
+
+        private final List<Project> genitori = new ArrayList<>();
+        private final List<TaskComponent> rimossi = new ArrayList<>();
+        private int[] posizioni = new int[8];
+        // I byte dell'archivio su disco scritti da questa pulizia, -1 se non ne ha scritti
+        private long inizioArchivio = -1;
+        private long fineArchivio = -1;
+
+        public int getTaskRimossi() {
+            return task.size();
+        }
+
+        public int getProgettiRimossi() {
+            return progetti;
+        }
+
+        public List<TaskComponent> getTask() {
+            return Collections.unmodifiableList(task);
+        }
+
+        public String getPercorso(int indice) {
+            return percorsi.get(indice);
+        }
+
+        void segnaArchivio(long inizio, long fine) {
+            inizioArchivio = inizio;
+            fineArchivio = fine;
+        }
+
+        long getInizioArchivio() {
+            return inizioArchivio;
+        }
+
+        long getFineArchivio() {
+            return fineArchivio;
+        }
+
+        // Vero se tutti i progetti da cui sono stati tolti dei figli sono ancora nell'albero di "radice"
+        // (un progetto scaricato e riletto dal disco ha figli nuovi, e i vecchi non si possono più rimettere)
+        boolean ripristinabile(Project radice) {
+            for (Project genitore : genitori) {
+                if (!genitore.dentro(radice)) return false;
+            }
+            return true;
+        }
+
+        // Rimette ogni figlio nel suo progetto e nella sua posizione: i figli tolti dallo stesso progetto
+        // sono consecutivi e in ordine di posizione, quindi ogni progetto li riprende con una sola fusione
+        void ripristina() {
+            int inizio = 0;
+            while (inizio < rimossi.size()) {
+                Project genitore = genitori.get(inizio);
+                int fine = inizio + 1;
+                while (fine < rimossi.size() && genitori.get(fine) == genitore) fine++;
+                genitore.rimetti(posizioni, inizio, fine, rimossi);
+                inizio = fine;
+            }
+        }
+
+        private void archivia(String percorso, Project genitore, int posizione, TaskComponent rimosso) {
+            if (rimossi.size() == posizioni.length) posizioni = Arrays.copyOf(posizioni, posizioni.length * 2);
+            posizioni[rimossi.size()] = posizione;
+            genitori.add(genitore);
+            rimossi.add(rimosso);
+
+            Deque<Object[]> pila = new ArrayDeque<>();
+            pila.push(new Object[] { percorso, rimosso });
+            while (!pila.isEmpty()) {
+                Object[] voce = pila.pop();
+                TaskComponent c = (TaskComponent) voce[1];
+                if (c instanceof Project) {
+                    progetti++;
+                    String interno = voce[0] + "/" + c.getName();
+                    List<TaskComponent> figli = ((Project) c).componenti;
+                    // Al contrario, così escono dalla pila nell'ordine di inserimento
+                    for (int i = figli.size() - 1; i >= 0; i--) {
+                        pila.push(new Object[] { interno, figli.get(i) });
+                    }
+                } else {
+                    percorsi.add((String) voce[0]);
+                    task.add(c);
+                }
+            }
+        }
+    }
+
+    // Caricamento pigro (vedi StorageManager.setCaricamentoPigro): finché "caricato" è falso i figli restano sul disco
+    // e i contatori arrivano dall'indice. La sorgente resta collegata anche dopo, per poter scaricare di nuovo il progetto
+    private volatile SorgenteFigli sorgente;
+    private volatile boolean caricato = true;
+    private int figliNonCaricati;
+    private volatile long ultimoUso;
+    // Modifiche fatte all'albero (contate sulla radice) e quante ce n'erano all'ultimo allineamento con il disco
+    private long modifiche;
+    private long modificheSalvate;
+
+    // Da dove leggere i figli di un progetto pigro; la implementa StorageManager
+    interface SorgenteFigli {
+        List<TaskComponent> leggiFigli() throws IOException;
+
+        // Chiamato fuori dal lock appena i figli sono in memoria, così chi gestisce il budget può scaricare altri progetti
+        void caricato(Project progetto);
+    }
 
     public Project(String nome) {
         this.nomeProgetto = nome;
     }
 
+    // Progetto di primo livello ancora sul disco: nome, strategia e contatori vengono dall'indice
+    static Project pigro(String nome, OrdinamentoStrategy strategia, SorgenteFigli sorgente,
+                         int figli, int figliCompletati, int totaleTask, int taskCompletati) {
+        Project progetto = new Project(nome);
+        progetto.strategia = strategia;
+        progetto.sorgente = sorgente;
+        progetto.caricato = false;
+        progetto.figliNonCaricati = figli;
+        progetto.figliCompletati = figliCompletati;
+        progetto.totaleTask = totaleTask;
+        progetto.taskCompletati = taskCompletati;
+        return progetto;
+    }
+
     public void setStrategia(OrdinamentoStrategy strategia) {
-        this.strategia = strategia;
+        Lock lock = bloccaScrittura();
+        try {
+            segnaModificato();
+            this.strategia = strategia;
+            if (EVENTI.isAttivo()) pubblica(EventiTask.Tipo.STRATEGIA, null);
+        } finally {
+            lock.unlock();
+            attendiIscritti();
+        }
+    }
+
+    // La strategia attiva, null se si usa l'ordine di inserimento
+    OrdinamentoStrategy getStrategia() {
+        Lock lock = bloccaLettura();
+        try {
+            return strategia;
+        } finally {
+            lock.unlock();
+        }
     }
 
     public void add(TaskComponent componente) {
-        componenti.add(componente);
+        controllaFiglio(componente);
+        caricaFigli();
+        if (componente instanceof Project) {
+            ((Project) componente).caricaFigli();
+        }
+        Lock lock = bloccaScrittura();
+        try {
+            segnaModificato();
+            boolean prima = completato();
+            if (componente instanceof Project) {
+                ((Project) componente).adottaBlocco(blocco);
+            }
+            componenti.add(componente);
+            if (statoDi(componente)) figliCompletati++;
+            collega(componente);
+            registra(componente);
+            propaga(prima, foglie(componente), foglieCompletate(componente));
+            aggiornaViste(componente);
+            if (EVENTI.isAttivo()) pubblica(EventiTask.Tipo.AGGIUNTO, componente);
+        } finally {
+            lock.unlock();
+            attendiIscritti();
+        }
+    }
+
+    // Aggiunge più componenti prendendo il lock una volta sola e propagando i contatori alla fine.
+    // Con molti elementi conviene buttare le viste ordinate e ricostruirle alla prossima visualizzazione
+    public void addAll(List<? extends TaskComponent> nuovi) {
+        for (TaskComponent componente : nuovi) {
+            controllaFiglio(componente);
+        }
+        caricaFigli();
+        for (TaskComponent componente : nuovi) {
+            if (componente instanceof Project) ((Project) componente).caricaFigli();
+        }
+        Lock lock = bloccaScrittura();
+        try {
+            segnaModificato();
+            inserisciTutti(nuovi);
+            if (EVENTI.isAttivo()) {
+                for (TaskComponent componente : nuovi) pubblica(EventiTask.Tipo.AGGIUNTO, componente);
+            }
+        } finally {
+            lock.unlock();
+            attendiIscritti();
+        }
+    }
+
+    // Un progetto contiene solo task semplici e altri progetti: contatori, indice dei nomi, propagazione dello stato
+    // e salvataggio conoscono solo questi. Un ProgettoCompatto (o una sua riga) va prima espanso con espandi()
+    private static void controllaFiglio(TaskComponent componente) {
+        if (!(componente instanceof SimpleTask) && !(componente instanceof Project)) {
+            throw new IllegalArgumentException("Un progetto contiene solo task semplici e sotto-progetti: \""
+                    + componente.getName() + "\" va espanso prima di aggiungerlo");
+        }
+    }
+
+    // Corpo di addAll, usato anche per i figli letti dal disco; il lock di scrittura deve essere già preso
+    private void inserisciTutti(List<? extends TaskComponent> nuovi) {
+        boolean prima = completato();
+        int totale = 0;
+        int completati = 0;
+        boolean ricostruisciViste = nuovi.size() > SOGLIA_VISTE;
+        for (TaskComponent componente : nuovi) {
+            if (componente instanceof Project) {
+                ((Project) componente).adottaBlocco(blocco);
+            }
+            componenti.add(componente);
+            if (statoDi(componente)) figliCompletati++;
+            collega(componente);
+            registra(componente);
+            totale += foglie(componente);
+            completati += foglieCompletate(componente);
+            if (!ricostruisciViste) aggiornaViste(componente);
+        }
+        if (ricostruisciViste) viste.clear();
+        propaga(prima, totale, completati);
     }
 
+    // Non serve leggere dal disco i figli di un progetto pigro: vengono buttati comunque
     public void svuotaProgetto() {
-        this.componenti.clear();
-        this.strategia = null; 
+        Lock lock = bloccaScrittura();
+        try {
+            segnaModificato();
+            boolean prima = completato();
+            for (TaskComponent c : componenti) {
+                deregistra(c);
+                scollega(c);
+            }
+            this.componenti.clear();
+            this.figliNonCaricati = 0;
+            this.caricato = true;
+            this.viste.clear();
+            this.strategia = null;
+            this.figliCompletati = 0;
+            propaga(prima, -totaleTask, -taskCompletati);
+            if (EVENTI.isAttivo()) pubblica(EventiTask.Tipo.SVUOTATO, null);
+        } finally {
+            lock.unlock();
+            attendiIscritti();
+        }
     }
 
     // Eseguo verifiche quando si vuole segnare un task come "fatto"
     public boolean completaTask(String nome) {
-        for (TaskComponent c : componenti) {
-            // Verifico se è un task semplice e il nome coincide
-            if (c instanceof SimpleTask && c.getName().equalsIgnoreCase(nome)) {
-                ((SimpleTask) c).setCompletato(true);
-                System.out.println("Task '" + nome + "' segnato come completato!");
-                
-                // Controllo e conferma
-                if (this.isCompleted() && !componenti.isEmpty()) {
-                    System.out.println("\n🌟 Complimenti! Tutti i task del progetto \"" + nomeProgetto + "\" sono stati completati; well done!");
+        SimpleTask task = cercaTask(nome);
+        if (task == null) {
+            COMPLETAMENTI_MANCATI.incrementa();
+            return false;
+        }
+
+        task.setCompletato(true);
+        System.out.println("Task '" + nome + "' segnato come completato!");
+
+        // Controllo e conferma sul progetto che contiene direttamente il task
+        Project proprietario = task.getGenitore();
+        if (proprietario != null && proprietario.isCompleted()) {
+            System.out.println("\n🌟 Complimenti! Tutti i task del progetto \"" + proprietario.getName() + "\" sono stati completati; well done!");
+        }
+        return true;
+    }
+
+    // Primo task semplice del sottoalbero con questo nome (i sotto-progetti non si completano a mano)
+    SimpleTask cercaTask(String nome) {
+        caricaFigli();
+        Lock lock = bloccaLettura();
+        try {
+            List<TaskComponent> candidati = cercaNellIndice(chiave(nome));
+            for (int i = 0; i < candidati.size(); i++) {
+                if (candidati.get(i) instanceof SimpleTask) {
+                    CANDIDATI_RICERCA.registra(i + 1);
+                    return (SimpleTask) candidati.get(i);
                 }
-                return true; 
             }
-            // Se è un sotto-progetto, cerca ricorsivamente
-            else if (c instanceof Project) {
-                if (((Project) c).completaTask(nome)) return true;
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Vero se nel sottoalbero esiste un componente con questo nome (senza distinguere maiuscole)
+    public boolean contiene(String nome) {
+        caricaFigli();
+        Lock lock = bloccaLettura();
+        try {
+            return indiceNomi.containsKey(chiave(nome));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Task e sotto-progetti del sottoalbero che corrispondono alla ricerca (parole intere più l'inizio dell'ultima,
+    // senza badare a maiuscole e accenti), ognuno con il progetto che lo contiene
+    List<IndiceRicerca.Risultato> cerca(String testo, int limite) {
+        caricaFigli();
+        Lock lock = bloccaLettura();
+        try {
+            if (ricerca != null) return ricerca.cerca(testo, limite);
+        } finally {
+            lock.unlock();
+        }
+
+        lock = bloccaScrittura();
+        try {
+            if (ricerca == null) {
+                IndiceRicerca nuovo = new IndiceRicerca();
+                for (String chiave : indiceNomi.keySet()) {
+                    for (TaskComponent c : cercaNellIndice(chiave)) {
+                        nuovo.aggiungi(c);
+                    }
+                }
+                ricerca = nuovo;
             }
+            return ricerca.cerca(testo, limite);
+        } finally {
+            lock.unlock();
         }
-        return false; 
     }
 
-    // Rimuove i task completati 
-    public void rimuoviCompletati() {
-        componenti.removeIf(TaskComponent::isCompleted);
+    // Toglie i task completati da tutto il sottoalbero in una sola passata: un progetto completato se ne va intero,
+    // negli altri si scende solo se i contatori dicono che dentro c'è qualcosa di completato.
+    // I task tolti vengono restituiti con il loro percorso, così chi chiama può archiviarli
+    public Pulizia rimuoviCompletati() {
+        caricaFigli();
+        Lock lock = bloccaScrittura();
+        try {
+            Pulizia pulizia = new Pulizia();
+            if (!haCompletati()) return pulizia;
+            segnaModificato();
+            boolean prima = completato();
+            int[] rimosse = new int[2];
+            // Pila esplicita come nel salvataggio: gli alberi profondi non consumano lo stack
+            Deque<Project> daPulire = new ArrayDeque<>();
+            daPulire.push(this);
+            while (!daPulire.isEmpty()) {
+                Project p = daPulire.pop();
+                int[] locali = p.togliCompletati(pulizia, daPulire);
+                // Un sotto-progetto non completato resta tale anche dopo la pulizia: cambiano solo i contatori
+                for (Project a = p; a != this; a = a.genitore) {
+                    a.totaleTask -= locali[0];
+                    a.taskCompletati -= locali[1];
+                }
+                rimosse[0] += locali[0];
+                rimosse[1] += locali[1];
+            }
+            propaga(prima, -rimosse[0], -rimosse[1]);
+            return pulizia;
+        } finally {
+            lock.unlock();
+            attendiIscritti();
+        }
     }
 
+    // Toglie i figli diretti completati e mette in pila i sotto-progetti da pulire; restituisce i task tolti
+    private int[] togliCompletati(Pulizia pulizia, Deque<Project> daPulire) {
+        int[] rimosse = new int[2];
+        String percorso = percorso();
+        // Compattazione sul posto: i figli da tenere vengono spostati indietro, il resto si taglia alla fine
+        int tenuti = 0;
+        for (int letto = 0; letto < componenti.size(); letto++) {
+            TaskComponent c = componenti.get(letto);
+            if (!statoDi(c)) {
+                if (c instanceof Project && ((Project) c).haCompletati()) daPulire.push((Project) c);
+                componenti.set(tenuti++, c);
+                continue;
+            }
+            rimosse[0] += foglie(c);
+            rimosse[1] += foglieCompletate(c);
+            pulizia.archivia(percorso, this, letto, c);
+            if (EVENTI.isAttivo()) pubblica(EventiTask.Tipo.RIMOSSO, c);
+            deregistra(c);
+            scollega(c);
+            figliCompletati--;
+        }
+        // Togliere elementi non rompe l'ordine, quindi filtro le viste invece di riordinarle
+        if (tenuti < componenti.size()) {
+            componenti.subList(tenuti, componenti.size()).clear();
+            for (Vista vista : viste.values()) {
+                vista.elementi.removeIf(Project::statoDi);
+            }
+        }
+        return rimosse;
+    }
+
+    // Inverso di togliCompletati: fonde gli elementi[da, a) nelle posizioni che avevano prima della pulizia
+    private void rimetti(int[] posizioni, int da, int a, List<TaskComponent> elementi) {
+        caricaFigli();
+        Lock lock = bloccaScrittura();
+        try {
+            segnaModificato();
+            boolean prima = completato();
+            List<TaskComponent> unione = new ArrayList<>(componenti.size() + a - da);
+            int letto = 0;
+            int totale = 0;
+            int completati = 0;
+            boolean ricostruisciViste = a - da > SOGLIA_VISTE;
+            for (int i = da; i < a; i++) {
+                while (unione.size() < posizioni[i] && letto < componenti.size()) {
+                    unione.add(componenti.get(letto++));
+                }
+                TaskComponent c = elementi.get(i);
+                if (c instanceof Project) ((Project) c).adottaBlocco(blocco);
+                unione.add(c);
+                if (statoDi(c)) figliCompletati++;
+                collega(c);
+                registra(c);
+                totale += foglie(c);
+                completati += foglieCompletate(c);
+                if (EVENTI.isAttivo()) pubblica(EventiTask.Tipo.AGGIUNTO, c);
+            }
+            unione.addAll(componenti.subList(letto, componenti.size()));
+            componenti = unione;
+            if (ricostruisciViste) {
+                viste.clear();
+            } else {
+                // Solo ora le posizioni sono quelle vere, e decidono tra i figli con la stessa chiave
+                for (int i = da; i < a; i++) {
+                    for (Vista vista : viste.values()) {
+                        vista.strategia.inserisciInVista(vista.elementi, elementi.get(i), this::posizioneDi);
+                    }
+                }
+            }
+            propaga(prima, totale, completati);
+        } finally {
+            lock.unlock();
+            attendiIscritti();
+        }
+    }
+
+    // Toglie un figlio diretto, cercandolo dalla fine dove stanno gli ultimi aggiunti; falso se non c'è
+    boolean rimuovi(TaskComponent componente) {
+        caricaFigli();
+        Lock lock = bloccaScrittura();
+        try {
+            int posizione = posizioneDi(componente);
+            if (posizione < 0) return false;
+
+            segnaModificato();
+            boolean prima = completato();
+            componenti.remove(posizione);
+            if (statoDi(componente)) figliCompletati--;
+            deregistra(componente);
+            scollega(componente);
+            for (Vista vista : viste.values()) {
+                vista.elementi.remove(componente);
+            }
+            propaga(prima, -foglie(componente), -foglieCompletate(componente));
+            if (EVENTI.isAttivo()) pubblica(EventiTask.Tipo.RIMOSSO, componente);
+            return true;
+        } finally {
+            lock.unlock();
+            attendiIscritti();
+        }
+    }
+
+    // Vero se questo progetto è "radice" o sta nel suo sottoalbero
+    boolean dentro(Project radice) {
+        Lock lock = bloccaLettura();
+        try {
+            for (Project p = this; p != null; p = p.genitore) {
+                if (p == radice) return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean haCompletati() {
+        return figliCompletati > 0 || taskCompletati > 0;
+    }
+
+    // Nomi dalla radice dell'albero fino a questo progetto, separati da "/"
+    private String percorso() {
+        StringBuilder percorso = new StringBuilder(nomeProgetto);
+        for (Project p = genitore; p != null; p = p.genitore) {
+            percorso.insert(0, p.nomeProgetto + "/");
+        }
+        return percorso.toString();
+    }
+
+    // La visualizzazione passa dal renderer bufferizzato: una sola scrittura su System.out per tutto il sottoalbero
     @Override
     public void display(String spazi) {
-        if (strategia != null) {
-            strategia.ordina(componenti);
+        TaskRenderer.stampa(this, spazi);
+    }
+
+    // I figli nell'ordine scelto dalla strategia attiva (o di inserimento se non ce n'è una).
+    // La vista viene costruita solo la prima volta e poi riusata finché il progetto non cambia;
+    // restituisco una copia, così chi la scorre non viene disturbato dalle modifiche degli altri thread
+    List<TaskComponent> getVistaOrdinata() {
+        return getVistaOrdinata(0, Integer.MAX_VALUE);
+    }
+
+    // Solo un tratto della vista (al più "quanti" figli a partire da "da"): chi sfoglia a pagine un progetto
+    // molto largo copia ogni volta il tratto che gli serve e non tutti i figli
+    List<TaskComponent> getVistaOrdinata(int da, int quanti) {
+        caricaFigli();
+        Lock lock = bloccaLettura();
+        try {
+            if (strategia == null) return tratto(componenti, da, quanti);
+            Vista vista = viste.get(strategia.getCodice());
+            if (vista != null) return tratto(vista.elementi, da, quanti);
+        } finally {
+            lock.unlock();
         }
 
-        System.out.println(spazi + "+ Progetto: " + nomeProgetto);
-        
-        for (TaskComponent c : componenti) {
-            c.display(spazi + "  ");
+        lock = bloccaScrittura();
+        try {
+            if (strategia == null) return tratto(componenti, da, quanti);
+            return tratto(viste.computeIfAbsent(strategia.getCodice(), k -> new Vista(strategia, componenti)).elementi, da, quanti);
+        } finally {
+            lock.unlock();
         }
     }
 
+    private static List<TaskComponent> tratto(List<TaskComponent> elementi, int da, int quanti) {
+        int inizio = Math.min(Math.max(0, da), elementi.size());
+        int fine = (int) Math.min(elementi.size(), (long) inizio + quanti);
+        return List.copyOf(elementi.subList(inizio, fine));
+    }
+
+    // O(1): basta confrontare il contatore dei figli completati con il numero di figli
     @Override
     public boolean isCompleted() {
-        if (componenti.isEmpty()) return false;
-        return componenti.stream().allMatch(TaskComponent::isCompleted);
+        Lock lock = bloccaLettura();
+        try {
+            return completato();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getTotaleTask() {
+        Lock lock = bloccaLettura();
+        try {
+            return totaleTask;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getTaskCompletati() {
+        Lock lock = bloccaLettura();
+        try {
+            return taskCompletati;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Percentuale (0-100) dei task completati nell'intero sottoalbero
+    public int getPercentualeCompletamento() {
+        Lock lock = bloccaLettura();
+        try {
+            if (totaleTask == 0) return 0;
+            return (int) ((long) taskCompletati * 100 / totaleTask);
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
@@ -75,13 +638,398 @@ public class Project implements TaskComponent, Iterable<TaskComponent> {
         return nomeProgetto;
     }
 
+    Project getGenitore() {
+        return genitore;
+    }
+
+    // Gli iteratori scorrono una copia presa sotto lock (ordine di inserimento)
     @Override
     public Iterator<TaskComponent> createIterator() {
-        return componenti.iterator();
+        return getFigli().iterator();
     }
 
     @Override
     public Iterator<TaskComponent> iterator() {
-        return componenti.iterator();
+        return getFigli().iterator();
+    }
+
+    List<TaskComponent> getFigli() {
+        caricaFigli();
+        Lock lock = bloccaLettura();
+        try {
+            return List.copyOf(componenti);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Numero di figli diretti, anche se sono ancora sul disco
+    // Figli diretti completati; per un progetto pigro è il contatore letto dall'indice
+    int getFigliCompletati() {
+        Lock lock = bloccaLettura();
+        try {
+            return figliCompletati;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getNumeroFigli() {
+        Lock lock = bloccaLettura();
+        try {
+            return componenti.size() + figliNonCaricati;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // --- Caricamento pigro ---
+
+    boolean isCaricato() {
+        return caricato;
+    }
+
+    SorgenteFigli getSorgente() {
+        return sorgente;
+    }
+
+    long getUltimoUso() {
+        return ultimoUso;
+    }
+
+    long getModifiche() {
+        Lock lock = bloccaLettura();
+        try {
+            return modifiche;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Dopo un salvataggio il progetto coincide con quanto scritto, a meno di modifiche successive a "modificheSalvate"
+    void aggiornaSorgente(SorgenteFigli sorgente, long modificheSalvate) {
+        Lock lock = bloccaScrittura();
+        try {
+            this.sorgente = sorgente;
+            this.modificheSalvate = modificheSalvate;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Rimette i figli sul disco per liberare memoria. Solo un progetto di primo livello senza modifiche
+    // rispetto alla sua sorgente può farlo: i contatori restano validi, l'indice e le viste si ricostruiranno
+    boolean scarica() {
+        Lock lock = bloccaScrittura();
+        try {
+            if (!caricato || sorgente == null || genitore != null || modifiche != modificheSalvate) return false;
+            for (TaskComponent c : componenti) {
+                scollega(c);
+            }
+            figliNonCaricati = componenti.size();
+            componenti = new ArrayList<>();
+            indiceNomi = new HashMap<>();
+            ricerca = null;
+            viste.clear();
+            caricato = false;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Da chiamare prima di prendere il lock: porta in memoria i figli di un progetto pigro.
+    // Per un progetto normale costa una sola lettura volatile
+    private void caricaFigli() {
+        SorgenteFigli s = sorgente;
+        if (s == null) return;
+        ultimoUso = System.nanoTime();
+        if (caricato) return;
+
+        Lock lock = bloccaScrittura();
+        try {
+            if (caricato) return;
+            List<TaskComponent> figli = s.leggiFigli();
+            // I contatori dell'indice vengono ricalcolati dai figli veri
+            figliNonCaricati = 0;
+            figliCompletati = 0;
+            totaleTask = 0;
+            taskCompletati = 0;
+            inserisciTutti(figli);
+            caricato = true;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Il file di salvataggio è corrotto o illeggibile.", e);
+        } finally {
+            lock.unlock();
+        }
+        s.caricato(this);
+    }
+
+    // Conta la modifica sulla radice dell'albero, l'unico livello che può essere scaricato
+    private void segnaModificato() {
+        Project radice = this;
+        while (radice.genitore != null) {
+            radice = radice.genitore;
+        }
+        radice.modifiche++;
+    }
+
+    // --- Sincronizzazione ---
+
+    // Prendo il lock dell'albero; se nel frattempo il progetto è stato spostato in un altro albero riprovo
+    private Lock bloccaScrittura() {
+        while (true) {
+            ReadWriteLock attuale = blocco;
+            Lock lock = attuale.writeLock();
+            lock.lock();
+            if (attuale == blocco) return lock;
+            lock.unlock();
+        }
+    }
+
+    // Lock di lettura di tutto l'albero, per chi lo deve leggere intero senza modifiche a metà (lo snapshot).
+    // Finché lo si tiene il progetto non può caricare i suoi figli dal disco: vanno caricati prima
+    Lock bloccaAlbero() {
+        return bloccaLettura();
+    }
+
+    private Lock bloccaLettura() {
+        while (true) {
+            ReadWriteLock attuale = blocco;
+            Lock lock = attuale.readLock();
+            lock.lock();
+            if (attuale == blocco) return lock;
+            lock.unlock();
+        }
+    }
+
+    // Il progetto (con tutto il suo sottoalbero) entra in un nuovo albero e ne usa il lock
+    private void adottaBlocco(ReadWriteLock nuovo) {
+        Lock vecchio = bloccaScrittura();
+        try {
+            Deque<Project> daVisitare = new ArrayDeque<>();
+            daVisitare.push(this);
+            while (!daVisitare.isEmpty()) {
+                Project p = daVisitare.pop();
+                p.blocco = nuovo;
+                for (TaskComponent c : p.componenti) {
+                    if (c instanceof Project) daVisitare.push((Project) c);
+                }
+            }
+        } finally {
+            vecchio.unlock();
+        }
+    }
+
+    // Inserisco il nuovo figlio nelle viste già pronte, al posto giusto
+    private void aggiornaViste(TaskComponent componente) {
+        for (Vista vista : viste.values()) {
+            vista.strategia.inserisciInVista(vista.elementi, componente);
+        }
+    }
+
+    // Rimette al posto giusto un figlio già tolto dalle viste che ordinano per stato
+    private void riposiziona(TaskComponent componente) {
+        for (Vista vista : viste.values()) {
+            if (vista.strategia.dipendeDaStato()) vista.strategia.inserisciInVista(vista.elementi, componente, this::posizioneDi);
+        }
+    }
+
+    // Un sotto-progetto che ha cambiato stato: qui ha già lo stato nuovo, quindi lo cerco scorrendo la vista.
+    // Succede solo quando si completa o si riapre un intero sotto-progetto
+    private void spostaInViste(Project figlio) {
+        for (Vista vista : viste.values()) {
+            if (vista.strategia.dipendeDaStato() && vista.elementi.remove(figlio)) {
+                vista.strategia.inserisciInVista(vista.elementi, figlio, this::posizioneDi);
+            }
+        }
+    }
+
+    // Posizione di un figlio diretto, cercandolo dalla fine dove stanno gli ultimi aggiunti; -1 se non c'è
+    private int posizioneDi(TaskComponent componente) {
+        int posizione = componenti.size() - 1;
+        while (posizione >= 0 && componenti.get(posizione) != componente) posizione--;
+        return posizione;
+    }
+
+    // La chiave di ordinamento del nome per OrdineComposto; il nome di un progetto non cambia
+    String getChiaveOrdinamento() {
+        String chiave = chiaveOrdinamento;
+        if (chiave == null) {
+            chiave = OrdineComposto.chiave(nomeProgetto);
+            chiaveOrdinamento = chiave;
+        }
+        return chiave;
+    }
+
+    // --- Eventi per gli iscritti ---
+
+    // Con il lock preso: gli iscritti vedono gli eventi nello stesso ordine delle modifiche
+    private void pubblica(EventiTask.Tipo tipo, TaskComponent componente) {
+        EVENTI.pubblica(new EventiTask.Evento(tipo, this, componente));
+    }
+
+    // Dopo aver lasciato il lock, così un iscritto che legge l'albero può sempre recuperare.
+    // Se il lock è ancora preso (una modifica dentro un'altra) aspetterà la modifica più esterna
+    private void attendiIscritti() {
+        if (EVENTI.isAttivo() && !((ReentrantReadWriteLock) blocco).isWriteLockedByCurrentThread()) {
+            EVENTI.attendiSpazio();
+        }
+    }
+
+    // --- Gestione dei contatori di completamento ---
+
+    // Chiamato da SimpleTask per cambiare stato a un figlio diretto; falso se il task non è più qui
+    boolean cambiaStato(SimpleTask task, boolean completato) {
+        Lock lock = bloccaScrittura();
+        try {
+            if (task.getGenitore() != this) return false;
+            if (task.isCompleted() == completato) return true;
+
+            segnaModificato();
+            boolean prima = completato();
+            // Nelle viste che ordinano per stato il task cambia posto: lo tolgo finché ha ancora lo stato vecchio
+            boolean spostare = false;
+            for (Vista vista : viste.values()) {
+                if (vista.strategia.dipendeDaStato()) spostare |= vista.strategia.togliDaVista(vista.elementi, task);
+            }
+            task.impostaStato(completato);
+            if (spostare) riposiziona(task);
+            int delta = completato ? 1 : -1;
+            figliCompletati += delta;
+            propaga(prima, 0, delta);
+            if (EVENTI.isAttivo()) pubblica(completato ? EventiTask.Tipo.COMPLETATO : EventiTask.Tipo.RIAPERTO, task);
+            return true;
+        } finally {
+            lock.unlock();
+            attendiIscritti();
+        }
+    }
+
+    // Versione senza lock di isCompleted, da usare quando il lock dell'albero è già preso
+    private boolean completato() {
+        int figli = componenti.size() + figliNonCaricati;
+        return figli > 0 && figliCompletati == figli;
+    }
+
+    private static boolean statoDi(TaskComponent c) {
+        return c instanceof Project ? ((Project) c).completato() : c.isCompleted();
+    }
+
+    // Applica le variazioni dei task a questo progetto e agli antenati.
+    // Se lo stato di un progetto cambia, aggiorno anche il contatore dei figli completati del genitore
+    private void propaga(boolean prima, int deltaTotale, int deltaCompletati) {
+        for (Project p = this; p != null; p = p.genitore) {
+            p.totaleTask += deltaTotale;
+            p.taskCompletati += deltaCompletati;
+            boolean dopo = p.completato();
+            Project g = p.genitore;
+            if (g == null || (prima == dopo && deltaTotale == 0 && deltaCompletati == 0)) break;
+
+            boolean primaGenitore = g.completato();
+            if (prima != dopo) {
+                g.figliCompletati += dopo ? 1 : -1;
+                g.spostaInViste(p);
+            }
+            prima = primaGenitore;
+        }
+    }
+
+    private static int foglie(TaskComponent c) {
+        if (c instanceof Project) return ((Project) c).totaleTask;
+        return c instanceof SimpleTask ? 1 : 0;
+    }
+
+    private static int foglieCompletate(TaskComponent c) {
+        if (c instanceof Project) return ((Project) c).taskCompletati;
+        return c instanceof SimpleTask && c.isCompleted() ? 1 : 0;
+    }
+
+    // --- Gestione dell'indice dei nomi ---
+
+    private static String chiave(String nome) {
+        return nome.toLowerCase(Locale.ROOT);
+    }
+
+    private void collega(TaskComponent componente) {
+        if (componente instanceof SimpleTask) {
+            ((SimpleTask) componente).setGenitore(this);
+        } else if (componente instanceof Project) {
+            ((Project) componente).genitore = this;
+        }
+    }
+
+    private static void scollega(TaskComponent componente) {
+        if (componente instanceof SimpleTask) {
+            ((SimpleTask) componente).setGenitore(null);
+        } else if (componente instanceof Project) {
+            ((Project) componente).genitore = null;
+        }
+    }
+
+    // Aggiunge il componente (e, se è un progetto, tutto il suo sottoalbero) all'indice di questo progetto e degli antenati
+    private void registra(TaskComponent componente) {
+        String chiave = chiave(componente.getName());
+        for (Project p = this; p != null; p = p.genitore) {
+            p.aggiungiAIndice(chiave, componente);
+            if (componente instanceof Project) {
+                for (String altra : ((Project) componente).indiceNomi.keySet()) {
+                    for (TaskComponent discendente : ((Project) componente).cercaNellIndice(altra)) {
+                        p.aggiungiAIndice(altra, discendente);
+                    }
+                }
+            }
+        }
+    }
+
+    // Operazione inversa di registra: il componente rimosso sparisce dall'indice di tutta la catena
+    private void deregistra(TaskComponent componente) {
+        String chiave = chiave(componente.getName());
+        for (Project p = this; p != null; p = p.genitore) {
+            p.rimuoviDaIndice(chiave, componente);
+            if (componente instanceof Project) {
+                for (String altra : ((Project) componente).indiceNomi.keySet()) {
+                    for (TaskComponent discendente : ((Project) componente).cercaNellIndice(altra)) {
+                        p.rimuoviDaIndice(altra, discendente);
+                    }
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<TaskComponent> cercaNellIndice(String chiave) {
+        Object valore = indiceNomi.get(chiave);
+        if (valore == null) return List.of();
+        if (valore instanceof TaskComponent) return List.of((TaskComponent) valore);
+        return (List<TaskComponent>) valore;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void aggiungiAIndice(String chiave, TaskComponent componente) {
+        if (ricerca != null) ricerca.aggiungi(componente);
+        Object valore = indiceNomi.putIfAbsent(chiave, componente);
+        if (valore instanceof TaskComponent) {
+            List<TaskComponent> omonimi = new ArrayList<>(2);
+            omonimi.add((TaskComponent) valore);
+            omonimi.add(componente);
+            indiceNomi.put(chiave, omonimi);
+        } else if (valore != null) {
+            ((List<TaskComponent>) valore).add(componente);
+        }
+    }
+
+    private void rimuoviDaIndice(String chiave, TaskComponent componente) {
+        if (ricerca != null) ricerca.rimuovi(componente);
+        Object valore = indiceNomi.get(chiave);
+        if (valore == componente) {
+            indiceNomi.remove(chiave);
+        } else if (valore instanceof List) {
+            List<?> omonimi = (List<?>) valore;
+            omonimi.remove(componente);
+            if (omonimi.size() == 1) {
+                indiceNomi.put(chiave, omonimi.get(0));
+            }
+        }
     }
 }
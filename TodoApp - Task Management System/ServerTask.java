@@ -0,0 +1,400 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Modalità server: gli stessi progetti del menu, esposti in JSON sull'HttpServer del JDK e solo su localhost.
+//   GET  /progetti                                  elenco dei progetti con i contatori
+//   GET  /progetti/{indice}/task?limite=200         righe dell'albero in profondità, nell'ordine della strategia;
+//                                  &cursore=...     la pagina seguente, con il "prossima" della risposta precedente
+//   POST /progetti/{indice}/task        nome=...    aggiunge un task (validato da TaskFactory)
+//   POST /progetti/{indice}/completa    nome=...    completa il primo task con quel nome
+//   POST /progetti/{indice}/pulizia                 toglie i completati e li archivia
+// Ogni modifica passa da StorageManager.registra, quindi segue la modalità di salvataggio scelta
+public class ServerTask {
+    private static final int LIMITE_PREDEFINITO = 200;
+    private static final int LIMITE_MASSIMO = 10_000;
+    // Sotto Java 21 non ci sono i thread virtuali: un pool fisso, dimensionato sui core, serve lo stesso le richieste
+    private static final int THREAD_PER_CORE = 4;
+    // Connessioni che possono aspettare di essere accettate: con migliaia di client la coda predefinita è troppo corta
+    private static final int CODA_CONNESSIONI = 4096;
+
+    private final List<Project> progetti;
+    private final StorageManager storage;
+    private final HttpServer server;
+    private final ExecutorService esecutore;
+
+    private static final Metriche.Istogramma DURATA_RICHIESTE = Metriche.getInstance().istogramma("server.richiesta.ns");
+    private static final Metriche.Contatore ERRORI = Metriche.getInstance().contatore("server.errori");
+
+    // Con porta 0 il sistema ne sceglie una libera (vedi getPorta)
+    public ServerTask(List<Project> progetti, StorageManager storage, int porta) throws IOException {
+        this.progetti = progetti;
+        this.storage = storage;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), porta), CODA_CONNESSIONI);
+        this.esecutore = creaEsecutore();
+        server.setExecutor(esecutore);
+        server.createContext("/progetti", this::gestisci);
+    }
+
+    public void avvia() {
+        server.start();
+    }
+
+    public int getPorta() {
+        return server.getAddress().getPort();
+    }
+
+    // Aspetta al massimo "secondi" che le richieste in corso finiscano
+    public void ferma(int secondi) {
+        server.stop(secondi);
+        esecutore.shutdown();
+        try {
+            esecutore.awaitTermination(secondi, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Un thread virtuale per richiesta quando il JDK li ha (21 o successivi), altrimenti il pool fisso
+    private static ExecutorService creaEsecutore() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return Executors.newFixedThreadPool(THREAD_PER_CORE * Runtime.getRuntime().availableProcessors(), r -> {
+                Thread thread = new Thread(r, "server-task");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private void gestisci(HttpExchange scambio) throws IOException {
+        long inizio = DURATA_RICHIESTE.inizio();
+        try {
+            String[] parti = scambio.getRequestURI().getPath().split("/");
+            String metodo = scambio.getRequestMethod();
+            // parti[0] è vuoto e parti[1] è "progetti"
+            if (parti.length == 2 && metodo.equals("GET")) {
+                elencoProgetti(scambio);
+                return;
+            }
+            if (parti.length != 4) {
+                errore(scambio, 404, "Percorso sconosciuto");
+                return;
+            }
+            int indice;
+            try {
+                indice = Integer.parseInt(parti[2]);
+            } catch (NumberFormatException e) {
+                errore(scambio, 404, "Progetto inesistente");
+                return;
+            }
+            if (indice < 0 || indice >= progetti.size()) {
+                errore(scambio, 404, "Progetto inesistente");
+                return;
+            }
+
+            String azione = metodo + " " + parti[3];
+            switch (azione) {
+                case "GET task": {
+                    Map<String, String> parametri = parametri(scambio, scambio.getRequestURI().getRawQuery());
+                    if (parametri != null) righe(scambio, indice, parametri);
+                    break;
+                }
+                case "POST task": {
+                    Map<String, String> parametri = parametri(scambio, leggiCorpo(scambio));
+                    if (parametri != null) aggiungi(scambio, indice, parametri);
+                    break;
+                }
+                case "POST completa": {
+                    Map<String, String> parametri = parametri(scambio, leggiCorpo(scambio));
+                    if (parametri != null) completa(scambio, indice, parametri);
+                    break;
+                }
+                case "POST pulizia":
+                    leggiCorpo(scambio);
+                    pulizia(scambio, indice);
+                    break;
+                default:
+                    errore(scambio, parti[3].matches("task|completa|pulizia") ? 405 : 404, "Operazione non supportata");
+            }
+        } catch (RuntimeException e) {
+            // Come in StorageManager: niente dettagli interni verso l'esterno
+            ERRORI.incrementa();
+            try {
+                errore(scambio, 500, "Errore interno");
+            } catch (IOException intestazioniGiaInviate) {
+                // La risposta era già partita: chiudendo lo scambio il client vede il JSON troncato
+            }
+        } finally {
+            scambio.close();
+            DURATA_RICHIESTE.fine(inizio);
+        }
+    }
+
+    private void elencoProgetti(HttpExchange scambio) throws IOException {
+        try (Writer json = risposta(scambio, 200)) {
+            json.write('[');
+            for (int i = 0; i < progetti.size(); i++) {
+                Project p = progetti.get(i);
+                if (i > 0) json.write(',');
+                json.write("{\"indice\":" + i + ",\"nome\":");
+                stringa(json, p.getName());
+                json.write(",\"task\":" + p.getTotaleTask() + ",\"completati\":" + p.getTaskCompletati() + "}");
+            }
+            json.write(']');
+        }
+    }
+
+    // Le righe vengono scritte mentre si visita l'albero, senza costruire prima la risposta:
+    // la memoria usata non dipende dalla dimensione della pagina. "prossima" è un cursore con la posizione
+    // in ogni livello aperto, come la pila di TaskRenderer.continua: la pagina seguente riparte da lì
+    // senza rileggere le righe già mandate, quindi ogni pagina costa quanto il suo limite
+    private void righe(HttpExchange scambio, int indice, Map<String, String> parametri) throws IOException {
+        int[] cursore;
+        int limite;
+        try {
+            cursore = leggiCursore(parametri.getOrDefault("cursore", ""));
+            limite = Math.min(LIMITE_MASSIMO, Math.max(1, Integer.parseInt(parametri.getOrDefault("limite", "" + LIMITE_PREDEFINITO))));
+        } catch (NumberFormatException e) {
+            errore(scambio, 400, "cursore o limite non validi");
+            return;
+        }
+
+        try (Writer json = risposta(scambio, 200)) {
+            json.write("{\"righe\":[");
+            Deque<Blocchi> aperti = riapri(progetti.get(indice), cursore);
+            int scritte = 0;
+            String prossima = null;
+            while (!aperti.isEmpty()) {
+                Blocchi figli = aperti.peek();
+                if (!figli.hasNext()) {
+                    aperti.pop();
+                    continue;
+                }
+                if (scritte == limite) {
+                    prossima = cursore(aperti);
+                    break;
+                }
+                TaskComponent c = figli.next();
+                int profondita = aperti.size() - 1;
+                boolean progetto = c instanceof Project;
+                if (progetto) {
+                    aperti.push(new Blocchi((Project) c, 0));
+                }
+                if (scritte++ > 0) json.write(',');
+                json.write("{\"nome\":");
+                stringa(json, c.getName());
+                json.write(",\"completato\":" + c.isCompleted() + ",\"profondita\":" + profondita
+                        + (progetto ? ",\"progetto\":true}" : "}"));
+            }
+            json.write("],\"prossima\":" + (prossima == null ? "null" : "\"" + prossima + "\"") + "}");
+        }
+    }
+
+    // Il cursore è la posizione nella vista di ogni livello aperto, dalla radice in giù, separate da punti:
+    // per i livelli esterni quella del sotto-progetto aperto, per l'ultimo quella della prossima riga
+    private static int[] leggiCursore(String testo) {
+        if (testo.isEmpty()) return new int[] {0};
+        String[] parti = testo.split("\\.");
+        int[] posizioni = new int[parti.length];
+        for (int i = 0; i < parti.length; i++) {
+            posizioni[i] = Integer.parseInt(parti[i]);
+            if (posizioni[i] < 0) throw new NumberFormatException("Posizione negativa");
+        }
+        return posizioni;
+    }
+
+    private static String cursore(Deque<Blocchi> aperti) {
+        StringBuilder testo = new StringBuilder();
+        Iterator<Blocchi> livelli = aperti.descendingIterator();
+        while (livelli.hasNext()) {
+            Blocchi livello = livelli.next();
+            if (testo.length() > 0) testo.append('.');
+            testo.append(livelli.hasNext() ? livello.getProssimo() - 1 : livello.getProssimo());
+        }
+        return testo.toString();
+    }
+
+    // Ricostruisce la pila della visita: ogni livello esterno riparte dopo il sotto-progetto aperto.
+    // Se nel frattempo l'albero è cambiato e lì non c'è più un progetto, si riprende da quella posizione
+    private static Deque<Blocchi> riapri(Project radice, int[] cursore) {
+        Deque<Blocchi> aperti = new ArrayDeque<>();
+        Project corrente = radice;
+        for (int i = 0; i < cursore.length; i++) {
+            if (i == cursore.length - 1) {
+                aperti.push(new Blocchi(corrente, cursore[i]));
+                break;
+            }
+            List<TaskComponent> aperto = corrente.getVistaOrdinata(cursore[i], 1);
+            if (aperto.isEmpty() || !(aperto.get(0) instanceof Project)) {
+                aperti.push(new Blocchi(corrente, cursore[i]));
+                break;
+            }
+            aperti.push(new Blocchi(corrente, cursore[i] + 1));
+            corrente = (Project) aperto.get(0);
+        }
+        return aperti;
+    }
+
+    // Scorre i figli di un progetto chiedendo la vista a blocchi: una pagina all'inizio di un progetto con
+    // centomila figli copia un blocco e non centomila riferimenti. Se il progetto cambia mentre lo si scorre
+    // un figlio può saltare o ripetersi, come tra due pagine chieste in momenti diversi
+    private static final class Blocchi implements Iterator<TaskComponent> {
+        private static final int BLOCCO = 256;
+
+        private final Project progetto;
+        private List<TaskComponent> blocco = List.of();
+        private int posizione;
+        private int letti;
+        private boolean finito;
+
+        Blocchi(Project progetto, int da) {
+            this.progetto = progetto;
+            this.letti = da;
+        }
+
+        // Posizione nella vista dell'elemento che next() restituirà
+        int getProssimo() {
+            return letti - blocco.size() + posizione;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (posizione < blocco.size()) return true;
+            if (finito) return false;
+            blocco = progetto.getVistaOrdinata(letti, BLOCCO);
+            letti += blocco.size();
+            posizione = 0;
+            finito = blocco.size() < BLOCCO;
+            return !blocco.isEmpty();
+        }
+
+        @Override
+        public TaskComponent next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            return blocco.get(posizione++);
+        }
+    }
+
+    private void aggiungi(HttpExchange scambio, int indice, Map<String, String> parametri) throws IOException {
+        TaskComponent task;
+        try {
+            task = TaskFactory.createTask("SIMPLE", parametri.get("nome"));
+        } catch (IllegalArgumentException e) {
+            errore(scambio, 400, e.getMessage());
+            return;
+        }
+        progetti.get(indice).add(task);
+        storage.registra(progetti, StorageManager.Operazione.AGGIUNGI, indice, task.getName());
+        try (Writer json = risposta(scambio, 201)) {
+            json.write("{\"nome\":");
+            stringa(json, task.getName());
+            json.write(",\"completato\":false}");
+        }
+    }
+
+    // Come la ripetizione del journal: senza passare da completaTask, che scrive messaggi per il menu
+    private void completa(HttpExchange scambio, int indice, Map<String, String> parametri) throws IOException {
+        String nome = parametri.getOrDefault("nome", "");
+        SimpleTask task = progetti.get(indice).cercaTask(nome);
+        if (task == null) {
+            errore(scambio, 404, "Task non trovato");
+            return;
+        }
+        task.setCompletato(true);
+        storage.registra(progetti, StorageManager.Operazione.COMPLETA, indice, nome);
+        try (Writer json = risposta(scambio, 200)) {
+            json.write("{\"nome\":");
+            stringa(json, task.getName());
+            json.write(",\"completato\":true}");
+        }
+    }
+
+    private void pulizia(HttpExchange scambio, int indice) throws IOException {
+        Project.Pulizia pulizia = storage.rimuoviCompletati(progetti, indice);
+        try (Writer json = risposta(scambio, 200)) {
+            json.write("{\"taskRimossi\":" + pulizia.getTaskRimossi() + ",\"progettiRimossi\":" + pulizia.getProgettiRimossi() + "}");
+        }
+    }
+
+    // --- Supporto HTTP e JSON ---
+
+    // Risposta a blocchi (chunked): la lunghezza non serve conoscerla prima
+    private static Writer risposta(HttpExchange scambio, int codice) throws IOException {
+        scambio.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        scambio.sendResponseHeaders(codice, 0);
+        return new BufferedWriter(new OutputStreamWriter(scambio.getResponseBody(), StandardCharsets.UTF_8), 1 << 13);
+    }
+
+    private static void errore(HttpExchange scambio, int codice, String messaggio) throws IOException {
+        try (Writer json = risposta(scambio, codice)) {
+            json.write("{\"errore\":");
+            stringa(json, messaggio);
+            json.write('}');
+        }
+    }
+
+    private static void stringa(Writer json, String testo) throws IOException {
+        json.write('"');
+        for (int i = 0; i < testo.length(); i++) {
+            char c = testo.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.write('\\');
+                json.write(c);
+            } else if (c < 0x20) {
+                json.write(String.format("\\u%04x", (int) c));
+            } else {
+                json.write(c);
+            }
+        }
+        json.write('"');
+    }
+
+    private static String leggiCorpo(HttpExchange scambio) throws IOException {
+        try (InputStream corpo = scambio.getRequestBody()) {
+            return new String(corpo.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    // Un "%" senza due cifre esadecimali è un errore di chi chiama, non del server: rispondo 400 e restituisco null
+    private static Map<String, String> parametri(HttpExchange scambio, String testo) throws IOException {
+        try {
+            return parametri(testo);
+        } catch (IllegalArgumentException e) {
+            errore(scambio, 400, "Parametri codificati male");
+            return null;
+        }
+    }
+
+    // Parametri nel formato dei form (a=1&b=2), sia nella query sia nel corpo delle POST
+    private static Map<String, String> parametri(String testo) {
+        Map<String, String> parametri = new HashMap<>();
+        if (testo == null || testo.isEmpty()) return parametri;
+        for (String coppia : testo.split("&")) {
+            int uguale = coppia.indexOf('=');
+            if (uguale <= 0) continue;
+            parametri.put(URLDecoder.decode(coppia.substring(0, uguale), StandardCharsets.UTF_8),
+                    URLDecoder.decode(coppia.substring(uguale + 1), StandardCharsets.UTF_8));
+        }
+        return parametri;
+    }
+}
@@ -4,7 +4,10 @@ import java.util.Collections;
 // Questa è la "foglia" del pattern Composite
 public class SimpleTask implements TaskComponent {
     private String nome;
-    private boolean completato;
+    private volatile boolean completato;
+    private volatile Project genitore;
+    // Chiave di ordinamento del nome, calcolata la prima volta che un ordinamento la chiede (il nome non cambia)
+    private String chiaveOrdinamento;
 
     // Quando si crea un task, nasce sempre come "da fare" 
     public SimpleTask(String nome) {
@@ -14,6 +17,20 @@ public class SimpleTask implements TaskComponent {
 
     // Permette di segnare il task come completato
     public void setCompletato(boolean completato) {
+        // Se sono dentro un progetto passo da lui, così i contatori restano aggiornati sotto il suo lock.
+        // Se nel frattempo vengo spostato altrove riprovo con il nuovo genitore
+        while (true) {
+            Project attuale = genitore;
+            if (attuale == null) {
+                this.completato = completato;
+                return;
+            }
+            if (attuale.cambiaStato(this, completato)) return;
+        }
+    }
+
+    // Usato da Project quando ha già aggiornato i contatori
+    void impostaStato(boolean completato) {
         this.completato = completato;
     }
 
@@ -34,6 +51,24 @@ public class SimpleTask implements TaskComponent {
         return nome; 
     }
 
+    // Il progetto che contiene direttamente il task (impostato da Project.add)
+    Project getGenitore() {
+        return genitore;
+    }
+
+    void setGenitore(Project genitore) {
+        this.genitore = genitore;
+    }
+
+    String getChiaveOrdinamento() {
+        String chiave = chiaveOrdinamento;
+        if (chiave == null) {
+            chiave = OrdineComposto.chiave(nome);
+            chiaveOrdinamento = chiave;
+        }
+        return chiave;
+    }
+
     @Override
     public Iterator<TaskComponent> createIterator() {
         // Essendo un task singolo non ha figli, quindi restituisco un iterator vuoto
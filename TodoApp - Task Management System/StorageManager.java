@@ -1,28 +1,335 @@
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
-import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32C;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 // Usando il Singleton sono sicuro che non ci siano due "StorageManager" che scrivono sullo stesso file contemporaneamente
 public class StorageManager {
-    private static StorageManager instance;
     private static final String FILE_NAME = "tasks.txt";
+
+    // Intestazione del formato binario: "OOBT" seguito dalla versione (dalla 2 c'è anche la generazione,
+    // dalla 3 ogni progetto ha la lettera della sua strategia)
+    private static final int MAGIA_BINARIO = 0x4F4F4254;
+    private static final byte VERSIONE_BINARIO = 3;
+    // Formato verificato: "OOBV", la sua versione e poi un blocco con checksum per ogni progetto di primo livello
+    private static final int MAGIA_VERIFICATO = 0x4F4F4256;
+    private static final byte VERSIONE_VERIFICATO = 1;
+    private static final byte FLAG_COMPLETATO = 1;
+    private static final byte FLAG_PROGETTO = 2;
+    // Codice salvato per i progetti senza strategia (ordine di inserimento)
+    private static final String CODICE_INSERIMENTO = "I";
+
+    // Formati disponibili per il salvataggio, dal più vecchio al più nuovo; in lettura il formato viene riconosciuto da solo
+    public enum Formato { TESTO, BINARIO, VERIFICATO }
+
+    // Operazioni che il journal sa registrare e rieseguire al caricamento
+    public enum Operazione { NUOVO_PROGETTO, AGGIUNGI, COMPLETA, RIMUOVI_COMPLETATI, SVUOTA, STRATEGIA }
+
+    // Dopo quante operazioni nel journal conviene riscrivere lo snapshot completo
+    private static final int SOGLIA_COMPATTAZIONE = 1000;
+
+    private String percorsoFile = FILE_NAME;
+    private Formato formato = Formato.TESTO;
+    // Letto senza monitor da registra, per non far aspettare un salvataggio in corso a chi non usa il journal
+    private volatile boolean modalitaJournal;
+    private int sogliaCompattazione = SOGLIA_COMPATTAZIONE;
+    private TaskJournal journal = new TaskJournal(new File(FILE_NAME + ".journal"));
+    // Ogni snapshot ha una generazione: il journal vale solo per lo snapshot con la stessa generazione
+    private long generazione;
+    // I progetti dell'ultimo snapshot e quante modifiche aveva ognuno quando è stato scritto (vedi giaNelloSnapshot)
+    private List<Project> progettiSnapshot = List.of();
+    private long[] modificheSnapshot = new long[0];
+    // Vero dopo un caricamento fallito: il file sul disco non va sovrascritto finché non ne è stata fatta una copia
+    private volatile boolean caricamentoFallito;
+
+    // Quanti task possono restare in memoria, sommando i progetti caricati in modo pigro
+    private static final long BUDGET_TASK = 1_000_000;
+
+    private boolean caricamentoPigro;
+    private long budgetTask = BUDGET_TASK;
+    // Progetti pigri che in questo momento hanno i figli in memoria
+    private final List<Project> caricati = new ArrayList<>();
+    // Protegge i segmenti: chi legge un progetto dal disco non deve vedere il file sostituito a metà di un salvataggio.
+    // Non va mai preso prima del lock di un progetto, quindi non può bloccarsi con loro
+    private final ReadWriteLock bloccoFile = new ReentrantReadWriteLock();
+
+    // Salvataggio asincrono: protetto da "pianificazione", mai preso prima del lock dello StorageManager
+    private final Object pianificazione = new Object();
+    private long ritardoAsincrono;
+    private ScheduledExecutorService scrittore;
+    // L'ultima lista da salvare (null se non c'è niente in attesa) e il salvataggio già programmato per lei
+    private List<Project> daSalvare;
+    private ScheduledFuture<?> salvataggioProgrammato;
     
     // Logger configurato per registrare errori internamente senza esporli all'utente
     private static final Logger LOGGER = Logger.getLogger(StorageManager.class.getName());
 
+    // Il logger mostra solo gli errori: durate e dimensioni di salvataggi e caricamenti vanno nelle metriche
+    private static final Metriche.Istogramma DURATA_SALVATAGGIO = Metriche.getInstance().istogramma("storage.save.ns");
+    private static final Metriche.Istogramma BYTE_SALVATI = Metriche.getInstance().istogramma("storage.save.byte");
+    private static final Metriche.Istogramma TASK_SALVATI = Metriche.getInstance().istogramma("storage.save.task");
+    private static final Metriche.Contatore RICHIESTE_ASINCRONE = Metriche.getInstance().contatore("storage.save.richiesteAsincrone");
+    private static final Metriche.Contatore ERRORI_SALVATAGGIO = Metriche.getInstance().contatore("storage.save.errori");
+    private static final Metriche.Istogramma DURATA_CARICAMENTO = Metriche.getInstance().istogramma("storage.load.ns");
+    private static final Metriche.Istogramma BYTE_CARICATI = Metriche.getInstance().istogramma("storage.load.byte");
+    private static final Metriche.Istogramma TASK_CARICATI = Metriche.getInstance().istogramma("storage.load.task");
+    private static final Metriche.Contatore BLOCCHI_DANNEGGIATI = Metriche.getInstance().contatore("storage.load.blocchiDanneggiati");
+
     private StorageManager() {
         // Mantengo il log pulito mostrando solo gli errori critici
         LOGGER.setLevel(Level.SEVERE); 
     }
 
+    // La classe interna viene caricata solo al primo getInstance(): creazione pigra e sicura tra thread senza lock
+    private static class Holder {
+        private static final StorageManager INSTANCE = new StorageManager();
+    }
+
     public static StorageManager getInstance() {
-        if (instance == null) {
-            instance = new StorageManager();
+        return Holder.INSTANCE;
+    }
+
+    // Il formato usato dai prossimi salvataggi. Basta caricare un vecchio file di testo e
+    // salvare con BINARIO per migrarlo
+    public synchronized void setFormato(Formato formato) {
+        this.formato = formato;
+    }
+
+    public synchronized Formato getFormato() {
+        return formato;
+    }
+
+    // Con il journal attivo ogni modifica aggiunge una sola riga invece di riscrivere tutto il file
+    public synchronized void setModalitaJournal(boolean attiva) {
+        this.modalitaJournal = attiva;
+    }
+
+    public synchronized void setSogliaCompattazione(int soglia) {
+        this.sogliaCompattazione = soglia;
+    }
+
+    // Con il caricamento pigro loadTasks legge solo le intestazioni dei progetti; i figli arrivano
+    // dal disco la prima volta che servono, e i progetti non modificati si scaricano oltre il budget
+    public synchronized void setCaricamentoPigro(boolean attivo) {
+        this.caricamentoPigro = attivo;
+    }
+
+    public synchronized void setBudgetTask(long budget) {
+        this.budgetTask = budget;
+        rispettaBudget(null);
+    }
+
+    // Permette a test e benchmark di lavorare su un file diverso da quello dell'applicazione
+    synchronized void setPercorsoFile(String percorsoFile) {
+        try {
+            journal.chiudi();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Impossibile chiudere il journal.");
+        }
+        this.percorsoFile = percorsoFile;
+        this.journal = new TaskJournal(new File(percorsoFile + ".journal"));
+        this.generazione = 0;
+        this.progettiSnapshot = List.of();
+        this.caricamentoFallito = false;
+    }
+
+    // Con un ritardo maggiore di zero le modifiche non si scrivono più sul thread di chi le fa: la prima fa partire
+    // un timer e tutte quelle che arrivano prima che scada finiscono nello stesso snapshot, scritto da un thread
+    // in background. Un crash può perdere al massimo l'ultimo ritardo; flush() e l'hook di chiusura non perdono niente.
+    // Con il journal attivo le modifiche restano righe del journal scritte subito, e in background va solo la compattazione.
+    // Con 0 si torna alle scritture sincrone, dopo aver scritto quello che era in attesa
+    public void setSalvataggioAsincrono(long ritardoMillis) {
+        if (ritardoMillis <= 0) flush();
+        synchronized (pianificazione) {
+            ritardoAsincrono = Math.max(0, ritardoMillis);
+            if (ritardoAsincrono > 0 && scrittore == null) {
+                scrittore = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread thread = new Thread(r, "salvataggio-task");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "salvataggio-task-chiusura"));
+            }
+        }
+    }
+
+    // Salva in background (o subito, se il salvataggio asincrono è spento). Non prende il lock dello StorageManager,
+    // quindi chi modifica i task non aspetta mai un salvataggio in corso
+    public void pianificaSalvataggio(List<Project> progetti) {
+        synchronized (pianificazione) {
+            if (ritardoAsincrono > 0) {
+                RICHIESTE_ASINCRONE.incrementa();
+                // Copio la lista: chi la modifica (un nuovo progetto) non deve disturbare il thread che la salva
+                daSalvare = List.copyOf(progetti);
+                if (salvataggioProgrammato == null) {
+                    salvataggioProgrammato = scrittore.schedule(this::salvaInAttesa, ritardoAsincrono, TimeUnit.MILLISECONDS);
+                }
+                return;
+            }
+        }
+        saveTasks(progetti);
+    }
+
+    // Scrive subito quello che è in attesa e aspetta che sia sul disco, anche se un salvataggio è già in corso:
+    // il thread di scrittura è uno solo, quindi il mio compito parte solo dopo gli altri. Non va chiamato
+    // mentre si tiene il lock dello StorageManager
+    public void flush() {
+        ScheduledExecutorService esecutore;
+        synchronized (pianificazione) {
+            esecutore = scrittore;
+        }
+        if (esecutore == null) return;
+        try {
+            esecutore.submit(this::salvaInAttesa).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | RejectedExecutionException e) {
+            LOGGER.log(Level.SEVERE, "Salvataggio in background non riuscito.");
+        }
+    }
+
+    // La lista si prende tenendo il monitor, come fa chi registra una modifica nel journal e la aggiorna:
+    // lo snapshot contiene tutti i progetti delle operazioni che il journal sta per dimenticare
+    private synchronized void salvaInAttesa() {
+        List<Project> lista;
+        synchronized (pianificazione) {
+            lista = daSalvare;
+            daSalvare = null;
+            salvataggioProgrammato = null;
+        }
+        if (lista != null) saveTasks(lista);
+    }
+
+    // Rende persistente una modifica appena fatta. Col journal scrivo solo l'operazione (e ogni tanto compatto,
+    // in background se il salvataggio asincrono è attivo), altrimenti riscrivo tutto come prima;
+    // col salvataggio asincrono senza journal la modifica entra nel prossimo snapshot.
+    // L'indice è la posizione del progetto nella lista
+    public void registra(List<Project> progetti, Operazione operazione, int indiceProgetto, String argomento) {
+        if (!modalitaJournal) {
+            synchronized (pianificazione) {
+                if (ritardoAsincrono > 0) {
+                    pianificaSalvataggio(progetti);
+                    return;
+                }
+            }
+        }
+        registraSincrono(progetti, operazione, indiceProgetto, argomento);
+    }
+
+    private synchronized void registraSincrono(List<Project> progetti, Operazione operazione, int indiceProgetto, String argomento) {
+        // Dopo un caricamento fallito il journal appartiene al file illeggibile: la modifica va in uno snapshot nuovo
+        if (!modalitaJournal || caricamentoFallito) {
+            pianificaSalvataggio(progetti);
+            return;
+        }
+        if (giaNelloSnapshot(progetti, operazione, indiceProgetto)) return;
+
+        try {
+            journal.aggiungi(operazione + "|" + indiceProgetto + "|" + sanitize(argomento));
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Errore IO durante la scrittura del journal.");
+            System.out.println("⚠️ Errore: Impossibile salvare i dati. Controlla i permessi della cartella.");
+            return;
+        }
+
+        synchronized (pianificazione) {
+            // Una compattazione in attesa deve vedere anche un progetto appena creato
+            if (daSalvare != null) daSalvare = List.copyOf(progetti);
+        }
+        if (journal.getVoci() >= sogliaCompattazione) {
+            pianificaSalvataggio(progetti);
+        }
+    }
+
+    // Vero se l'ultimo snapshot contiene già la modifica appena fatta: succede quando una compattazione in background
+    // scrive il progetto tra la modifica e la sua registrazione, e il journal azzerato non deve riceverla di nuovo.
+    // Ogni progetto viene scritto sotto il lock del suo albero, quindi il numero di modifiche annotato dice
+    // esattamente cosa è finito nel file
+    private boolean giaNelloSnapshot(List<Project> progetti, Operazione operazione, int indice) {
+        if (indice < 0 || indice >= progetti.size() || indice >= progettiSnapshot.size()) return false;
+        Project progetto = progetti.get(indice);
+        if (progettiSnapshot.get(indice) != progetto) return false;
+        return operazione == Operazione.NUOVO_PROGETTO || progetto.getModifiche() <= modificheSnapshot[indice];
+    }
+
+    // Pulizia di un progetto: i task completati non vengono buttati ma finiscono in coda all'archivio,
+    // un file a parte che il caricamento non legge. L'archivio riceve una sola scrittura per tutta la pulizia
+    // e il journal una sola operazione, che al caricamento rifà la stessa pulizia
+    public synchronized Project.Pulizia rimuoviCompletati(List<Project> progetti, int indiceProgetto) {
+        Project.Pulizia pulizia = progetti.get(indiceProgetto).rimuoviCompletati();
+        if (pulizia.getTaskRimossi() == 0 && pulizia.getProgettiRimossi() == 0) return pulizia;
+
+        File archivio = new File(percorsoFile + ".archivio");
+        long inizio = archivio.length();
+        try {
+            scriviArchivio(archivio, "ARCHIVIATO", pulizia);
+            // Ricordo dove sono finite le righe, così annullaArchiviazione le può togliere
+            pulizia.segnaArchivio(inizio, archivio.length());
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Errore IO durante la scrittura dell'archivio.");
+            System.out.println("⚠️ Errore: Impossibile archiviare i task rimossi. Controlla i permessi della cartella.");
+        }
+        registra(progetti, Operazione.RIMUOVI_COMPLETATI, indiceProgetto, "");
+        return pulizia;
+    }
+
+    // Quando una pulizia viene annullata, i suoi task tornano nel progetto e devono uscire anche dall'archivio,
+    // altrimenti ripeterla li archivierebbe due volte. Se le sue righe sono ancora le ultime del file lo taglio
+    // dove era prima; se dopo ha scritto qualcun altro (il server) aggiungo una riga RIPRISTINATO per ogni task
+    public synchronized void annullaArchiviazione(Project.Pulizia pulizia) {
+        if (pulizia.getInizioArchivio() < 0) return;
+        File archivio = new File(percorsoFile + ".archivio");
+        try {
+            if (archivio.length() == pulizia.getFineArchivio()) {
+                try (FileChannel canale = FileChannel.open(archivio.toPath(), StandardOpenOption.WRITE)) {
+                    canale.truncate(pulizia.getInizioArchivio());
+                }
+            } else {
+                scriviArchivio(archivio, "RIPRISTINATO", pulizia);
+            }
+            pulizia.segnaArchivio(-1, -1);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Errore IO durante la correzione dell'archivio.");
+            System.out.println("⚠️ Errore: Impossibile aggiornare l'archivio. Controlla i permessi della cartella.");
+        }
+    }
+
+    // Una riga per ogni task della pulizia, tutte con una sola scrittura in coda al file
+    private void scriviArchivio(File archivio, String tipo, Project.Pulizia pulizia) throws IOException {
+        String data = LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS).toString();
+        StringBuilder righe = new StringBuilder();
+        for (int i = 0; i < pulizia.getTaskRimossi(); i++) {
+            righe.append(tipo).append('|').append(data).append('|').append(sanitize(pulizia.getPercorso(i)))
+                 .append('|').append(sanitize(pulizia.getTask().get(i).getName())).append('\n');
+        }
+        try (Writer uscita = new OutputStreamWriter(new FileOutputStream(archivio, true), StandardCharsets.UTF_8)) {
+            uscita.write(righe.toString());
         }
-        return instance;
     }
 
     // Prevengo l'inserimento di caratteri indesiderati
@@ -34,46 +341,294 @@ public class StorageManager {
                     .trim();
     }
 
-    // Salva i progetti e i relativi task sul file di testo.
-    public void saveTasks(List<Project> progetti) {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(FILE_NAME))) {
-            for (Project p : progetti) {
-                writer.println("PROGETTO|" + sanitize(p.getName()));
-                for (TaskComponent t : p) {
-                    String stato = t.isCompleted() ? "X" : "O";
-                    writer.println("TASK|" + stato + "|" + sanitize(t.getName()));
+    // Salva i progetti e i relativi task (snapshot completo).
+    // Scrivo prima su un file temporaneo e poi lo sostituisco, così un crash non lascia mai un file a metà;
+    // subito dopo il journal viene azzerato perché le sue operazioni sono ormai nello snapshot
+    public synchronized void saveTasks(List<Project> progetti) {
+        long inizio = DURATA_SALVATAGGIO.inizio();
+        // Questo snapshot contiene già quello che aspettava in background
+        synchronized (pianificazione) {
+            if (progetti.equals(daSalvare)) daSalvare = null;
+        }
+        File file = new File(percorsoFile);
+        File temporaneo = new File(percorsoFile + ".tmp");
+        long nuovaGenerazione = generazione + 1;
+        // Per ogni progetto: le modifiche che aveva mentre veniva scritto e dove sono finiti i suoi figli
+        long[] modifiche = new long[progetti.size()];
+        long[][] intervalli = new long[progetti.size()][];
+
+        try {
+            if (caricamentoFallito) conservaIlleggibile(file);
+            if (formato == Formato.VERIFICATO) {
+                saveVerificato(progetti, temporaneo, nuovaGenerazione, modifiche, intervalli);
+            } else if (formato == Formato.BINARIO) {
+                saveBinario(progetti, temporaneo, nuovaGenerazione, modifiche, intervalli);
+            } else {
+                saveTesto(progetti, temporaneo, nuovaGenerazione, modifiche, intervalli);
+            }
+            Segmento[] segmenti = null;
+            bloccoFile.writeLock().lock();
+            try {
+                sostituisci(temporaneo, file);
+                if (caricamentoPigro) {
+                    segmenti = spostaSegmenti(progetti, file, intervalli);
                 }
+            } finally {
+                bloccoFile.writeLock().unlock();
+            }
+            if (segmenti != null) {
+                for (int i = 0; i < progetti.size(); i++) {
+                    Project p = progetti.get(i);
+                    p.aggiornaSorgente(segmenti[i], modifiche[i]);
+                    if (p.isCaricato() && !caricati.contains(p)) caricati.add(p);
+                }
+                rispettaBudget(null);
+            }
+            generazione = nuovaGenerazione;
+            progettiSnapshot = List.copyOf(progetti);
+            modificheSnapshot = modifiche;
+            if (modalitaJournal || journal.esiste()) {
+                journal.azzera(generazione);
             }
             LOGGER.log(Level.INFO, "Salvataggio completato con successo.");
+            DURATA_SALVATAGGIO.fine(inizio);
+            if (inizio != 0) {
+                BYTE_SALVATI.registra(file.length());
+                TASK_SALVATI.registra(contaTask(progetti));
+            }
         } catch (IOException e) {
             // Mostro un messaggio fisso senza dover passare l'oggetto 'e'
             LOGGER.log(Level.SEVERE, "Errore IO durante il salvataggio sul disco.");
+            ERRORI_SALVATAGGIO.incrementa();
             
             // Messaggio per l'utente, senza dettagli tecnici
             System.out.println("⚠️ Errore: Impossibile salvare i dati. Controlla i permessi della cartella.");
+        } catch (UncheckedIOException e) {
+            // Un progetto pigro da riscrivere non si è potuto leggere: il file sul disco e il journal restano com'erano
+            LOGGER.log(Level.SEVERE, "Tentativo di caricamento progetto fallito durante il salvataggio.");
+            ERRORI_SALVATAGGIO.incrementa();
+            System.out.println("⚠️ Errore: Impossibile salvare i dati. " + e.getMessage());
         }
     }
 
-     // Caricamento dati sicuro: gestisco le eccezioni in modo che eventuali errori non trapelino all'esterno
-    public List<Project> loadTasks() throws TaskStorageException {
-        List<Project> listaCaricata = new ArrayList<>();
-        File file = new File(FILE_NAME);
-        
-        if (!file.exists()) {
+    // Formato di testo gerarchico: ogni progetto porta la sua strategia e i sottoprogetti sono racchiusi
+    // tra SOTTOPROGETTO e FINE, in profondità e nell'ordine di inserimento. Un vecchio file con solo
+    // PROGETTO e TASK resta leggibile. In "intervalli" annoto dove finiscono i figli di ogni progetto;
+    // quelli ancora sul disco vengono copiati così come sono
+    private void saveTesto(List<Project> progetti, File destinazione, long generazione, long[] modifiche, long[][] intervalli) throws IOException {
+        try (FileChannel canale = FileChannel.open(destinazione.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             PrintWriter writer = new PrintWriter(new BufferedWriter(
+                     new OutputStreamWriter(Channels.newOutputStream(canale), Charset.defaultCharset()), 1 << 16))) {
+            writer.println("GENERAZIONE|" + generazione);
+            // Nella pila un elemento FINE_SOTTOPROGETTO ricorda dove chiudere il sottoprogetto aperto
+            Deque<Object> pila = new ArrayDeque<>();
+            for (int i = 0; i < progetti.size(); i++) {
+                Project p = progetti.get(i);
+                Lock lock = bloccaPerSalvare(p, modifiche, i);
+                try {
+                    writer.println("PROGETTO|" + sanitize(p.getName()) + "|" + codiceStrategia(p));
+                    writer.flush();
+                    long inizio = canale.position();
+                    Segmento daCopiare = segmentoDaCopiare(p);
+                    if (daCopiare != null) {
+                        daCopiare.copiaIn(canale);
+                    } else {
+                        spingiFigli(pila, p);
+                    }
+                    while (!pila.isEmpty()) {
+                        Object voce = pila.pop();
+                        if (voce == FINE_SOTTOPROGETTO) {
+                            writer.println("FINE");
+                        } else if (voce instanceof Project) {
+                            Project sotto = (Project) voce;
+                            writer.println("SOTTOPROGETTO|" + sanitize(sotto.getName()) + "|" + codiceStrategia(sotto));
+                            pila.push(FINE_SOTTOPROGETTO);
+                            spingiFigli(pila, sotto);
+                        } else {
+                            TaskComponent t = (TaskComponent) voce;
+                            String stato = t.isCompleted() ? "X" : "O";
+                            writer.println("TASK|" + stato + "|" + sanitize(t.getName()));
+                        }
+                    }
+                    writer.flush();
+                    intervalli[i] = new long[] {inizio, canale.position()};
+                } finally {
+                    lock.unlock();
+                }
+            }
+            if (writer.checkError()) {
+                throw new IOException("Scrittura incompleta");
+            }
+        }
+    }
+
+    private static final Object FINE_SOTTOPROGETTO = new Object();
+
+    // Ogni progetto si scrive tenendo il lock di lettura del suo albero: nessuna modifica a metà, e il numero
+    // di modifiche annotato è proprio quello dello stato scritto. Un progetto pigro che non si può copiare va caricato
+    // prima, perché sotto il lock di lettura non si può più; finché si tiene il monitor nessuno lo scarica
+    private Lock bloccaPerSalvare(Project progetto, long[] modifiche, int indice) {
+        if (segmentoDaCopiare(progetto) == null) progetto.getFigli();
+        Lock lock = progetto.bloccaAlbero();
+        modifiche[indice] = progetto.getModifiche();
+        return lock;
+    }
+
+    // I figli vanno nella pila al contrario, così escono nell'ordine di inserimento
+    private static void spingiFigli(Deque<Object> pila, Project progetto) {
+        List<TaskComponent> figli = progetto.getFigli();
+        for (int i = figli.size() - 1; i >= 0; i--) {
+            pila.push(figli.get(i));
+        }
+    }
+
+    // I contatori dei progetti bastano, anche per quelli ancora sul disco
+    private static long contaTask(List<Project> progetti) {
+        long totale = 0;
+        for (Project p : progetti) {
+            totale += p.getTotaleTask();
+        }
+        return totale;
+    }
+
+    private static String codiceStrategia(Project progetto) {
+        OrdinamentoStrategy strategia = progetto.getStrategia();
+        return strategia == null ? CODICE_INSERIMENTO : strategia.getCodice();
+    }
+
+    // Il file temporaneo va sul disco prima del rename e il rename prima che il journal venga azzerato:
+    // altrimenti dopo un'interruzione di corrente potrebbero mancare sia lo snapshot sia le operazioni del journal
+    private static void sostituisci(File temporaneo, File file) throws IOException {
+        try (FileChannel canale = FileChannel.open(temporaneo.toPath(), StandardOpenOption.WRITE)) {
+            canale.force(true);
+        }
+        try {
+            Files.move(temporaneo.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporaneo.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        sincronizzaCartella(file);
+    }
+
+    // Rende definitivo il rename. Non tutti i sistemi permettono di aprire una cartella (Windows no): lì ci si ferma al file
+    private static void sincronizzaCartella(File file) {
+        File cartella = file.getAbsoluteFile().getParentFile();
+        if (cartella == null) return;
+        try (FileChannel canale = FileChannel.open(cartella.toPath(), StandardOpenOption.READ)) {
+            canale.force(true);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Impossibile sincronizzare la cartella del file.");
+        }
+    }
+
+    // Prima di scrivere sopra un file che non si è riusciti a leggere lo sposto da parte insieme al suo journal,
+    // così i task che conteneva si possono ancora recuperare. Se lo spostamento fallisce non si salva
+    private void conservaIlleggibile(File file) throws IOException {
+        journal.chiudi();
+        String suffisso = ".illeggibile-" + LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS).toString().replace(':', '-');
+        File copia = new File(file.getPath() + suffisso);
+        if (file.exists()) {
+            Files.move(file.toPath(), copia.toPath());
+        }
+        File fileJournal = new File(percorsoFile + ".journal");
+        if (fileJournal.exists()) {
+            Files.move(fileJournal.toPath(), new File(fileJournal.getPath() + suffisso).toPath());
+        }
+        sincronizzaCartella(file);
+        caricamentoFallito = false;
+        System.out.println("⚠️ Il file illeggibile è stato conservato come " + copia.getName());
+    }
+
+     // Caricamento dati sicuro: gestisco le eccezioni in modo che eventuali errori non trapelino all'esterno.
+     // Un fallimento viene ricordato, così il primo salvataggio non cancella il file che non si è potuto leggere
+    public synchronized List<Project> loadTasks() throws TaskStorageException {
+        try {
+            List<Project> listaCaricata = caricaTasks();
+            caricamentoFallito = false;
             return listaCaricata;
+        } catch (TaskStorageException | RuntimeException e) {
+            caricamentoFallito = true;
+            throw e;
         }
+    }
+
+    // Dopo lo snapshot rieseguo le operazioni del journal che non sono ancora state compattate
+    private List<Project> caricaTasks() throws TaskStorageException {
+        long inizio = DURATA_CARICAMENTO.inizio();
+        File file = new File(percorsoFile);
+        generazione = 0;
+        progettiSnapshot = List.of();
+        caricati.clear();
+        List<Project> listaCaricata = new ArrayList<>();
+
+        if (file.exists()) {
+            // Il formato non torna mai indietro: un file binario resta binario e uno verificato resta verificato,
+            // mentre il testo (o il binario) passa al formato scelto al primo salvataggio
+            int magia = leggiMagia(file);
+            if (magia == MAGIA_VERIFICATO) {
+                formato = Formato.VERIFICATO;
+                listaCaricata = loadVerificato(file, caricamentoPigro);
+            } else if (magia == MAGIA_BINARIO) {
+                if (formato == Formato.TESTO) formato = Formato.BINARIO;
+                listaCaricata = caricamentoPigro ? indicizzaBinario(file) : loadBinario(file);
+            } else {
+                listaCaricata = caricamentoPigro ? indicizzaTesto(file) : loadTesto(file);
+            }
+        }
+
+        try {
+            for (String[] operazione : journal.leggi(generazione)) {
+                if (!riesegui(listaCaricata, operazione)) {
+                    LOGGER.log(Level.SEVERE, "Operazione del journal non applicabile: ignorata.");
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Impossibile leggere il journal delle modifiche.");
+            throw new TaskStorageException("Il journal delle modifiche è illeggibile.", null);
+        } catch (UncheckedIOException e) {
+            // Un progetto pigro toccato dal journal non si è potuto leggere
+            LOGGER.log(Level.SEVERE, "Tentativo di caricamento progetto fallito durante il journal.");
+            throw new TaskStorageException("Il file di salvataggio è corrotto o illeggibile.", null);
+        }
+        DURATA_CARICAMENTO.fine(inizio);
+        if (inizio != 0) {
+            BYTE_CARICATI.registra(file.length());
+            TASK_CARICATI.registra(contaTask(listaCaricata));
+        }
+        return listaCaricata;
+    }
+
+    private List<Project> loadTesto(File file) throws TaskStorageException {
+        List<Project> listaCaricata = new ArrayList<>();
 
-        try (Scanner reader = new Scanner(file)) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(file), 1 << 16)) {
             Project progettoCorrente = null;
+            // Sottoprogetti aperti, dal più esterno al più interno: niente ricorsione in lettura
+            Deque<Project> aperti = new ArrayDeque<>();
+            String riga;
 
-            while (reader.hasNextLine()) {
-                String riga = reader.nextLine();
+            while ((riga = reader.readLine()) != null) {
                 String[] pezzi = riga.split("\\|");
 
                 // Controllo lunghezza pezzi per evitare ArrayIndexOutOfBounds
-                if (pezzi.length >= 2 && pezzi[0].equals("PROGETTO")) {
+                if (pezzi.length >= 2 && pezzi[0].equals("GENERAZIONE")) {
+                    generazione = Long.parseLong(pezzi[1]);
+                }
+                else if (pezzi.length >= 2 && pezzi[0].equals("PROGETTO")) {
                     progettoCorrente = new Project(pezzi[1]);
+                    if (pezzi.length >= 3) progettoCorrente.setStrategia(OrdinamentoStrategy.daCodice(pezzi[2]));
                     listaCaricata.add(progettoCorrente);
+                    aperti.clear();
+                }
+                else if (pezzi.length >= 2 && pezzi[0].equals("SOTTOPROGETTO") && progettoCorrente != null) {
+                    Project sotto = new Project(pezzi[1]);
+                    if (pezzi.length >= 3) sotto.setStrategia(OrdinamentoStrategy.daCodice(pezzi[2]));
+                    (aperti.isEmpty() ? progettoCorrente : aperti.peek()).add(sotto);
+                    aperti.push(sotto);
+                }
+                else if (pezzi[0].equals("FINE") && !aperti.isEmpty()) {
+                    aperti.pop();
                 } 
                 else if (pezzi.length >= 3 && pezzi[0].equals("TASK") && progettoCorrente != null) {
                     boolean completato = pezzi[1].equals("X");
@@ -85,7 +640,7 @@ public class StorageManager {
                         ((SimpleTask) task).setCompletato(true);
                     }
                     
-                    progettoCorrente.add(task);
+                    (aperti.isEmpty() ? progettoCorrente : aperti.peek()).add(task);
                 }
             }
         } catch (Exception e) {
@@ -97,4 +652,889 @@ public class StorageManager {
         }
         return listaCaricata;
     }
+
+    // Applica una riga del journal ai progetti caricati; falso se non è coerente con i dati
+    private boolean riesegui(List<Project> progetti, String[] campi) {
+        if (campi.length < 3) return false;
+        Operazione operazione;
+        int indice;
+        try {
+            operazione = Operazione.valueOf(campi[0]);
+            indice = Integer.parseInt(campi[1]);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        String argomento = campi[2];
+
+        if (operazione == Operazione.NUOVO_PROGETTO) {
+            if (indice != progetti.size()) return false;
+            progetti.add(new Project(argomento));
+            return true;
+        }
+        if (indice < 0 || indice >= progetti.size()) return false;
+        Project progetto = progetti.get(indice);
+
+        switch (operazione) {
+            case AGGIUNGI:
+                try {
+                    progetto.add(TaskFactory.createTask("SIMPLE", argomento));
+                } catch (IllegalArgumentException e) {
+                    return false;
+                }
+                return true;
+            case COMPLETA:
+                SimpleTask task = progetto.cercaTask(argomento);
+                if (task == null) return false;
+                task.setCompletato(true);
+                return true;
+            case RIMUOVI_COMPLETATI:
+                progetto.rimuoviCompletati();
+                return true;
+            case SVUOTA:
+                progetto.svuotaProgetto();
+                return true;
+            case STRATEGIA:
+                progetto.setStrategia(OrdinamentoStrategy.daCodice(argomento));
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // --- Formato binario ---
+    // Struttura: MAGIA, VERSIONE, GENERAZIONE, numero di progetti e poi ogni nodo in profondità:
+    // flag (completato/progetto), nome UTF-8 preceduto dalla lunghezza e, per i progetti, il numero di figli
+    // e la lettera della strategia
+
+    // I primi quattro byte del file, 0 se è troppo corto per averli
+    private int leggiMagia(File file) throws TaskStorageException {
+        if (file.length() < Integer.BYTES) return 0;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Impossibile leggere l'intestazione del file di salvataggio.");
+            throw new TaskStorageException("Il file di salvataggio è corrotto o illeggibile.", null);
+        }
+    }
+
+    private void saveBinario(List<Project> progetti, File destinazione, long generazione, long[] modifiche, long[][] intervalli) throws IOException {
+        try (FileChannel canale = FileChannel.open(destinazione.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ScritturaBinaria out = new ScritturaBinaria(canale);
+            out.intero(MAGIA_BINARIO);
+            out.byteSingolo(VERSIONE_BINARIO);
+            out.lungo(generazione);
+            out.intero(progetti.size());
+
+            for (int i = 0; i < progetti.size(); i++) {
+                Project p = progetti.get(i);
+                Lock lock = bloccaPerSalvare(p, modifiche, i);
+                try {
+                    Segmento daCopiare = segmentoDaCopiare(p);
+                    long inizio;
+                    if (daCopiare != null) {
+                        intestazioneProgetto(out, p, p.getNumeroFigli());
+                        inizio = out.posizione();
+                        out.svuota();
+                        daCopiare.copiaIn(canale);
+                    } else {
+                        List<TaskComponent> figli = p.getFigli();
+                        intestazioneProgetto(out, p, figli.size());
+                        inizio = out.posizione();
+                        scriviFigli(out, figli);
+                    }
+                    intervalli[i] = new long[] {inizio, out.posizione()};
+                } finally {
+                    lock.unlock();
+                }
+            }
+            out.svuota();
+        }
+    }
+
+    // Visita in profondità con una pila esplicita: nessun limite dovuto alla ricorsione.
+    // Restituisce i task scritti e quanti erano completati
+    private static int[] scriviFigli(ScritturaBinaria out, List<TaskComponent> figli) throws IOException {
+        int[] task = new int[2];
+        Deque<TaskComponent> pila = new ArrayDeque<>();
+        for (int j = figli.size() - 1; j >= 0; j--) {
+            pila.push(figli.get(j));
+        }
+        while (!pila.isEmpty()) {
+            TaskComponent c = pila.pop();
+            if (c instanceof Project) {
+                List<TaskComponent> sotto = ((Project) c).getFigli();
+                intestazioneProgetto(out, (Project) c, sotto.size());
+                for (int j = sotto.size() - 1; j >= 0; j--) {
+                    pila.push(sotto.get(j));
+                }
+            } else {
+                boolean completato = c.isCompleted();
+                out.byteSingolo(completato ? FLAG_COMPLETATO : 0);
+                out.nome(c.getName());
+                task[0]++;
+                if (completato) task[1]++;
+            }
+        }
+        return task;
+    }
+
+    private static void intestazioneProgetto(ScritturaBinaria out, Project progetto, int figli) throws IOException {
+        byte flag = progetto.isCompleted() ? FLAG_COMPLETATO : 0;
+        out.byteSingolo((byte) (flag | FLAG_PROGETTO));
+        out.nome(progetto.getName());
+        out.intero(figli);
+        out.byteSingolo((byte) codiceStrategia(progetto).charAt(0));
+    }
+
+    // Il file viene mappato in memoria e letto senza passare da Scanner o split.
+    // I nomi sono stati validati prima di essere scritti, quindi creo i task direttamente
+    private List<Project> loadBinario(File file) throws TaskStorageException {
+        List<Project> listaCaricata = new ArrayList<>();
+        try (FileChannel canale = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = canale.map(FileChannel.MapMode.READ_ONLY, 0, canale.size());
+            byte versione = buffer.getInt() == MAGIA_BINARIO ? buffer.get() : 0;
+            if (versione < 1 || versione > VERSIONE_BINARIO) {
+                throw new IOException("Intestazione non riconosciuta");
+            }
+            // La versione 1 non aveva la generazione
+            generazione = versione >= 2 ? buffer.getLong() : 0;
+
+            byte[] appoggio = new byte[256];
+            int progettiDaLeggere = buffer.getInt();
+            // Per ogni progetto aperto ricordo quanti figli mancano ancora
+            Deque<Project> aperti = new ArrayDeque<>();
+            Deque<int[]> mancanti = new ArrayDeque<>();
+
+            while (progettiDaLeggere > 0 || !aperti.isEmpty()) {
+                byte flag = buffer.get();
+                int lunghezza = Short.toUnsignedInt(buffer.getShort());
+                if (lunghezza > appoggio.length) appoggio = new byte[lunghezza];
+                buffer.get(appoggio, 0, lunghezza);
+                String nome = new String(appoggio, 0, lunghezza, StandardCharsets.UTF_8);
+
+                TaskComponent nodo;
+                if ((flag & FLAG_PROGETTO) != 0) {
+                    nodo = new Project(nome);
+                } else {
+                    SimpleTask task = new SimpleTask(nome);
+                    task.setCompletato((flag & FLAG_COMPLETATO) != 0);
+                    nodo = task;
+                }
+
+                if (aperti.isEmpty()) {
+                    listaCaricata.add((Project) nodo);
+                    progettiDaLeggere--;
+                } else {
+                    aperti.peek().add(nodo);
+                    mancanti.peek()[0]--;
+                }
+
+                if (nodo instanceof Project) {
+                    aperti.push((Project) nodo);
+                    mancanti.push(new int[] {buffer.getInt()});
+                    if (versione >= 3) {
+                        ((Project) nodo).setStrategia(OrdinamentoStrategy.daCodice(String.valueOf((char) buffer.get())));
+                    }
+                }
+                // Chiudo i progetti che hanno ricevuto tutti i figli
+                while (!aperti.isEmpty() && mancanti.peek()[0] == 0) {
+                    aperti.pop();
+                    mancanti.pop();
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "Tentativo di caricamento file binario fallito: formato non valido o permessi negati.");
+            throw new TaskStorageException("Il file di salvataggio è corrotto o illeggibile.", null);
+        }
+        return listaCaricata;
+    }
+
+    // --- Formato verificato ---
+    // Intestazione: MAGIA, VERSIONE, GENERAZIONE, numero di progetti e il CRC32C di questi campi.
+    // Poi un blocco per progetto di primo livello: lunghezza, CRC32C del contenuto e il contenuto, cioè l'intestazione
+    // del progetto, i figli in profondità come nel binario e in coda i contatori (figli completati, task, task completati).
+    // Un blocco rovinato si riconosce dal checksum e si salta senza perdere gli altri
+
+    private void saveVerificato(List<Project> progetti, File destinazione, long generazione, long[] modifiche, long[][] intervalli) throws IOException {
+        try (FileChannel canale = FileChannel.open(destinazione.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ScritturaBinaria out = new ScritturaBinaria(canale);
+            out.iniziaControllo();
+            out.intero(MAGIA_VERIFICATO);
+            out.byteSingolo(VERSIONE_VERIFICATO);
+            out.lungo(generazione);
+            out.intero(progetti.size());
+            out.intero(out.fineControllo());
+
+            for (int i = 0; i < progetti.size(); i++) {
+                Project p = progetti.get(i);
+                Lock lock = bloccaPerSalvare(p, modifiche, i);
+                try {
+                    Segmento daCopiare = segmentoDaCopiare(p);
+                    List<TaskComponent> figli = daCopiare == null ? p.getFigli() : null;
+                    // Lunghezza e checksum si conoscono solo alla fine del blocco: li scrivo dopo al loro posto
+                    long testa = out.posizione();
+                    out.intero(0);
+                    out.intero(0);
+                    out.iniziaControllo();
+                    intestazioneProgetto(out, p, daCopiare != null ? p.getNumeroFigli() : figli.size());
+                    long inizio = out.posizione();
+                    int[] task;
+                    int figliCompletati = 0;
+                    if (daCopiare != null) {
+                        // Un progetto mai aperto resta sul disco: i suoi figli si copiano entrando nel checksum nuovo,
+                        // e i contatori sono quelli letti dal blocco di origine
+                        out.svuota();
+                        daCopiare.copiaVerificataIn(canale, out.getControllo());
+                        task = new int[] {p.getTotaleTask(), p.getTaskCompletati()};
+                        figliCompletati = p.getFigliCompletati();
+                    } else {
+                        task = scriviFigli(out, figli);
+                        for (TaskComponent c : figli) {
+                            if (c.isCompleted()) figliCompletati++;
+                        }
+                    }
+                    long fine = out.posizione();
+                    out.intero(figliCompletati);
+                    out.intero(task[0]);
+                    out.intero(task[1]);
+                    long lunghezza = out.posizione() - testa - 2 * Integer.BYTES;
+                    if (lunghezza > Integer.MAX_VALUE) throw new IOException("Progetto troppo grande per un blocco");
+                    out.interoIn(testa, (int) lunghezza);
+                    int controllo = out.fineControllo();
+                    out.interoIn(testa + Integer.BYTES, controllo);
+                    // Oltre ai figli, il blocco intero e il suo checksum: il segmento li ricontrolla a ogni lettura
+                    intervalli[i] = new long[] {inizio, fine, testa + 2 * Integer.BYTES, testa + 2 * Integer.BYTES + lunghezza, controllo};
+                } finally {
+                    lock.unlock();
+                }
+            }
+            out.svuota();
+        }
+    }
+
+    // Ogni blocco viene controllato prima di usarlo; i nomi dentro un blocco integro li abbiamo scritti noi già validati,
+    // quindi task e progetti si creano direttamente. Un blocco rovinato diventa un progetto vuoto che ne tiene il posto
+    // (così le operazioni del journal trovano ancora il loro indice) e i suoi byte vengono messi da parte.
+    // Con il caricamento pigro i figli restano sul disco: il segmento ricontrolla il checksum quando li legge
+    private List<Project> loadVerificato(File file, boolean pigro) throws TaskStorageException {
+        List<Project> lista = new ArrayList<>();
+        List<ByteBuffer> danneggiati = new ArrayList<>();
+        int progettiDanneggiati = 0;
+        try (FileChannel canale = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = canale.map(FileChannel.MapMode.READ_ONLY, 0, canale.size());
+            int lunghezzaIntestazione = Integer.BYTES + 1 + Long.BYTES + Integer.BYTES;
+            if (buffer.limit() < lunghezzaIntestazione + Integer.BYTES
+                    || crc(buffer.slice(0, lunghezzaIntestazione)) != buffer.getInt(lunghezzaIntestazione)) {
+                throw new IOException("Intestazione rovinata");
+            }
+            buffer.getInt();
+            if (buffer.get() != VERSIONE_VERIFICATO) throw new IOException("Versione non riconosciuta");
+            generazione = buffer.getLong();
+            int progetti = buffer.getInt();
+            buffer.getInt();
+
+            for (int i = 0; i < progetti; i++) {
+                int testa = buffer.position();
+                int lunghezza = buffer.remaining() >= 2 * Integer.BYTES ? buffer.getInt() : -1;
+                if (lunghezza < 0 || lunghezza > buffer.remaining() - Integer.BYTES) {
+                    // Senza una lunghezza buona non so dove comincia il blocco dopo: il resto del file va da parte
+                    danneggiati.add(buffer.slice(testa, buffer.limit() - testa));
+                    for (; i < progetti; i++) {
+                        lista.add(progettoDanneggiato(i));
+                        progettiDanneggiati++;
+                    }
+                    break;
+                }
+                int atteso = buffer.getInt();
+                int inizio = buffer.position();
+                ByteBuffer blocco = buffer.slice(inizio, lunghezza);
+                buffer.position(inizio + lunghezza);
+                Project progetto = null;
+                if (crc(blocco.duplicate()) == atteso) {
+                    try {
+                        progetto = progettoDaBlocco(file, blocco, inizio, atteso, pigro);
+                    } catch (RuntimeException e) {
+                        // Checksum giusto ma contenuto incoerente: lo tratto come un blocco rovinato
+                        progetto = null;
+                    }
+                }
+                if (progetto == null) {
+                    danneggiati.add(buffer.slice(testa, lunghezza + 2 * Integer.BYTES));
+                    progetto = progettoDanneggiato(i);
+                    progettiDanneggiati++;
+                }
+                lista.add(progetto);
+            }
+            if (progettiDanneggiati > 0) metteDaParte(danneggiati, progettiDanneggiati, progetti);
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "Tentativo di caricamento file verificato fallito: intestazione rovinata o permessi negati.");
+            throw new TaskStorageException("Il file di salvataggio è corrotto o illeggibile.", null);
+        }
+        return lista;
+    }
+
+    // "inizio" è la posizione del blocco nel file e "controllo" il suo checksum, per il segmento dei progetti pigri
+    private Project progettoDaBlocco(File file, ByteBuffer blocco, int inizio, int controllo, boolean pigro) {
+        byte flag = blocco.get();
+        if ((flag & FLAG_PROGETTO) == 0) throw new IllegalStateException("Il blocco non comincia con un progetto");
+        String nome = leggiNome(blocco);
+        int figli = blocco.getInt();
+        OrdinamentoStrategy strategia = OrdinamentoStrategy.daCodice(String.valueOf((char) blocco.get()));
+        int contatori = blocco.limit() - 3 * Integer.BYTES;
+        if (contatori < blocco.position()) throw new IllegalStateException("Contatori mancanti");
+
+        if (pigro) {
+            Segmento segmento = new Segmento(file, Formato.VERIFICATO, VERSIONE_BINARIO, inizio + blocco.position(), inizio + contatori);
+            segmento.verificato(inizio, inizio + blocco.limit(), controllo);
+            return Project.pigro(nome, strategia, segmento, figli,
+                    blocco.getInt(contatori), blocco.getInt(contatori + Integer.BYTES), blocco.getInt(contatori + 2 * Integer.BYTES));
+        }
+        List<TaskComponent> letti = figliBinari(blocco.slice(blocco.position(), contatori - blocco.position()), VERSIONE_BINARIO);
+        if (letti.size() != figli) throw new IllegalStateException("Numero di figli diverso dall'intestazione");
+        Project progetto = new Project(nome);
+        progetto.setStrategia(strategia);
+        progetto.addAll(letti);
+        return progetto;
+    }
+
+    private static Project progettoDanneggiato(int indice) {
+        BLOCCHI_DANNEGGIATI.incrementa();
+        return new Project("Progetto danneggiato " + (indice + 1));
+    }
+
+    // Come l'archivio della pulizia: i byte dei blocchi rovinati finiscono in coda a un file accanto al salvataggio,
+    // che il caricamento non legge, così il prossimo salvataggio non li fa sparire del tutto
+    private void metteDaParte(List<ByteBuffer> danneggiati, int progettiDanneggiati, int progetti) {
+        File destinazione = new File(percorsoFile + ".danneggiati");
+        try (FileChannel canale = FileChannel.open(destinazione.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            for (ByteBuffer blocco : danneggiati) {
+                while (blocco.hasRemaining()) {
+                    canale.write(blocco);
+                }
+            }
+            LOGGER.log(Level.SEVERE, "Blocchi del salvataggio danneggiati: saltati e copiati a parte.");
+        } catch (IOException e) {
+            // Il caricamento degli altri progetti vale comunque più della copia dei byte rovinati
+            LOGGER.log(Level.SEVERE, "Impossibile copiare a parte i blocchi danneggiati.");
+        }
+        System.out.println("⚠️ Attenzione: " + progettiDanneggiati + " progetti su " + progetti
+                + " del salvataggio erano danneggiati e sono stati saltati; gli altri sono stati caricati. I dati rovinati sono in "
+                + destinazione.getName() + ".");
+    }
+
+    private static int crc(ByteBuffer dati) {
+        CRC32C crc = new CRC32C();
+        crc.update(dati);
+        return (int) crc.getValue();
+    }
+
+    // --- Caricamento pigro ---
+    // All'apertura scorro il file una volta senza creare task: per ogni progetto di primo livello tengo
+    // nome, strategia, contatori e l'intervallo di byte dei suoi figli. I figli veri si leggono solo da lì
+
+    // Dove sono sul disco i figli di un progetto; dopo ogni salvataggio punta al nuovo file
+    private class Segmento implements Project.SorgenteFigli {
+        private File file;
+        private Formato formato;
+        private byte versione;
+        private long inizio;
+        private long fine;
+        // Solo nel formato verificato: il blocco intero che contiene i figli e il suo checksum
+        private long inizioBlocco;
+        private long fineBlocco;
+        private int controllo;
+
+        Segmento(File file, Formato formato, byte versione, long inizio, long fine) {
+            sposta(file, formato, versione, inizio, fine);
+        }
+
+        void verificato(long inizioBlocco, long fineBlocco, int controllo) {
+            this.inizioBlocco = inizioBlocco;
+            this.fineBlocco = fineBlocco;
+            this.controllo = controllo;
+        }
+
+        private void sposta(File file, Formato formato, byte versione, long inizio, long fine) {
+            this.file = file;
+            this.formato = formato;
+            this.versione = versione;
+            this.inizio = inizio;
+            this.fine = fine;
+        }
+
+        @Override
+        public List<TaskComponent> leggiFigli() throws IOException {
+            bloccoFile.readLock().lock();
+            try (FileChannel canale = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                if (formato == Formato.VERIFICATO) {
+                    // Il blocco si rilegge intero per ricontrollarne il checksum: il file può essersi rovinato dopo l'apertura.
+                    // I figli sono scritti come nel binario
+                    ByteBuffer blocco = leggi(canale, inizioBlocco, fineBlocco);
+                    if (crc(blocco.duplicate()) != controllo) throw new IOException("Checksum del blocco sbagliato");
+                    return figliBinari(blocco.slice((int) (inizio - inizioBlocco), (int) (fine - inizio)), versione);
+                }
+                ByteBuffer buffer = leggi(canale, inizio, fine);
+                return formato == Formato.TESTO ? figliTesto(buffer) : figliBinari(buffer, versione);
+            } catch (RuntimeException e) {
+                throw new IOException("Segmento non leggibile", e);
+            } finally {
+                bloccoFile.readLock().unlock();
+            }
+        }
+
+        private ByteBuffer leggi(FileChannel canale, long da, long a) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(a - da));
+            while (buffer.hasRemaining() && canale.read(buffer, da + buffer.position()) >= 0) {
+                // continuo finché l'intervallo non è tutto nel buffer
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        @Override
+        public void caricato(Project progetto) {
+            progettoCaricato(progetto);
+        }
+
+        // Copia per il formato verificato: i figli passano dal checksum del blocco nuovo, e il blocco di origine
+        // viene ricontrollato per intero, così un blocco rovinato sul disco non riceve un checksum nuovo e valido.
+        // Pezzi di dimensione fissa: la memoria non dipende dal progetto
+        void copiaVerificataIn(FileChannel destinazione, CRC32C nuovo) throws IOException {
+            bloccoFile.readLock().lock();
+            try (FileChannel canale = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                CRC32C vecchio = new CRC32C();
+                ByteBuffer pezzo = ByteBuffer.allocate(1 << 16);
+                long posizione = inizioBlocco;
+                while (posizione < fineBlocco) {
+                    pezzo.clear().limit((int) Math.min(pezzo.capacity(), fineBlocco - posizione));
+                    int letti = canale.read(pezzo, posizione);
+                    if (letti <= 0) throw new IOException("Segmento troncato");
+                    pezzo.flip();
+                    vecchio.update(pezzo.duplicate());
+                    int da = (int) Math.max(0, inizio - posizione);
+                    int a = (int) Math.min(letti, fine - posizione);
+                    if (da < a) {
+                        ByteBuffer figli = pezzo.duplicate().position(da).limit(a);
+                        nuovo.update(figli.duplicate());
+                        while (figli.hasRemaining()) {
+                            destinazione.write(figli);
+                        }
+                    }
+                    posizione += letti;
+                }
+                if ((int) vecchio.getValue() != controllo) throw new IOException("Checksum del blocco sbagliato");
+            } finally {
+                bloccoFile.readLock().unlock();
+            }
+        }
+
+        // Copia i byte dei figli così come sono, senza passare dagli oggetti.
+        // Nel testo l'ultima riga di un vecchio file può non avere l'a capo: lo aggiungo, o il progetto dopo finirebbe attaccato
+        void copiaIn(FileChannel destinazione) throws IOException {
+            bloccoFile.readLock().lock();
+            try (FileChannel canale = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                long copiati = 0;
+                while (copiati < fine - inizio) {
+                    long n = canale.transferTo(inizio + copiati, fine - inizio - copiati, destinazione);
+                    if (n <= 0) throw new IOException("Segmento troncato");
+                    copiati += n;
+                }
+                if (formato == Formato.TESTO && fine > inizio) {
+                    ByteBuffer ultimo = ByteBuffer.allocate(1);
+                    canale.read(ultimo, fine - 1);
+                    if (ultimo.get(0) != '\n') {
+                        destinazione.write(ByteBuffer.wrap(System.lineSeparator().getBytes(StandardCharsets.US_ASCII)));
+                    }
+                }
+            } finally {
+                bloccoFile.readLock().unlock();
+            }
+        }
+    }
+
+    // Il segmento di un progetto i cui figli sono ancora sul disco, se si può copiare nel formato che sto scrivendo;
+    // altrimenti null, e il progetto viene letto (e scritto) come tutti gli altri. Nel formato verificato i byte
+    // copiati entrano nel checksum del blocco nuovo (vedi copiaVerificataIn)
+    private Segmento segmentoDaCopiare(Project progetto) {
+        if (progetto.isCaricato() || !(progetto.getSorgente() instanceof Segmento)) return null;
+        Segmento segmento = (Segmento) progetto.getSorgente();
+        boolean stessoFormato = segmento.formato == formato
+                && (formato != Formato.BINARIO || segmento.versione == VERSIONE_BINARIO);
+        return stessoFormato ? segmento : null;
+    }
+
+    // Dopo la sostituzione del file ogni segmento punta al nuovo intervallo. Va chiamato con bloccoFile in scrittura,
+    // quindi qui non prendo i lock dei progetti: quelli senza segmento lo ricevono dopo dal chiamante
+    private Segmento[] spostaSegmenti(List<Project> progetti, File file, long[][] intervalli) {
+        Segmento[] segmenti = new Segmento[progetti.size()];
+        for (int i = 0; i < progetti.size(); i++) {
+            Project.SorgenteFigli sorgente = progetti.get(i).getSorgente();
+            long[] intervallo = intervalli[i];
+            if (sorgente instanceof Segmento) {
+                segmenti[i] = (Segmento) sorgente;
+                segmenti[i].sposta(file, formato, VERSIONE_BINARIO, intervallo[0], intervallo[1]);
+            } else {
+                segmenti[i] = new Segmento(file, formato, VERSIONE_BINARIO, intervallo[0], intervallo[1]);
+            }
+            if (intervallo.length > 2) segmenti[i].verificato(intervallo[2], intervallo[3], (int) intervallo[4]);
+        }
+        return segmenti;
+    }
+
+    private synchronized void progettoCaricato(Project progetto) {
+        if (!caricati.contains(progetto)) caricati.add(progetto);
+        rispettaBudget(progetto);
+    }
+
+    // Oltre il budget scarico i progetti usati meno di recente, a parte quello appena caricato.
+    // Quelli modificati dopo l'ultimo salvataggio restano in memoria finché non vengono salvati
+    private void rispettaBudget(Project daTenere) {
+        caricati.removeIf(p -> !p.isCaricato());
+        long totale = 0;
+        for (Project p : caricati) {
+            totale += p.getTotaleTask();
+        }
+        List<Project> candidati = new ArrayList<>(caricati);
+        candidati.remove(daTenere);
+        candidati.sort((a, b) -> Long.compare(a.getUltimoUso(), b.getUltimoUso()));
+        for (Project p : candidati) {
+            if (totale <= budgetTask) break;
+            long task = p.getTotaleTask();
+            if (p.scarica()) {
+                caricati.remove(p);
+                totale -= task;
+            }
+        }
+    }
+
+    private List<Project> indicizzaTesto(File file) throws TaskStorageException {
+        List<Project> lista = new ArrayList<>();
+        try (FileChannel canale = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = canale.map(FileChannel.MapMode.READ_ONLY, 0, canale.size());
+            Charset charset = Charset.defaultCharset();
+            // Contatori del progetto aperto: figli, figli completati, task, task completati, inizio dei figli
+            long[] corrente = null;
+            String[] intestazione = null;
+            // Per ogni sottoprogetto aperto: figli e figli completati
+            Deque<int[]> aperti = new ArrayDeque<>();
+            int inizioRiga = 0;
+            int limite = buffer.limit();
+
+            while (inizioRiga < limite) {
+                int fineRiga = inizioRiga;
+                while (fineRiga < limite && buffer.get(fineRiga) != '\n') fineRiga++;
+                int lunghezza = fineRiga > inizioRiga && buffer.get(fineRiga - 1) == '\r' ? fineRiga - 1 - inizioRiga : fineRiga - inizioRiga;
+
+                if (iniziaCon(buffer, inizioRiga, lunghezza, "PROGETTO|") || iniziaCon(buffer, inizioRiga, lunghezza, "GENERAZIONE|")) {
+                    byte[] byteRiga = new byte[lunghezza];
+                    buffer.duplicate().position(inizioRiga).get(byteRiga);
+                    String[] pezzi = new String(byteRiga, charset).split("\\|");
+                    if (pezzi[0].equals("GENERAZIONE") && pezzi.length >= 2) {
+                        generazione = Long.parseLong(pezzi[1]);
+                    } else if (pezzi.length >= 2) {
+                        chiudiIndice(lista, file, intestazione, corrente, aperti, inizioRiga);
+                        intestazione = pezzi;
+                        corrente = new long[] {0, 0, 0, 0, Math.min(fineRiga + 1, limite)};
+                    }
+                } else if (corrente != null && (iniziaCon(buffer, inizioRiga, lunghezza, "TASK|")
+                        || iniziaCon(buffer, inizioRiga, lunghezza, "SOTTOPROGETTO|") || iniziaCon(buffer, inizioRiga, lunghezza, "FINE"))) {
+                    // Le righe dei figli seguono le stesse regole di figliTesto, validazione dei nomi compresa:
+                    // un file che l'indice accetta deve anche potersi aprire, progetto per progetto
+                    byte[] byteRiga = new byte[lunghezza];
+                    buffer.duplicate().position(inizioRiga).get(byteRiga);
+                    String[] pezzi = new String(byteRiga, charset).split("\\|");
+                    if (pezzi.length >= 2 && pezzi[0].equals("SOTTOPROGETTO")) {
+                        contaFiglio(corrente, aperti, false);
+                        aperti.push(new int[2]);
+                    } else if (pezzi[0].equals("FINE") && !aperti.isEmpty()) {
+                        chiudiSottoprogetto(corrente, aperti);
+                    } else if (pezzi.length >= 3 && pezzi[0].equals("TASK")) {
+                        TaskFactory.createTask("SIMPLE", pezzi[2]);
+                        boolean completato = pezzi[1].equals("X");
+                        contaFiglio(corrente, aperti, completato);
+                        corrente[2]++;
+                        if (completato) corrente[3]++;
+                    }
+                }
+                inizioRiga = fineRiga + 1;
+            }
+            chiudiIndice(lista, file, intestazione, corrente, aperti, limite);
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "Tentativo di indicizzazione file fallito: formato non valido o permessi negati.");
+            throw new TaskStorageException("Il file di salvataggio è corrotto o illeggibile.", null);
+        }
+        return lista;
+    }
+
+    private static boolean iniziaCon(ByteBuffer buffer, int posizione, int lunghezza, String prefisso) {
+        if (lunghezza < prefisso.length()) return false;
+        for (int i = 0; i < prefisso.length(); i++) {
+            if (buffer.get(posizione + i) != prefisso.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    // Un figlio diretto del sottoprogetto aperto più interno, o del progetto se non ce ne sono
+    private static void contaFiglio(long[] progetto, Deque<int[]> aperti, boolean completato) {
+        if (aperti.isEmpty()) {
+            progetto[0]++;
+            if (completato) progetto[1]++;
+        } else {
+            aperti.peek()[0]++;
+            if (completato) aperti.peek()[1]++;
+        }
+    }
+
+    private static void chiudiSottoprogetto(long[] progetto, Deque<int[]> aperti) {
+        int[] sotto = aperti.pop();
+        boolean completato = sotto[0] > 0 && sotto[1] == sotto[0];
+        if (completato) {
+            if (aperti.isEmpty()) progetto[1]++;
+            else aperti.peek()[1]++;
+        }
+    }
+
+    // Il progetto finisce dove comincia il prossimo: i sottoprogetti rimasti aperti si chiudono qui, come in loadTesto
+    private void chiudiIndice(List<Project> lista, File file, String[] intestazione, long[] contatori,
+                              Deque<int[]> aperti, long fine) {
+        if (intestazione == null) return;
+        while (!aperti.isEmpty()) {
+            chiudiSottoprogetto(contatori, aperti);
+        }
+        OrdinamentoStrategy strategia = intestazione.length >= 3 ? OrdinamentoStrategy.daCodice(intestazione[2]) : null;
+        Segmento segmento = new Segmento(file, Formato.TESTO, (byte) 0, contatori[4], Math.max(contatori[4], fine));
+        lista.add(Project.pigro(intestazione[1], strategia, segmento,
+                (int) contatori[0], (int) contatori[1], (int) contatori[2], (int) contatori[3]));
+    }
+
+    // Figli di un progetto nel formato di testo: le stesse regole di loadTesto, senza righe PROGETTO
+    private static List<TaskComponent> figliTesto(ByteBuffer buffer) throws IOException {
+        List<TaskComponent> figli = new ArrayList<>();
+        Deque<Project> aperti = new ArrayDeque<>();
+        String testo = new String(buffer.array(), buffer.position(), buffer.remaining(), Charset.defaultCharset());
+        try (BufferedReader reader = new BufferedReader(new StringReader(testo))) {
+            String riga;
+            while ((riga = reader.readLine()) != null) {
+                String[] pezzi = riga.split("\\|");
+                if (pezzi.length >= 2 && pezzi[0].equals("SOTTOPROGETTO")) {
+                    Project sotto = new Project(pezzi[1]);
+                    if (pezzi.length >= 3) sotto.setStrategia(OrdinamentoStrategy.daCodice(pezzi[2]));
+                    if (aperti.isEmpty()) figli.add(sotto);
+                    else aperti.peek().add(sotto);
+                    aperti.push(sotto);
+                } else if (pezzi[0].equals("FINE") && !aperti.isEmpty()) {
+                    aperti.pop();
+                } else if (pezzi.length >= 3 && pezzi[0].equals("TASK")) {
+                    TaskComponent task = TaskFactory.createTask("SIMPLE", pezzi[2]);
+                    if (pezzi[1].equals("X")) ((SimpleTask) task).setCompletato(true);
+                    if (aperti.isEmpty()) figli.add(task);
+                    else aperti.peek().add(task);
+                }
+            }
+        }
+        return figli;
+    }
+
+    private List<Project> indicizzaBinario(File file) throws TaskStorageException {
+        List<Project> lista = new ArrayList<>();
+        try (FileChannel canale = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = canale.map(FileChannel.MapMode.READ_ONLY, 0, canale.size());
+            byte versione = buffer.getInt() == MAGIA_BINARIO ? buffer.get() : 0;
+            if (versione < 1 || versione > VERSIONE_BINARIO) {
+                throw new IOException("Intestazione non riconosciuta");
+            }
+            generazione = versione >= 2 ? buffer.getLong() : 0;
+
+            int progetti = buffer.getInt();
+            // Qui il flag "completato" dei progetti è già salvato, quindi per ogni aperto basta sapere quanti figli mancano
+            Deque<int[]> mancanti = new ArrayDeque<>();
+            for (int p = 0; p < progetti; p++) {
+                buffer.get();
+                String nome = leggiNome(buffer);
+                int figli = buffer.getInt();
+                OrdinamentoStrategy strategia = versione >= 3 ? OrdinamentoStrategy.daCodice(String.valueOf((char) buffer.get())) : null;
+                int inizio = buffer.position();
+                int figliCompletati = 0;
+                int totale = 0;
+                int completati = 0;
+
+                if (figli > 0) mancanti.push(new int[] {figli});
+                while (!mancanti.isEmpty()) {
+                    byte flag = buffer.get();
+                    int lunghezza = Short.toUnsignedInt(buffer.getShort());
+                    buffer.position(buffer.position() + lunghezza);
+                    boolean completato = (flag & FLAG_COMPLETATO) != 0;
+                    if (mancanti.size() == 1 && completato) figliCompletati++;
+                    mancanti.peek()[0]--;
+                    if ((flag & FLAG_PROGETTO) != 0) {
+                        int figliDelSotto = buffer.getInt();
+                        if (versione >= 3) buffer.get();
+                        if (figliDelSotto > 0) mancanti.push(new int[] {figliDelSotto});
+                    } else {
+                        totale++;
+                        if (completato) completati++;
+                    }
+                    while (!mancanti.isEmpty() && mancanti.peek()[0] == 0) {
+                        mancanti.pop();
+                    }
+                }
+                Segmento segmento = new Segmento(file, Formato.BINARIO, versione, inizio, buffer.position());
+                lista.add(Project.pigro(nome, strategia, segmento, figli, figliCompletati, totale, completati));
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "Tentativo di indicizzazione file binario fallito: formato non valido o permessi negati.");
+            throw new TaskStorageException("Il file di salvataggio è corrotto o illeggibile.", null);
+        }
+        return lista;
+    }
+
+    private static String leggiNome(ByteBuffer buffer) {
+        byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Figli di un progetto nel formato binario: stessa visita di loadBinario, limitata all'intervallo
+    private static List<TaskComponent> figliBinari(ByteBuffer buffer, byte versione) {
+        List<TaskComponent> figli = new ArrayList<>();
+        Deque<Project> aperti = new ArrayDeque<>();
+        Deque<int[]> mancanti = new ArrayDeque<>();
+        while (buffer.hasRemaining()) {
+            byte flag = buffer.get();
+            String nome = leggiNome(buffer);
+            TaskComponent nodo;
+            if ((flag & FLAG_PROGETTO) != 0) {
+                nodo = new Project(nome);
+            } else {
+                SimpleTask task = new SimpleTask(nome);
+                task.setCompletato((flag & FLAG_COMPLETATO) != 0);
+                nodo = task;
+            }
+
+            if (aperti.isEmpty()) {
+                figli.add(nodo);
+            } else {
+                aperti.peek().add(nodo);
+                mancanti.peek()[0]--;
+            }
+
+            if (nodo instanceof Project) {
+                int figliDelSotto = buffer.getInt();
+                if (versione >= 3) {
+                    ((Project) nodo).setStrategia(OrdinamentoStrategy.daCodice(String.valueOf((char) buffer.get())));
+                }
+                if (figliDelSotto > 0) {
+                    aperti.push((Project) nodo);
+                    mancanti.push(new int[] {figliDelSotto});
+                }
+            }
+            while (!aperti.isEmpty() && mancanti.peek()[0] == 0) {
+                aperti.pop();
+                mancanti.pop();
+            }
+        }
+        return figli;
+    }
+
+    // Scrittura a blocchi su FileChannel tramite un buffer diretto riutilizzato
+    private static class ScritturaBinaria {
+        private final FileChannel canale;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 17);
+        // Checksum dei byte scritti da iniziaControllo in poi: si aggiorna con il buffer prima di ogni svuotamento
+        private CRC32C controllo;
+        private int inizioControllo;
+
+        ScritturaBinaria(FileChannel canale) {
+            this.canale = canale;
+        }
+
+        void byteSingolo(byte valore) throws IOException {
+            spazio(1);
+            buffer.put(valore);
+        }
+
+        void intero(int valore) throws IOException {
+            spazio(Integer.BYTES);
+            buffer.putInt(valore);
+        }
+
+        void lungo(long valore) throws IOException {
+            spazio(Long.BYTES);
+            buffer.putLong(valore);
+        }
+
+        void nome(String nome) throws IOException {
+            byte[] bytes = nome.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xFFFF) {
+                throw new IOException("Nome troppo lungo per il formato binario");
+            }
+            spazio(Short.BYTES + bytes.length);
+            buffer.putShort((short) bytes.length);
+            buffer.put(bytes);
+        }
+
+        // Byte scritti finora, compresi quelli ancora nel buffer
+        long posizione() throws IOException {
+            return canale.position() + buffer.position();
+        }
+
+        void iniziaControllo() {
+            controllo = new CRC32C();
+            inizioControllo = buffer.position();
+        }
+
+        // Il checksum in corso, già aggiornato con quanto è stato svuotato: chi scrive direttamente sul canale
+        // (la copia di un segmento) lo aggiorna con i suoi byte
+        CRC32C getControllo() {
+            return controllo;
+        }
+
+        int fineControllo() {
+            aggiornaControllo();
+            int valore = (int) controllo.getValue();
+            controllo = null;
+            return valore;
+        }
+
+        // Un intero in una posizione già scritta: ancora nel buffer oppure direttamente nel file.
+        // Un intero non viene mai diviso tra due svuotamenti, quindi sta tutto da una parte o dall'altra
+        void interoIn(long posizione, int valore) throws IOException {
+            long inizioBuffer = canale.position();
+            if (posizione >= inizioBuffer) {
+                buffer.putInt((int) (posizione - inizioBuffer), valore);
+                return;
+            }
+            ByteBuffer intero = ByteBuffer.allocate(Integer.BYTES).putInt(0, valore);
+            while (intero.hasRemaining()) {
+                canale.write(intero, posizione + intero.position());
+            }
+        }
+
+        private void aggiornaControllo() {
+            if (controllo == null) return;
+            ByteBuffer scritti = buffer.duplicate();
+            scritti.limit(buffer.position()).position(inizioControllo);
+            controllo.update(scritti);
+            inizioControllo = buffer.position();
+        }
+
+        void svuota() throws IOException {
+            aggiornaControllo();
+            inizioControllo = 0;
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                canale.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void spazio(int necessari) throws IOException {
+            if (buffer.remaining() < necessari) {
+                svuota();
+            }
+        }
+    }
 }
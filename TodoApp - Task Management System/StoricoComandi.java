@@ -0,0 +1,233 @@
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// Annulla e ripeti per le modifiche fatte dal menu. Ogni comando sa fare l'operazione e il suo inverso
+// e ricorda solo quello che l'operazione ha tolto o cambiato: i figli tolti restano gli stessi oggetti
+// (nessuna copia dell'albero), quindi la memoria della cronologia cresce con le modifiche e non con il tabellone.
+// Un comando che non si può più annullare (il suo progetto è stato riletto dal disco) svuota la cronologia
+public class StoricoComandi {
+    // Oltre questo numero di comandi i più vecchi vengono dimenticati
+    private static final int PROFONDITA = 100;
+
+    public interface Comando {
+        // Falso se non c'era niente da fare: il comando allora non entra nella cronologia
+        boolean esegui();
+
+        // Falso se lo stato non è più quello lasciato dal comando e quindi non si può tornare indietro
+        boolean annulla();
+
+        String getDescrizione();
+    }
+
+    private final Deque<Comando> annullabili = new ArrayDeque<>();
+    private final Deque<Comando> ripetibili = new ArrayDeque<>();
+    private final int profondita;
+
+    public StoricoComandi() {
+        this(PROFONDITA);
+    }
+
+    public StoricoComandi(int profondita) {
+        this.profondita = Math.max(1, profondita);
+    }
+
+    // Esegue il comando e lo mette in cima alla cronologia; ciò che era stato annullato non si può più ripetere
+    public synchronized boolean esegui(Comando comando) {
+        if (!comando.esegui()) return false;
+        annullabili.push(comando);
+        if (annullabili.size() > profondita) annullabili.removeLast();
+        ripetibili.clear();
+        return true;
+    }
+
+    // La descrizione del comando annullato, null se non c'era niente da annullare.
+    // Se il comando non si può più annullare la cronologia viene svuotata
+    public synchronized String annulla() {
+        Comando comando = annullabili.poll();
+        if (comando == null) return null;
+        if (!comando.annulla()) {
+            annullabili.clear();
+            ripetibili.clear();
+            throw new IllegalStateException("Il progetto è stato riletto dal disco: \"" + comando.getDescrizione() + "\" non si può più annullare");
+        }
+        ripetibili.push(comando);
+        return comando.getDescrizione();
+    }
+
+    // La descrizione del comando ripetuto, null se non c'era niente da ripetere.
+    // Se il comando non ha più niente da fare (il task non c'è più) non entra tra gli annullabili e i comandi
+    // da ripetere vengono dimenticati: sono stati annullati dopo di lui e contavano sul suo effetto
+    public synchronized String ripeti() {
+        Comando comando = ripetibili.poll();
+        if (comando == null) return null;
+        if (!comando.esegui()) {
+            ripetibili.clear();
+            throw new IllegalStateException("Il progetto è cambiato: \"" + comando.getDescrizione() + "\" non si può più ripetere");
+        }
+        annullabili.push(comando);
+        return comando.getDescrizione();
+    }
+
+    public synchronized boolean puoAnnullare() {
+        return !annullabili.isEmpty();
+    }
+
+    public synchronized boolean puoRipetere() {
+        return !ripetibili.isEmpty();
+    }
+
+    // --- Comandi sulle operazioni del menu ---
+
+    public static Comando aggiungi(Project progetto, TaskComponent componente) {
+        return new Comando() {
+            @Override
+            public boolean esegui() {
+                progetto.add(componente);
+                return true;
+            }
+
+            @Override
+            public boolean annulla() {
+                return progetto.rimuovi(componente);
+            }
+
+            @Override
+            public String getDescrizione() {
+                return "aggiunta di \"" + componente.getName() + "\"";
+            }
+        };
+    }
+
+    public static Comando strategia(Project progetto, OrdinamentoStrategy strategia) {
+        return new Comando() {
+            private OrdinamentoStrategy precedente;
+
+            @Override
+            public boolean esegui() {
+                precedente = progetto.getStrategia();
+                progetto.setStrategia(strategia);
+                return true;
+            }
+
+            @Override
+            public boolean annulla() {
+                progetto.setStrategia(precedente);
+                return true;
+            }
+
+            @Override
+            public String getDescrizione() {
+                return "cambio di ordinamento";
+            }
+        };
+    }
+
+    // Completa per nome come il menu; se il task era già completato l'annullamento non lo riapre
+    public static Comando completa(Project progetto, String nome) {
+        return new Comando() {
+            private SimpleTask task;
+            private boolean eraCompletato;
+
+            @Override
+            public boolean esegui() {
+                task = progetto.cercaTask(nome);
+                eraCompletato = task != null && task.isCompleted();
+                return progetto.completaTask(nome);
+            }
+
+            @Override
+            public boolean annulla() {
+                if (eraCompletato) return true;
+                Project genitore = task.getGenitore();
+                if (genitore == null || !genitore.dentro(progetto)) return false;
+                task.setCompletato(false);
+                return true;
+            }
+
+            @Override
+            public String getDescrizione() {
+                return "completamento di \"" + nome + "\"";
+            }
+        };
+    }
+
+    // Svuotare toglie figli e strategia: tengo la lista dei figli (gli oggetti, non copie) per rimetterli
+    public static Comando svuota(Project progetto) {
+        return new Comando() {
+            private List<TaskComponent> figli;
+            private OrdinamentoStrategy strategia;
+
+            @Override
+            public boolean esegui() {
+                strategia = progetto.getStrategia();
+                figli = progetto.getFigli();
+                progetto.svuotaProgetto();
+                return true;
+            }
+
+            @Override
+            public boolean annulla() {
+                progetto.addAll(figli);
+                progetto.setStrategia(strategia);
+                figli = null;
+                return true;
+            }
+
+            @Override
+            public String getDescrizione() {
+                return "svuotamento di \"" + progetto.getName() + "\"";
+            }
+        };
+    }
+
+    // La pulizia passa da chi la esegue davvero (di solito StorageManager, che archivia i task tolti)
+    public static ComandoPulizia rimuoviCompletati(Project progetto, Supplier<Project.Pulizia> pulizia) {
+        return new ComandoPulizia(progetto, pulizia, p -> { });
+    }
+
+    // Come sopra, ma annullando la pulizia viene chiamato anche chi ha archiviato i task, per toglierli dall'archivio
+    public static ComandoPulizia rimuoviCompletati(Project progetto, Supplier<Project.Pulizia> pulizia,
+                                                   Consumer<Project.Pulizia> annullaArchivio) {
+        return new ComandoPulizia(progetto, pulizia, annullaArchivio);
+    }
+
+    public static final class ComandoPulizia implements Comando {
+        private final Project progetto;
+        private final Supplier<Project.Pulizia> esecuzione;
+        private final Consumer<Project.Pulizia> annullaArchivio;
+        private Project.Pulizia pulizia;
+
+        private ComandoPulizia(Project progetto, Supplier<Project.Pulizia> esecuzione, Consumer<Project.Pulizia> annullaArchivio) {
+            this.progetto = progetto;
+            this.esecuzione = esecuzione;
+            this.annullaArchivio = annullaArchivio;
+        }
+
+        // Il risultato dell'ultima esecuzione, per mostrare quanti task sono stati tolti
+        public Project.Pulizia getPulizia() {
+            return pulizia;
+        }
+
+        @Override
+        public boolean esegui() {
+            pulizia = esecuzione.get();
+            return pulizia.getTaskRimossi() > 0 || pulizia.getProgettiRimossi() > 0;
+        }
+
+        @Override
+        public boolean annulla() {
+            if (!pulizia.ripristinabile(progetto)) return false;
+            pulizia.ripristina();
+            annullaArchivio.accept(pulizia);
+            return true;
+        }
+
+        @Override
+        public String getDescrizione() {
+            return "pulizia di \"" + progetto.getName() + "\"";
+        }
+    }
+}
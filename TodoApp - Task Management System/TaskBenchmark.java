@@ -0,0 +1,865 @@
+import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.ref.Reference;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+// Banco di prova dei percorsi più usati, organizzato come JMH: iterazioni di riscaldamento,
+// iterazioni misurate e confronto con una baseline salvata in precedenza.
+// Uso: java TaskBenchmark [--filtro testo] [--rapido] [--salva-baseline file] [--baseline file] [--soglia percentuale]
+public class TaskBenchmark {
+    private static final int ITERAZIONI_RISCALDAMENTO = 3;
+    private static final int ITERAZIONI_MISURA = 5;
+    // Richieste in sequenza di ogni client nel generatore di carico per il server
+    private static final int RICHIESTE_PER_CLIENTE = 10;
+    // Oltre questo peggioramento rispetto alla baseline il benchmark viene segnalato come regressione
+    private static final double SOGLIA_REGRESSIONE = 0.10;
+
+    // Il lavoro misurato da un benchmark
+    @FunctionalInterface
+    interface Compito {
+        void esegui() throws Exception;
+    }
+
+    private final PrintStream console = System.out;
+    private final PrintStream silenzioso = new PrintStream(OutputStream.nullOutputStream());
+    private final Map<String, Double> risultati = new LinkedHashMap<>();
+    private String filtro = "";
+    private boolean rapido;
+    private double sogliaRegressione = SOGLIA_REGRESSIONE;
+
+    public static void main(String[] args) throws Exception {
+        TaskBenchmark banco = new TaskBenchmark();
+        String baseline = null;
+        String nuovaBaseline = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--filtro":
+                    banco.filtro = args[++i];
+                    break;
+                case "--rapido":
+                    banco.rapido = true;
+                    break;
+                case "--baseline":
+                    baseline = args[++i];
+                    break;
+                case "--salva-baseline":
+                    nuovaBaseline = args[++i];
+                    break;
+                case "--soglia":
+                    banco.sogliaRegressione = Double.parseDouble(args[++i]) / 100;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Opzione sconosciuta: " + args[i]);
+            }
+        }
+
+        banco.eseguiTutti();
+        if (nuovaBaseline != null) {
+            banco.salvaBaseline(nuovaBaseline);
+        }
+        if (baseline != null && !banco.confrontaConBaseline(baseline)) {
+            System.exit(1);
+        }
+    }
+
+    private void eseguiTutti() throws Exception {
+        benchmarkFactory();
+        benchmarkRicerca();
+        benchmarkRicercaTesto();
+        benchmarkCompletamento();
+        benchmarkOrdinamento();
+        benchmarkVisualizzazione();
+        benchmarkStorage();
+        benchmarkAvvio();
+        benchmarkImportExport();
+        benchmarkConcorrenza();
+        benchmarkMemoria();
+        benchmarkCompatto();
+        benchmarkVisitaParallela();
+        benchmarkMetriche();
+        benchmarkEventi();
+        benchmarkServer();
+    }
+
+    // --- Benchmark ---
+
+    private void benchmarkFactory() throws Exception {
+        String[] nomi = {"Studiare Java", "Comprare il pane", "Già fatto? <b>Sì</b>", "Riunione alle 10.30, sala è"};
+        misura("factory.createTask", 100_000, () -> {
+            for (int i = 0; i < 100_000; i++) {
+                TaskFactory.createTask("SIMPLE", nomi[i & 3]);
+            }
+        });
+        // Riferimento: la vecchia validazione con replaceAll e matches ricompilati a ogni chiamata
+        misura("factory.validazioneRegex", 100_000, () -> {
+            for (int i = 0; i < 100_000; i++) {
+                String pulito = nomi[i & 3].replaceAll("<[^>]*>", "");
+                if (!pulito.matches("^[a-zA-Z0-9àèìòùÀÈÌÒÙ\\s.,!?\\-]*$")) throw new IllegalStateException();
+            }
+        });
+        List<String> blocco = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            blocco.add(nomi[i & 3]);
+        }
+        misura("factory.createTasks", 100_000, () -> TaskFactory.createTasks("SIMPLE", blocco));
+    }
+
+    private void benchmarkRicerca() throws Exception {
+        // Il tempo per ricerca deve restare piatto al crescere dell'albero
+        for (int dimensione : dimensioni(1_000, 100_000, 1_000_000)) {
+            String nome = "ricerca.contiene." + dimensione;
+            if (!attivo(nome)) continue;
+            Project radice = alberoLargo(dimensione);
+            String ultimo = "Task " + (dimensione - 1);
+            misura(nome, 100_000, () -> {
+                for (int i = 0; i < 100_000; i++) {
+                    radice.contiene(ultimo);
+                }
+            });
+        }
+    }
+
+    private void benchmarkRicercaTesto() throws Exception {
+        // Ricerca per prefisso e per parole su un milione di task; l'indice viene costruito prima della misura
+        if (!attivo("ricerca.testo")) return;
+        Project radice = alberoLargo(1_000_000);
+        radice.cerca("task", 1);
+        misura("ricerca.testo.prefisso.1000000", 10_000, () -> {
+            for (int i = 0; i < 10_000; i++) {
+                radice.cerca("sot", 20);
+            }
+        });
+        misura("ricerca.testo.paroleEPrefisso.1000000", 10_000, () -> {
+            for (int i = 0; i < 10_000; i++) {
+                radice.cerca("task 99", 20);
+            }
+        });
+    }
+
+    // Costo delle metriche sul percorso caldo: una durata completa (due letture dell'orologio) e un contatore
+    private void benchmarkMetriche() throws Exception {
+        Metriche metriche = new Metriche();
+        Metriche.Istogramma durate = metriche.istogramma("bench.ns");
+        Metriche.Contatore eventi = metriche.contatore("bench.eventi");
+        misura("metriche.durata", 1_000_000, () -> {
+            for (int i = 0; i < 1_000_000; i++) {
+                durate.fine(durate.inizio());
+            }
+        });
+        misura("metriche.contatore", 1_000_000, () -> {
+            for (int i = 0; i < 1_000_000; i++) {
+                eventi.incrementa();
+            }
+        });
+    }
+
+    // Costo degli eventi su add e completamento: senza iscritti, con un iscritto che tiene il passo (lotti da 1024)
+    // e con uno che scarta quando resta indietro
+    private void benchmarkEventi() throws Exception {
+        int n = 100_000;
+        misura("eventi.nessunIscritto." + n, n, () -> aggiungiECompleta(n));
+        for (EventiTask.Pressione pressione : EventiTask.Pressione.values()) {
+            AtomicLong ricevuti = new AtomicLong();
+            try (EventiTask.Iscrizione iscrizione = EventiTask.getInstance().iscrivi("benchmark", 4096, 1024, pressione,
+                    (eventi, persi) -> ricevuti.addAndGet(eventi.size()))) {
+                misura("eventi." + pressione.name().toLowerCase(Locale.ROOT) + "." + n, n, () -> {
+                    aggiungiECompleta(n);
+                    iscrizione.aspetta(60_000);
+                });
+            }
+        }
+    }
+
+    private static void aggiungiECompleta(int n) {
+        Project progetto = new Project("Eventi");
+        for (int i = 0; i < n; i++) {
+            SimpleTask task = new SimpleTask("Task " + i);
+            progetto.add(task);
+            task.setCompletato(true);
+        }
+    }
+
+    // Generatore di carico per ServerTask su localhost: molti client contemporanei, ognuno con una catena di
+    // richieste asincrone (un client non manda la prossima finché non ha la risposta). Riporta richieste al secondo e p99
+    private void benchmarkServer() throws Exception {
+        if (!attivo("server.")) return;
+        StorageManager storage = StorageManager.getInstance();
+        File file = File.createTempFile("benchmark-server", ".txt");
+        file.deleteOnExit();
+        storage.setPercorsoFile(file.getPath());
+        storage.setSalvataggioAsincrono(50);
+        List<Project> progetti = new ArrayList<>(List.of(alberoLargo(100_000)));
+        ServerTask server = new ServerTask(progetti, storage, 0);
+        server.avvia();
+        ExecutorService threadClient = Executors.newFixedThreadPool(4);
+        try {
+            HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).executor(threadClient).build();
+            String base = "http://localhost:" + server.getPorta() + "/progetti/0/";
+            for (int clienti : dimensioni(100, 1_000, 2_000)) {
+                // Ogni client sfoglia le prime 20 pagine, come farebbe un'interfaccia
+                misuraCarico("server.pagina50." + clienti + "client", client, clienti, RICHIESTE_PER_CLIENTE,
+                        i -> HttpRequest.newBuilder(URI.create(base + "task?limite=50&cursore=" + (i % 20) * 50)).build());
+                misuraCarico("server.aggiungi." + clienti + "client", client, clienti, RICHIESTE_PER_CLIENTE,
+                        i -> HttpRequest.newBuilder(URI.create(base + "task"))
+                                .header("Content-Type", "application/x-www-form-urlencoded")
+                                .POST(HttpRequest.BodyPublishers.ofString("nome=Carico+" + i)).build());
+            }
+        } finally {
+            server.ferma(0);
+            threadClient.shutdownNow();
+            storage.setSalvataggioAsincrono(0);
+            storage.setPercorsoFile("tasks.txt");
+            new File(file.getPath() + ".journal").delete();
+        }
+    }
+
+    private void misuraCarico(String nome, HttpClient client, int clienti, int richiestePerCliente,
+                              IntFunction<HttpRequest> richiesta) throws Exception {
+        if (!attivo(nome)) return;
+        // Un giro di riscaldamento, poi la misura vera con un istogramma delle latenze tutto suo
+        lanciaClienti(client, clienti, richiestePerCliente, richiesta, new Metriche().istogramma(nome));
+        Metriche.Istogramma latenze = new Metriche().istogramma(nome);
+        long inizio = System.nanoTime();
+        long errori = lanciaClienti(client, clienti, richiestePerCliente, richiesta, latenze);
+        long durata = System.nanoTime() - inizio;
+
+        long totale = (long) clienti * richiestePerCliente;
+        double medio = (double) durata / totale;
+        risultati.put(nome, medio);
+        console.println(String.format(Locale.ROOT, "%-40s %14.1f ns/op  (%.0f richieste/s, p99 %.2f ms, errori %d)",
+                nome, medio, totale * 1e9 / durata, latenze.percentile(0.99) / 1e6, errori));
+    }
+
+    private static long lanciaClienti(HttpClient client, int clienti, int richiestePerCliente,
+                                      IntFunction<HttpRequest> richiesta, Metriche.Istogramma latenze) {
+        AtomicLong errori = new AtomicLong();
+        CompletableFuture<?>[] tutti = new CompletableFuture<?>[clienti];
+        for (int c = 0; c < clienti; c++) {
+            tutti[c] = cliente(client, richiesta, c * richiestePerCliente, richiestePerCliente, latenze, errori);
+        }
+        CompletableFuture.allOf(tutti).join();
+        return errori.get();
+    }
+
+    private static CompletableFuture<Void> cliente(HttpClient client, IntFunction<HttpRequest> richiesta, int numero,
+                                                   int rimaste, Metriche.Istogramma latenze, AtomicLong errori) {
+        long inizio = System.nanoTime();
+        return client.sendAsync(richiesta.apply(numero), HttpResponse.BodyHandlers.discarding())
+                .handle((risposta, eccezione) -> {
+                    latenze.registra(System.nanoTime() - inizio);
+                    if (eccezione != null || risposta.statusCode() >= 400) errori.incrementAndGet();
+                    return null;
+                })
+                .thenCompose(x -> rimaste > 1
+                        ? cliente(client, richiesta, numero + 1, rimaste - 1, latenze, errori)
+                        : CompletableFuture.completedFuture(null));
+    }
+
+    private void benchmarkCompletamento() throws Exception {
+        if (attivo("completaTask.largo") || attivo("isCompleted.largo")) {
+            Project largo = alberoLargo(100_000);
+            SimpleTask task = largo.cercaTask("Task 99999");
+            // Ogni operazione completa il task e lo riapre, così ogni giro fa lo stesso lavoro
+            misura("completaTask.largo", 20_000, () -> {
+                for (int i = 0; i < 10_000; i++) {
+                    largo.completaTask("Task 99999");
+                    task.setCompletato(false);
+                }
+            });
+            misura("isCompleted.largo", 100_000, () -> {
+                for (int i = 0; i < 100_000; i++) {
+                    largo.isCompleted();
+                }
+            });
+        }
+
+        if (attivo("rimuoviCompletati.largo")) {
+            // La pulizia toglie i task, quindi ogni giro ne completa un decimo, pulisce tutto l'albero
+            // e li rimette al loro posto: il risultato è per task dell'albero, ripristino compreso
+            Project largo = alberoLargo(1_000_000);
+            List<Project> sotto = new ArrayList<>();
+            for (TaskComponent c : largo.getFigli()) {
+                sotto.add((Project) c);
+            }
+            misura("rimuoviCompletati.largo.1000000", 1_000_000, () -> {
+                for (Project p : sotto) {
+                    List<TaskComponent> figli = p.getFigli();
+                    for (int i = 0; i < figli.size(); i += 10) {
+                        ((SimpleTask) figli.get(i)).setCompletato(true);
+                    }
+                }
+                Project.Pulizia pulizia = largo.rimuoviCompletati();
+                for (int i = 0; i < pulizia.getTaskRimossi(); i++) {
+                    SimpleTask task = (SimpleTask) pulizia.getTask().get(i);
+                    task.setCompletato(false);
+                    sotto.get(i % sotto.size()).add(task);
+                }
+            });
+        }
+
+        if (attivo("annulla.")) {
+            // Pulizia e svuotamento di un tabellone da 100.000 task con il loro annullamento:
+            // la cronologia tiene solo i figli tolti, e annullare è una fusione lineare
+            Project largo = alberoLargo(100_000);
+            List<SimpleTask> decimo = new ArrayList<>();
+            for (TaskComponent sotto : largo.getFigli()) {
+                List<TaskComponent> figli = ((Project) sotto).getFigli();
+                for (int i = 0; i < figli.size(); i += 10) {
+                    decimo.add((SimpleTask) figli.get(i));
+                }
+            }
+            StoricoComandi storico = new StoricoComandi();
+            misura("annulla.rimuoviCompletati.100000", 100_000, () -> {
+                for (SimpleTask task : decimo) {
+                    task.setCompletato(true);
+                }
+                storico.esegui(StoricoComandi.rimuoviCompletati(largo, largo::rimuoviCompletati));
+                storico.annulla();
+                for (SimpleTask task : decimo) {
+                    task.setCompletato(false);
+                }
+            });
+            misura("annulla.svuota.100000", 100_000, () -> {
+                storico.esegui(StoricoComandi.svuota(largo));
+                storico.annulla();
+            });
+        }
+
+        if (attivo("completaTask.profondo") || attivo("isCompleted.profondo")) {
+            Project profondo = alberoProfondo(1_000, 10);
+            String nome = "Livello 999 task 9";
+            SimpleTask task = profondo.cercaTask(nome);
+            misura("completaTask.profondo", 2_000, () -> {
+                for (int i = 0; i < 1_000; i++) {
+                    profondo.completaTask(nome);
+                    task.setCompletato(false);
+                }
+            });
+            misura("isCompleted.profondo", 100_000, () -> {
+                for (int i = 0; i < 100_000; i++) {
+                    profondo.isCompleted();
+                }
+            });
+        }
+    }
+
+    private void benchmarkOrdinamento() throws Exception {
+        List<TaskComponent> figli = attivo("ordina") ? alberoPiatto(100_000).getFigli() : List.of();
+        for (String codice : new String[] {"A", "Z"}) {
+            OrdinamentoStrategy strategia = OrdinamentoStrategy.daCodice(codice);
+            misura("ordina." + strategia.getClass().getSimpleName(), 1, () -> strategia.ordina(new ArrayList<>(figli)));
+        }
+        misura("ordina.OrdineComposto.N", 1, () -> OrdineComposto.naturale().ordina(new ArrayList<>(figli)));
+        misura("ordina.OrdineComposto.S", 1, () -> OrdineComposto.perStato().ordina(new ArrayList<>(figli)));
+
+        // Nomi italiani con accenti e maiuscole mescolati; "chiaviNuove" paga anche il calcolo delle chiavi di collazione
+        int n = 100_000;
+        List<String> parole = List.of("Perché", "perche", "Città", "città", "Attività", "università", "Però", "caffè", "Zucchero", "àncora");
+        List<TaskComponent> accentati = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            SimpleTask task = new SimpleTask(parole.get(i % parole.size()) + " " + ((i * 7919L) % n));
+            task.setCompletato(i % 3 == 0);
+            accentati.add(task);
+        }
+        for (String codice : new String[] {"A", "Z", "N", "S"}) {
+            OrdinamentoStrategy strategia = OrdinamentoStrategy.daCodice(codice);
+            misura("ordina.accentati." + strategia.getCodice() + "." + n, 1, () -> strategia.ordina(new ArrayList<>(accentati)));
+        }
+        misura("ordina.accentati.chiaviNuove.S." + n, 1, () -> {
+            List<TaskComponent> nuovi = new ArrayList<>(n);
+            for (TaskComponent c : accentati) nuovi.add(new SimpleTask(c.getName()));
+            OrdineComposto.perStato().ordina(nuovi);
+        });
+
+        if (attivo("vista.cache")) {
+            Project piatto = alberoPiatto(100_000);
+            piatto.setStrategia(OrdinamentoStrategy.daCodice("A"));
+            piatto.getVistaOrdinata();
+            misura("vista.cache", 1, piatto::getVistaOrdinata);
+        }
+    }
+
+    private void benchmarkVisualizzazione() throws Exception {
+        if (!attivo("display")) return;
+        Project albero = alberoLargo(100_000);
+        // Il vecchio display(): una println e una concatenazione del rientro per ogni nodo
+        misura("display.printlnPerRiga", 1, () -> displayPerRiga(albero, ""));
+        misura("display.renderer", 1, () -> albero.display(""));
+    }
+
+    private void benchmarkStorage() throws Exception {
+        StorageManager storage = StorageManager.getInstance();
+        File file = File.createTempFile("benchmark", ".dat");
+        File journal = new File(file.getPath() + ".journal");
+        file.deleteOnExit();
+        journal.deleteOnExit();
+
+        try {
+            for (int dimensione : dimensioni(1_000, 100_000, 1_000_000)) {
+                // Il formato di testo salva un solo livello, quindi uso dieci progetti piatti
+                List<Project> progetti = null;
+                for (StorageManager.Formato formato : StorageManager.Formato.values()) {
+                    String prefisso = "storage." + formato.name().toLowerCase(Locale.ROOT) + ".";
+                    if (!attivo(prefisso + "save." + dimensione) && !attivo(prefisso + "load." + dimensione)
+                            && !attivo(prefisso + "loadPigro." + dimensione)) continue;
+                    if (progetti == null) progetti = progettiPiatti(10, dimensione / 10);
+
+                    List<Project> daSalvare = progetti;
+                    storage.setPercorsoFile(file.getPath());
+                    storage.setFormato(formato);
+                    misura(prefisso + "save." + dimensione, dimensione, () -> storage.saveTasks(daSalvare));
+                    // Il caricamento ha bisogno del file anche quando il salvataggio non viene misurato
+                    storage.saveTasks(daSalvare);
+                    storage.setFormato(formato);
+                    misura(prefisso + "load." + dimensione, dimensione, storage::loadTasks);
+                    // Solo l'indice dei progetti, più l'apertura del primo come fa TodoApp all'avvio
+                    storage.setCaricamentoPigro(true);
+                    misura(prefisso + "loadPigro." + dimensione, dimensione, () -> storage.loadTasks().get(0).getFigli());
+                    storage.setCaricamentoPigro(false);
+                }
+            }
+
+            // Una sola modifica su un tabellone grande: snapshot completo contro una riga nel journal
+            if (attivo("storage.journal") || attivo("storage.snapshot")) {
+                List<Project> progetti = progettiPiatti(10, 10_000);
+                storage.setPercorsoFile(file.getPath());
+                storage.setFormato(StorageManager.Formato.TESTO);
+                storage.setModalitaJournal(false);
+                misura("storage.snapshot.100000", 1, () -> storage.registra(progetti, StorageManager.Operazione.COMPLETA, 0, "Task 0 0"));
+                storage.setModalitaJournal(true);
+                storage.setSogliaCompattazione(Integer.MAX_VALUE);
+                misura("storage.journal.100000", 100, () -> {
+                    for (int i = 0; i < 100; i++) {
+                        storage.registra(progetti, StorageManager.Operazione.COMPLETA, 0, "Task 0 " + i);
+                    }
+                });
+            }
+
+            // Stessa modifica col salvataggio asincrono: il chiamante aspetta solo la pianificazione,
+            // e cento modifiche ravvicinate diventano un solo snapshot scritto in background
+            if (attivo("storage.asincrono")) {
+                List<Project> progetti = progettiPiatti(10, 10_000);
+                storage.setPercorsoFile(file.getPath());
+                storage.setFormato(StorageManager.Formato.TESTO);
+                storage.setModalitaJournal(false);
+                storage.setSalvataggioAsincrono(50);
+                misura("storage.asincrono.100000", 100, () -> {
+                    for (int i = 0; i < 100; i++) {
+                        storage.registra(progetti, StorageManager.Operazione.COMPLETA, 0, "Task 0 " + i);
+                    }
+                });
+                storage.setSalvataggioAsincrono(0);
+            }
+        } finally {
+            storage.setCaricamentoPigro(false);
+            storage.setModalitaJournal(false);
+            storage.setSogliaCompattazione(1000);
+            storage.setFormato(StorageManager.Formato.TESTO);
+            storage.setPercorsoFile("tasks.txt");
+        }
+    }
+
+    // Tempo fino al primo menu: un vero TodoApp in un processo a parte, avviato in una cartella con un tasks.txt grande
+    // in ogni formato e fermato appena chiede la scelta. L'avvio della JVM è compreso ed è lo stesso per tutti i formati
+    private void benchmarkAvvio() throws Exception {
+        StorageManager storage = StorageManager.getInstance();
+        try {
+            for (int dimensione : dimensioni(100_000, 1_000_000)) {
+                List<Project> progetti = null;
+                for (StorageManager.Formato formato : StorageManager.Formato.values()) {
+                    String nome = "avvio." + formato.name().toLowerCase(Locale.ROOT) + "." + dimensione;
+                    if (!attivo(nome)) continue;
+                    if (progetti == null) progetti = progettiPiatti(10, dimensione / 10);
+
+                    File cartella = Files.createTempDirectory("benchmark-avvio").toFile();
+                    File file = new File(cartella, "tasks.txt");
+                    storage.setPercorsoFile(file.getPath());
+                    storage.setFormato(formato);
+                    storage.saveTasks(progetti);
+                    try {
+                        misura(nome, 1, () -> primoMenu(cartella));
+                    } finally {
+                        for (File f : cartella.listFiles()) {
+                            f.delete();
+                        }
+                        cartella.delete();
+                    }
+                }
+            }
+        } finally {
+            storage.setFormato(StorageManager.Formato.TESTO);
+            storage.setPercorsoFile("tasks.txt");
+        }
+    }
+
+    private static void primoMenu(File cartella) throws Exception {
+        String java = ProcessHandle.current().info().command().orElse("java");
+        Process processo = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "TodoApp")
+                .directory(cartella).redirectErrorStream(true).start();
+        try (InputStream uscita = new BufferedInputStream(processo.getInputStream())) {
+            byte[] prompt = "Scelta: ".getBytes(StandardCharsets.UTF_8);
+            int trovati = 0;
+            int letto;
+            while ((letto = uscita.read()) >= 0) {
+                if (letto == prompt[trovati]) {
+                    if (++trovati == prompt.length) return;
+                } else {
+                    trovati = letto == prompt[0] ? 1 : 0;
+                }
+            }
+            throw new IOException("TodoApp è terminato senza mostrare il menu");
+        } finally {
+            // Fermato di colpo: senza uscire dal menu non c'è niente da salvare
+            processo.destroyForcibly().waitFor();
+        }
+    }
+
+    private void benchmarkImportExport() throws Exception {
+        File file = File.createTempFile("benchmark", ".csv");
+        file.deleteOnExit();
+        int processori = Runtime.getRuntime().availableProcessors();
+
+        for (int dimensione : dimensioni(100_000, 1_000_000)) {
+            String prefisso = "importExport.";
+            if (!attivo(prefisso + "import." + dimensione) && !attivo(prefisso + "export." + dimensione)) continue;
+
+            // Una riga su cento è sbagliata, così anche il resoconto degli errori fa parte della misura
+            try (PrintWriter csv = new PrintWriter(file, StandardCharsets.UTF_8)) {
+                csv.println("nome,stato");
+                for (int i = 0; i < dimensione; i++) {
+                    csv.println(i % 100 == 99 ? "Riga|sbagliata " + i : "\"Task " + i + ", importato\"," + (i % 2 == 0 ? "X" : "O"));
+                }
+            }
+            for (int threads : new int[] {1, Math.max(2, processori)}) {
+                misura(prefisso + "import." + dimensione + "." + threads + "thread", dimensione, () -> {
+                    try (FileReader sorgente = new FileReader(file, StandardCharsets.UTF_8)) {
+                        TaskImportExport.importa(sorgente, TaskImportExport.Formato.CSV, new Project("Import"), threads);
+                    }
+                });
+            }
+            if (attivo(prefisso + "export." + dimensione)) {
+                Project progetto = alberoLargo(dimensione);
+                misura(prefisso + "export." + dimensione, dimensione,
+                        () -> TaskImportExport.esporta(progetto, new OutputStreamWriter(OutputStream.nullOutputStream(), StandardCharsets.UTF_8)));
+            }
+        }
+    }
+
+    private void benchmarkConcorrenza() throws Exception {
+        // Ogni thread aggiunge e completa task nel proprio progetto: alberi diversi hanno lock diversi
+        int processori = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= Math.max(4, processori); threads *= 2) {
+            int numeroThread = threads;
+            misura("concorrenza.addCompleta." + threads + "thread", threads * 100_000, () -> addCompletaInParallelo(numeroThread, 50_000));
+        }
+    }
+
+    private void benchmarkMemoria() throws Exception {
+        // Heap occupato per task: un oggetto SimpleTask per task contro le colonne di ProgettoCompatto.
+        // Con nomi tutti diversi il pool non può risparmiare sulle stringhe; con nomi ripetuti sì
+        for (int dimensione : dimensioni(100_000, 1_000_000)) {
+            misuraMemoria("memoria.project." + dimensione, dimensione, () -> {
+                Project progetto = new Project("Memoria");
+                for (int i = 0; i < dimensione; i++) {
+                    progetto.add(new SimpleTask("Task " + i));
+                }
+                return progetto;
+            });
+            misuraMemoria("memoria.compatto." + dimensione, dimensione, () -> {
+                ProgettoCompatto progetto = new ProgettoCompatto("Memoria");
+                for (int i = 0; i < dimensione; i++) {
+                    progetto.add("Task " + i);
+                }
+                return progetto;
+            });
+            misuraMemoria("memoria.compattoNomiRipetuti." + dimensione, dimensione, () -> {
+                ProgettoCompatto progetto = new ProgettoCompatto("Memoria");
+                for (int i = 0; i < dimensione; i++) {
+                    progetto.add("Task " + (i % 1_000));
+                }
+                return progetto;
+            });
+        }
+    }
+
+    private void benchmarkCompatto() throws Exception {
+        // Ricerca degli ultimi task aggiunti (il caso peggiore di una scansione) e lettura dei nomi
+        // da più thread insieme sullo stesso tabellone: il pool si legge senza monitor
+        for (int dimensione : dimensioni(100_000, 1_000_000)) {
+            if (!attivo("compatto.contiene." + dimensione) && !attivo("compatto.nomi." + dimensione)) continue;
+            ProgettoCompatto progetto = new ProgettoCompatto("Compatto");
+            for (int i = 0; i < dimensione; i++) {
+                progetto.add("Task " + i);
+            }
+            misura("compatto.contiene." + dimensione, 10_000, () -> {
+                for (int i = 0; i < 10_000; i++) {
+                    progetto.contiene("Task " + (dimensione - 1 - (i & 1023)));
+                }
+            });
+            int processori = Runtime.getRuntime().availableProcessors();
+            for (int threads : new int[] {1, Math.max(4, processori)}) {
+                misura("compatto.nomi." + dimensione + "." + threads + "thread", threads * dimensione,
+                        () -> leggiNomiInParallelo(progetto, threads));
+            }
+        }
+    }
+
+    private static void leggiNomiInParallelo(ProgettoCompatto progetto, int threads) throws Exception {
+        ExecutorService esecutore = Executors.newFixedThreadPool(threads);
+        try {
+            List<Callable<Object>> lavori = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                lavori.add(() -> {
+                    long lunghezza = 0;
+                    for (TaskComponent riga : progetto) {
+                        lunghezza += riga.getName().length();
+                    }
+                    return lunghezza;
+                });
+            }
+            for (Future<Object> f : esecutore.invokeAll(lavori)) {
+                f.get();
+            }
+        } finally {
+            esecutore.shutdown();
+        }
+    }
+
+    private void benchmarkVisitaParallela() throws Exception {
+        // Una ricerca senza indice (nomi che finiscono per "7") su più progetti grandi, con pool di dimensione crescente
+        if (!attivo("visitaParallela")) return;
+        List<Project> progetti = new ArrayList<>();
+        for (int p = 0; p < 10; p++) {
+            progetti.add(alberoLargo(100_000));
+        }
+        int processori = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= Math.max(4, processori); threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                VisitaParallela visita = new VisitaParallela(pool, 1024);
+                misura("visitaParallela.conta." + threads + "thread", 1_000_000,
+                        () -> visita.conta(progetti, t -> t.getName().endsWith("7")));
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    private static void addCompletaInParallelo(int threads, int taskPerThread) throws Exception {
+        ExecutorService esecutore = Executors.newFixedThreadPool(threads);
+        try {
+            List<Callable<Object>> lavori = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                Project progetto = new Project("Thread " + t);
+                lavori.add(() -> {
+                    for (int i = 0; i < taskPerThread; i++) {
+                        SimpleTask task = new SimpleTask("Task " + i);
+                        progetto.add(task);
+                        task.setCompletato(true);
+                    }
+                    return null;
+                });
+            }
+            for (Future<Object> f : esecutore.invokeAll(lavori)) {
+                f.get();
+            }
+        } finally {
+            esecutore.shutdown();
+        }
+    }
+
+    private static void displayPerRiga(TaskComponent c, String spazi) {
+        if (c instanceof Project) {
+            System.out.println(spazi + "+ Progetto: " + c.getName());
+            for (TaskComponent figlio : (Project) c) {
+                displayPerRiga(figlio, spazi + "  ");
+            }
+        } else {
+            System.out.println(spazi + (c.isCompleted() ? "[X] " : "[ ] ") + c.getName());
+        }
+    }
+
+    // --- Misura ---
+
+    private boolean attivo(String nome) {
+        return nome.contains(filtro);
+    }
+
+    private int[] dimensioni(int... tutte) {
+        // In modalità rapida salto la dimensione più grande
+        return rapido ? Arrays.copyOf(tutte, tutte.length - 1) : tutte;
+    }
+
+    // Esegue il compito per le iterazioni di riscaldamento e di misura e registra il tempo medio per operazione.
+    // Durante la misura System.out è silenziato, così le stampe dell'applicazione non falsano i tempi
+    private void misura(String nome, int operazioni, Compito compito) throws Exception {
+        if (!attivo(nome)) return;
+
+        long migliore = Long.MAX_VALUE;
+        long totale = 0;
+        System.setOut(silenzioso);
+        try {
+            for (int i = 0; i < ITERAZIONI_RISCALDAMENTO; i++) {
+                compito.esegui();
+            }
+            for (int i = 0; i < ITERAZIONI_MISURA; i++) {
+                long inizio = System.nanoTime();
+                compito.esegui();
+                long durata = System.nanoTime() - inizio;
+                totale += durata;
+                migliore = Math.min(migliore, durata);
+            }
+        } finally {
+            System.setOut(console);
+        }
+
+        double medio = (double) totale / ITERAZIONI_MISURA / operazioni;
+        risultati.put(nome, medio);
+        console.println(String.format(Locale.ROOT, "%-40s %14.1f ns/op  (migliore %.1f)", nome, medio, (double) migliore / operazioni));
+    }
+
+    // Come misura, ma registra i byte di heap per operazione rimasti occupati dall'oggetto costruito
+    private void misuraMemoria(String nome, int operazioni, Callable<Object> costruisci) throws Exception {
+        if (!attivo(nome)) return;
+
+        long prima = heapOccupato();
+        Object costruito = costruisci.call();
+        long dopo = heapOccupato();
+        Reference.reachabilityFence(costruito);
+        double perOperazione = (double) (dopo - prima) / operazioni;
+        risultati.put(nome, perOperazione);
+        console.println(String.format(Locale.ROOT, "%-40s %14.1f byte/op  (%s)", nome, perOperazione, costruito.getClass().getSimpleName()));
+    }
+
+    // Un solo System.gc() non sempre libera tutto quello che è già irraggiungibile: ne chiedo diversi e tengo il minimo
+    private static long heapOccupato() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        long occupato = Long.MAX_VALUE;
+        for (int i = 0; i < 8; i++) {
+            System.gc();
+            Thread.sleep(20);
+            occupato = Math.min(occupato, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return occupato;
+    }
+
+    private void salvaBaseline(String percorso) throws IOException {
+        try (PrintWriter writer = new PrintWriter(new FileWriter(percorso))) {
+            for (Map.Entry<String, Double> r : risultati.entrySet()) {
+                writer.println(r.getKey() + "=" + r.getValue());
+            }
+        }
+        console.println("Baseline salvata in " + percorso);
+    }
+
+    // Confronta i risultati con una baseline; falso se almeno un benchmark è peggiorato oltre la soglia
+    private boolean confrontaConBaseline(String percorso) throws IOException {
+        Map<String, Double> baseline = new LinkedHashMap<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(percorso))) {
+            String riga;
+            while ((riga = reader.readLine()) != null) {
+                int uguale = riga.lastIndexOf('=');
+                if (uguale > 0) {
+                    baseline.put(riga.substring(0, uguale), Double.parseDouble(riga.substring(uguale + 1)));
+                }
+            }
+        }
+
+        boolean nessunaRegressione = true;
+        console.println("\n--- Confronto con la baseline " + percorso + " ---");
+        for (Map.Entry<String, Double> r : risultati.entrySet()) {
+            Double prima = baseline.get(r.getKey());
+            if (prima == null) continue;
+            double variazione = (r.getValue() - prima) / prima;
+            boolean regressione = variazione > sogliaRegressione;
+            nessunaRegressione &= !regressione;
+            console.println(String.format(Locale.ROOT, "%-40s %+8.1f%%%s", r.getKey(), variazione * 100, regressione ? "  <-- REGRESSIONE" : ""));
+        }
+        return nessunaRegressione;
+    }
+
+    // --- Generatori di alberi sintetici ---
+
+    // Un progetto con tutti i task come figli diretti, in ordine sparso
+    static Project alberoPiatto(int numeroTask) {
+        Project progetto = new Project("Piatto");
+        for (int i = 0; i < numeroTask; i++) {
+            progetto.add(new SimpleTask("Task " + ((i * 7919L) % numeroTask)));
+        }
+        return progetto;
+    }
+
+    // Albero largo: dieci sotto-progetti che si dividono i task in parti uguali
+    static Project alberoLargo(int numeroTask) {
+        Project radice = new Project("Radice");
+        Project[] sotto = new Project[10];
+        for (int i = 0; i < sotto.length; i++) {
+            sotto[i] = new Project("Sotto " + i);
+            radice.add(sotto[i]);
+        }
+        for (int i = 0; i < numeroTask; i++) {
+            sotto[i % sotto.length].add(new SimpleTask("Task " + i));
+        }
+        return radice;
+    }
+
+    // Albero profondo: una catena di sotto-progetti con alcuni task a ogni livello
+    static Project alberoProfondo(int profondita, int taskPerLivello) {
+        Project radice = new Project("Livello 0");
+        Project corrente = radice;
+        for (int livello = 0; livello < profondita; livello++) {
+            for (int i = 0; i < taskPerLivello; i++) {
+                corrente.add(new SimpleTask("Livello " + livello + " task " + i));
+            }
+            if (livello + 1 < profondita) {
+                Project figlio = new Project("Livello " + (livello + 1));
+                corrente.add(figlio);
+                corrente = figlio;
+            }
+        }
+        return radice;
+    }
+
+    // Più progetti di primo livello, come quelli gestiti da TodoApp e salvati da StorageManager
+    static List<Project> progettiPiatti(int progetti, int taskPerProgetto) {
+        List<Project> lista = new ArrayList<>();
+        for (int p = 0; p < progetti; p++) {
+            Project progetto = new Project("Progetto " + p);
+            for (int i = 0; i < taskPerProgetto; i++) {
+                progetto.add(new SimpleTask("Task " + p + " " + i));
+            }
+            lista.add(progetto);
+        }
+        return lista;
+    }
+}
@@ -1,27 +1,75 @@
+import java.util.ArrayList;
+import java.util.List;
+
 public class TaskFactory {
-    
-    // Pulisco l'input da caratteri pericolosi
+    private static final int LUNGHEZZA_MASSIMA = 50;
+
+    // Nomi rifiutati dalla validazione (vuoti o con caratteri non ammessi)
+    private static final Metriche.Contatore SCARTATI = Metriche.getInstance().contatore("factory.scartati");
+
+    // Tabella dei caratteri ASCII ammessi: lettere, cifre, spazi (come \s delle regex) e . , ! ? -
+    private static final boolean[] ASCII_CONSENTITI = new boolean[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) ASCII_CONSENTITI[c] = true;
+        for (char c = 'A'; c <= 'Z'; c++) ASCII_CONSENTITI[c] = true;
+        for (char c = '0'; c <= '9'; c++) ASCII_CONSENTITI[c] = true;
+        for (char c : " \t\n\u000B\f\r.,!?-".toCharArray()) ASCII_CONSENTITI[c] = true;
+    }
+
+    // Pulisco l'input da caratteri pericolosi.
+    // Un solo passaggio sui caratteri, senza regex: tolgo i tag <...> e controllo gli altri caratteri uno per uno
     private static String validaESanitizza(String nome) {
         if (nome == null || nome.trim().isEmpty()) {
+            SCARTATI.incrementa();
             throw new IllegalArgumentException("Il nome non può essere vuoto!");
         }
-    
-        //Rimuovo possibili tag HTML o script
-        String pulito = nome.replaceAll("<[^>]*>", "");
-    
-        // Regex per l'accettazione di caratteri
-        if (!pulito.matches("^[a-zA-Z0-9àèìòùÀÈÌÒÙ\\s.,!?\\-]*$")) {
-            throw new IllegalArgumentException("Il nome contiene caratteri speciali non validi!");
+
+        // Il nuovo testo viene costruito solo se c'è davvero un tag da togliere
+        StringBuilder senzaTag = null;
+        int i = 0;
+        while (i < nome.length()) {
+            char c = nome.charAt(i);
+
+            //Rimuovo possibili tag HTML o script
+            if (c == '<') {
+                int chiusura = nome.indexOf('>', i + 1);
+                if (chiusura >= 0) {
+                    if (senzaTag == null) senzaTag = new StringBuilder(nome.length()).append(nome, 0, i);
+                    i = chiusura + 1;
+                    continue;
+                }
+            }
+
+            // Controllo dei caratteri accettati (un '<' senza chiusura non lo è)
+            if (!isConsentito(c)) {
+                SCARTATI.incrementa();
+                throw new IllegalArgumentException("Il nome contiene caratteri speciali non validi!");
+            }
+            if (senzaTag != null) senzaTag.append(c);
+            i++;
         }
-    
+        String pulito = senzaTag == null ? nome : senzaTag.toString();
+
         // Imposto un limite per la lunghezza
-        if (pulito.length() > 50) {
-            pulito = pulito.substring(0, 47) + "...";
+        if (pulito.length() > LUNGHEZZA_MASSIMA) {
+            pulito = pulito.substring(0, LUNGHEZZA_MASSIMA - 3) + "...";
         }
-    
+
         return pulito.trim();
     }
 
+    private static boolean isConsentito(char c) {
+        if (c < 128) return ASCII_CONSENTITI[c];
+        switch (c) {
+            case 'à': case 'è': case 'ì': case 'ò': case 'ù':
+            case 'À': case 'È': case 'Ì': case 'Ò': case 'Ù':
+                return true;
+            default:
+                return false;
+        }
+    }
+
     public static TaskComponent createTask(String tipo, String nome) {
         // Sanitizzo il nome prima di creare l'oggetto
         String nomePulito = validaESanitizza(nome);
@@ -38,4 +86,23 @@ public class TaskFactory {
         
         throw new IllegalArgumentException("Tipo non valido: " + tipo);
     }
+
+    // Creazione in blocco: il tipo viene controllato una volta sola e la lista risultato è già dimensionata.
+    // Al primo nome non valido lancia la stessa eccezione di createTask
+    public static List<TaskComponent> createTasks(String tipo, List<String> nomi) {
+        if (tipo == null) {
+            throw new IllegalArgumentException("Tipo non specificato");
+        }
+        boolean progetto = tipo.equalsIgnoreCase("PROJECT");
+        if (!progetto && !tipo.equalsIgnoreCase("SIMPLE")) {
+            throw new IllegalArgumentException("Tipo non valido: " + tipo);
+        }
+
+        List<TaskComponent> creati = new ArrayList<>(nomi.size());
+        for (String nome : nomi) {
+            String nomePulito = validaESanitizza(nome);
+            creati.add(progetto ? new Project(nomePulito) : new SimpleTask(nomePulito));
+        }
+        return creati;
+    }
 }
@@ -0,0 +1,265 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Importazione ed esportazione in blocco di liste di task, pensata per file con milioni di righe.
+// Le righe vengono lette a blocchi, validate in parallelo con TaskFactory e inserite in ordine;
+// al massimo qualche blocco alla volta resta in memoria
+public class TaskImportExport {
+    private static final int RIGHE_PER_BLOCCO = 10_000;
+    // Quanti messaggi d'errore tengo nel resoconto: gli altri vengono solo contati
+    private static final int ERRORI_CONSERVATI = 100;
+
+    // RIGHE: un nome per riga. CSV: colonne nome[,stato[,percorso]] con virgolette se il nome contiene virgole.
+    // Il percorso ("Sotto/Interno") dice in quale sotto-progetto va il task; vuoto vuol dire direttamente nel progetto
+    public enum Formato { RIGHE, CSV }
+
+    // Resoconto dell'importazione: le righe sbagliate non fermano il resto
+    public static class Esito {
+        private long importati;
+        private long scartati;
+        private final List<String> errori = new ArrayList<>();
+
+        public long getImportati() {
+            return importati;
+        }
+
+        public long getScartati() {
+            return scartati;
+        }
+
+        // I primi errori, nel formato "riga N: messaggio"
+        public List<String> getErrori() {
+            return Collections.unmodifiableList(errori);
+        }
+    }
+
+    // Un blocco di righe già convertite in task
+    private static class Blocco {
+        private final List<TaskComponent> task = new ArrayList<>();
+        // Per ogni task il percorso del suo sotto-progetto, già validato; "" se va nel progetto di destinazione
+        private final List<String> percorsi = new ArrayList<>();
+        private final List<String> errori = new ArrayList<>();
+    }
+
+    public static Esito importa(Reader sorgente, Formato formato, Project destinazione) throws IOException {
+        return importa(sorgente, formato, destinazione, Runtime.getRuntime().availableProcessors());
+    }
+
+    public static Esito importa(Reader sorgente, Formato formato, Project destinazione, int threads) throws IOException {
+        Esito esito = new Esito();
+        ExecutorService esecutore = Executors.newFixedThreadPool(threads);
+        // Blocchi in lavorazione, nell'ordine in cui sono stati letti
+        Deque<Future<Blocco>> inCorso = new ArrayDeque<>();
+        // Sotto-progetti creati da questa importazione, per percorso
+        Map<String, Project> sottoprogetti = new HashMap<>();
+
+        try (BufferedReader reader = new BufferedReader(sorgente, 1 << 16)) {
+            long numeroRiga = 0;
+            List<String> righe = new ArrayList<>(RIGHE_PER_BLOCCO);
+            String riga;
+
+            while ((riga = reader.readLine()) != null) {
+                numeroRiga++;
+                righe.add(riga);
+                if (righe.size() == RIGHE_PER_BLOCCO) {
+                    inCorso.add(invia(esecutore, righe, numeroRiga - righe.size() + 1, formato));
+                    righe = new ArrayList<>(RIGHE_PER_BLOCCO);
+                    // Memoria limitata: se ci sono già troppi blocchi in attesa inserisco il più vecchio
+                    if (inCorso.size() >= threads * 2) {
+                        inserisci(inCorso.poll(), destinazione, sottoprogetti, esito);
+                    }
+                }
+            }
+            if (!righe.isEmpty()) {
+                inCorso.add(invia(esecutore, righe, numeroRiga - righe.size() + 1, formato));
+            }
+            while (!inCorso.isEmpty()) {
+                inserisci(inCorso.poll(), destinazione, sottoprogetti, esito);
+            }
+        } finally {
+            esecutore.shutdownNow();
+        }
+        return esito;
+    }
+
+    // Esporta in CSV (nome,stato[,percorso]) tutti i task del sottoalbero, in profondità e senza ricorsione.
+    // Reimportando il file i sotto-progetti vengono ricreati dal percorso, nello stesso ordine. Due limiti:
+    // un sotto-progetto senza task non ha righe e non viene esportato, e un nome su più righe diventa una riga sola
+    public static long esporta(TaskComponent radice, Writer destinazione) throws IOException {
+        BufferedWriter writer = new BufferedWriter(destinazione, 1 << 16);
+        long scritti = 0;
+        // Ogni voce: il componente e il percorso del progetto che lo contiene, relativo alla radice
+        Deque<Object[]> pila = new ArrayDeque<>();
+        pila.push(new Object[] { radice, null });
+
+        while (!pila.isEmpty()) {
+            Object[] voce = pila.pop();
+            TaskComponent c = (TaskComponent) voce[0];
+            String percorso = (String) voce[1];
+            if (c instanceof Project) {
+                String interno = percorso == null ? "" : percorso.isEmpty() ? c.getName() : percorso + "/" + c.getName();
+                List<TaskComponent> figli = ((Project) c).getFigli();
+                for (int i = figli.size() - 1; i >= 0; i--) {
+                    pila.push(new Object[] { figli.get(i), interno });
+                }
+            } else {
+                writer.write(campoCsv(c.getName()));
+                writer.write(c.isCompleted() ? ",X" : ",O");
+                if (percorso != null && !percorso.isEmpty()) {
+                    writer.write(',');
+                    writer.write(campoCsv(percorso));
+                }
+                writer.newLine();
+                scritti++;
+            }
+        }
+        writer.flush();
+        return scritti;
+    }
+
+    private static Future<Blocco> invia(ExecutorService esecutore, List<String> righe, long primaRiga, Formato formato) {
+        return esecutore.submit(() -> converti(righe, primaRiga, formato));
+    }
+
+    private static void inserisci(Future<Blocco> futuro, Project destinazione, Map<String, Project> sottoprogetti,
+                                  Esito esito) throws IOException {
+        Blocco blocco;
+        try {
+            blocco = futuro.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Importazione interrotta");
+        } catch (ExecutionException e) {
+            throw new IOException("Errore durante la conversione delle righe");
+        }
+
+        // Le righe consecutive con lo stesso percorso entrano con un solo addAll
+        int inizio = 0;
+        while (inizio < blocco.task.size()) {
+            String percorso = blocco.percorsi.get(inizio);
+            int fine = inizio + 1;
+            while (fine < blocco.task.size() && blocco.percorsi.get(fine).equals(percorso)) fine++;
+            sottoprogetto(destinazione, sottoprogetti, percorso).addAll(blocco.task.subList(inizio, fine));
+            inizio = fine;
+        }
+        esito.importati += blocco.task.size();
+        esito.scartati += blocco.errori.size();
+        for (String errore : blocco.errori) {
+            if (esito.errori.size() >= ERRORI_CONSERVATI) break;
+            esito.errori.add(errore);
+        }
+    }
+
+    // Il sotto-progetto di un percorso, creando quelli che mancano lungo la strada
+    private static Project sottoprogetto(Project destinazione, Map<String, Project> sottoprogetti, String percorso) {
+        Project corrente = destinazione;
+        int inizio = 0;
+        while (inizio < percorso.length()) {
+            int fine = percorso.indexOf('/', inizio);
+            if (fine < 0) fine = percorso.length();
+            Project padre = corrente;
+            String nome = percorso.substring(inizio, fine);
+            corrente = sottoprogetti.computeIfAbsent(percorso.substring(0, fine), k -> {
+                Project nuovo = new Project(nome);
+                padre.add(nuovo);
+                return nuovo;
+            });
+            inizio = fine + 1;
+        }
+        return corrente;
+    }
+
+    // Ogni parte del percorso passa dalla stessa validazione dei nomi dei progetti
+    private static String percorsoValido(String percorso) {
+        StringBuilder valido = new StringBuilder();
+        for (String parte : percorso.trim().split("/", -1)) {
+            if (valido.length() > 0) valido.append('/');
+            valido.append(TaskFactory.createTask("PROJECT", parte).getName());
+        }
+        return valido.toString();
+    }
+
+    // Lavoro svolto in parallelo: parsing e validazione di un blocco di righe
+    private static Blocco converti(List<String> righe, long primaRiga, Formato formato) {
+        Blocco blocco = new Blocco();
+        for (int i = 0; i < righe.size(); i++) {
+            long numero = primaRiga + i;
+            String riga = righe.get(i);
+            if (riga.isBlank()) continue;
+            try {
+                if (formato == Formato.CSV) {
+                    List<String> campi = campiCsv(riga);
+                    // Salto l'eventuale intestazione
+                    if (numero == 1 && campi.get(0).equalsIgnoreCase("nome")) continue;
+                    TaskComponent task = TaskFactory.createTask("SIMPLE", campi.get(0));
+                    if (campi.size() > 1 && campi.get(1).trim().equalsIgnoreCase("X")) {
+                        ((SimpleTask) task).setCompletato(true);
+                    }
+                    String percorso = campi.size() > 2 && !campi.get(2).isBlank() ? percorsoValido(campi.get(2)) : "";
+                    blocco.task.add(task);
+                    blocco.percorsi.add(percorso);
+                } else {
+                    blocco.task.add(TaskFactory.createTask("SIMPLE", riga));
+                    blocco.percorsi.add("");
+                }
+            } catch (IllegalArgumentException e) {
+                blocco.errori.add("riga " + numero + ": " + e.getMessage());
+            }
+        }
+        return blocco;
+    }
+
+    // Divide una riga CSV nei suoi campi; le virgolette raddoppiate valgono come una virgoletta
+    static List<String> campiCsv(String riga) {
+        List<String> campi = new ArrayList<>(2);
+        StringBuilder campo = new StringBuilder();
+        boolean traVirgolette = false;
+
+        for (int i = 0; i < riga.length(); i++) {
+            char c = riga.charAt(i);
+            if (traVirgolette) {
+                if (c == '"' && i + 1 < riga.length() && riga.charAt(i + 1) == '"') {
+                    campo.append('"');
+                    i++;
+                } else if (c == '"') {
+                    traVirgolette = false;
+                } else {
+                    campo.append(c);
+                }
+            } else if (c == '"') {
+                traVirgolette = true;
+            } else if (c == ',') {
+                campi.add(campo.toString());
+                campo.setLength(0);
+            } else {
+                campo.append(c);
+            }
+        }
+        if (traVirgolette) {
+            throw new IllegalArgumentException("Virgolette non chiuse");
+        }
+        campi.add(campo.toString());
+        return campi;
+    }
+
+    // Il CSV si rilegge una riga alla volta: gli a capo di un nome diventano spazi
+    private static String campoCsv(String valore) {
+        valore = valore.replace('\r', ' ').replace('\n', ' ');
+        if (valore.indexOf(',') < 0 && valore.indexOf('"') < 0) return valore;
+        return '"' + valore.replace("\"", "\"\"") + '"';
+    }
+}
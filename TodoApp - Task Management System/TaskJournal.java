@@ -0,0 +1,118 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// Registro delle modifiche in sola aggiunta: ogni riga descrive un'operazione ed è chiusa dal suo CRC.
+// La prima riga indica la generazione dello snapshot a cui le operazioni si riferiscono
+class TaskJournal {
+    private static final String INTESTAZIONE = "GENERAZIONE|";
+
+    private final File file;
+    private FileOutputStream uscita;
+    private int voci;
+    private long generazione;
+    // Falso finché il file non ha l'intestazione della generazione corrente
+    private boolean allineato;
+
+    TaskJournal(File file) {
+        this.file = file;
+    }
+
+    boolean esiste() {
+        return file.exists();
+    }
+
+    // Numero di operazioni registrate dall'ultimo snapshot
+    int getVoci() {
+        return voci;
+    }
+
+    // Ricomincia da zero dopo uno snapshot: le vecchie operazioni sono già dentro il file principale
+    void azzera(long generazione) throws IOException {
+        chiudi();
+        try (FileOutputStream out = new FileOutputStream(file, false)) {
+            out.write((INTESTAZIONE + generazione + "\n").getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+        this.generazione = generazione;
+        this.allineato = true;
+        voci = 0;
+    }
+
+    // Aggiunge una riga e aspetta che sia sul disco (fsync), così un crash o un'interruzione di corrente
+    // perdono al massimo l'operazione in corso e mai una già confermata
+    void aggiungi(String operazione) throws IOException {
+        if (!allineato) {
+            azzera(generazione);
+        }
+        if (uscita == null) {
+            uscita = new FileOutputStream(file, true);
+        }
+        uscita.write((operazione + "|" + crc(operazione) + "\n").getBytes(StandardCharsets.UTF_8));
+        uscita.getFD().sync();
+        voci++;
+    }
+
+    // Restituisce le operazioni valide della generazione indicata, già divise nei loro campi.
+    // Una riga finale incompleta o con CRC sbagliato (scrittura interrotta) viene scartata e tagliata via dal file
+    List<String[]> leggi(long generazione) throws IOException {
+        List<String[]> operazioni = new ArrayList<>();
+        chiudi();
+        this.generazione = generazione;
+        this.allineato = false;
+        voci = 0;
+        if (!file.exists()) return operazioni;
+
+        byte[] contenuto = Files.readAllBytes(file.toPath());
+        int inizio = 0;
+        int validi = 0;
+        boolean prima = true;
+
+        while (inizio < contenuto.length) {
+            int fine = inizio;
+            while (fine < contenuto.length && contenuto[fine] != '\n') fine++;
+            if (fine == contenuto.length) break; // riga senza a capo: scrittura interrotta
+
+            String riga = new String(contenuto, inizio, fine - inizio, StandardCharsets.UTF_8);
+            if (prima) {
+                // Journal di uno snapshot precedente: quelle operazioni sono già state salvate
+                if (!riga.equals(INTESTAZIONE + generazione)) return operazioni;
+                prima = false;
+                allineato = true;
+            } else {
+                int separatore = riga.lastIndexOf('|');
+                if (separatore < 0 || !riga.substring(separatore + 1).equals(crc(riga.substring(0, separatore)))) break;
+                operazioni.add(riga.substring(0, separatore).split("\\|", -1));
+            }
+            inizio = fine + 1;
+            validi = inizio;
+        }
+
+        if (validi < contenuto.length) {
+            try (RandomAccessFile troncato = new RandomAccessFile(file, "rw")) {
+                troncato.setLength(validi);
+            }
+        }
+        voci = operazioni.size();
+        return operazioni;
+    }
+
+    void chiudi() throws IOException {
+        if (uscita != null) {
+            uscita.close();
+            uscita = null;
+        }
+    }
+
+    private static String crc(String testo) {
+        CRC32 crc = new CRC32();
+        crc.update(testo.getBytes(StandardCharsets.UTF_8));
+        return Long.toHexString(crc.getValue());
+    }
+}
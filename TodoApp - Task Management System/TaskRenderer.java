@@ -0,0 +1,152 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+// Disegna l'albero dei task su un unico Appendable invece di fare una println per ogni riga.
+// Supporta anche la paginazione: si possono saltare le prime righe e fermarsi dopo un certo limite.
+// La visita usa una pila esplicita che resta in mano al renderer, così continua() riprende la pagina
+// seguente da dove si era fermato invece di ripartire dalla radice e saltare le righe già scritte
+public class TaskRenderer {
+    private static final String RIENTRO = "  ";
+    private static final String A_CAPO = System.lineSeparator();
+
+    private static final Metriche.Istogramma DURATA_DISPLAY = Metriche.getInstance().istogramma("display.ns");
+    private static final Metriche.Istogramma RIGHE_DISPLAY = Metriche.getInstance().istogramma("display.righe");
+
+    private final Appendable uscita;
+    private final String base;
+    // Rientri già pronti per ogni profondità, così non creo una nuova stringa per ogni riga
+    private final List<String> rientri = new ArrayList<>();
+
+    // Radici passate a render() e non ancora visitate, poi i figli dei progetti aperti (il più interno in cima)
+    private final Deque<TaskComponent> radici = new ArrayDeque<>();
+    private final Deque<Iterator<TaskComponent>> aperti = new ArrayDeque<>();
+    // Il componente su cui si è fermato il limite, con la sua profondità: è la prima riga della pagina seguente
+    private TaskComponent sospeso;
+    private int profonditaSospeso;
+
+    private long righeDaSaltare;
+    private long righeRimaste;
+    private long righeScritte;
+    private boolean troncato;
+
+    public TaskRenderer(Appendable uscita) {
+        this(uscita, "", 0, Long.MAX_VALUE);
+    }
+
+    public TaskRenderer(Appendable uscita, long salta, long limite) {
+        this(uscita, "", salta, limite);
+    }
+
+    private TaskRenderer(Appendable uscita, String base, long salta, long limite) {
+        this.uscita = uscita;
+        this.base = base;
+        this.righeDaSaltare = salta;
+        this.righeRimaste = limite;
+    }
+
+    // Scorciatoia usata da display(): scrive tutto su System.out con un solo flush finale
+    static void stampa(TaskComponent componente, String spazi) {
+        long inizio = DURATA_DISPLAY.inizio();
+        Writer writer = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+        try {
+            TaskRenderer renderer = new TaskRenderer(writer, spazi, 0, Long.MAX_VALUE);
+            renderer.render(componente);
+            writer.flush();
+            DURATA_DISPLAY.fine(inizio);
+            RIGHE_DISPLAY.registra(renderer.getRigheScritte());
+        } catch (IOException e) {
+            System.out.println("⚠️ Errore durante la visualizzazione dei task.");
+        }
+    }
+
+    // Scrive il componente e, se è un progetto, tutti i suoi figli nell'ordine della strategia scelta.
+    // Se il limite è già stato raggiunto il componente aspetta la prossima continua()
+    public void render(TaskComponent componente) throws IOException {
+        radici.add(componente);
+        visita();
+    }
+
+    // Scrive al massimo altre "limite" righe a partire da quella su cui si era fermata la pagina precedente
+    public void continua(long limite) throws IOException {
+        righeRimaste = limite;
+        troncato = false;
+        visita();
+    }
+
+    public long getRigheScritte() {
+        return righeScritte;
+    }
+
+    // Vero se il limite ha fermato la visualizzazione prima della fine
+    public boolean isTroncato() {
+        return troncato;
+    }
+
+    private void visita() throws IOException {
+        while (!troncato) {
+            TaskComponent componente;
+            int profondita;
+            if (sospeso != null) {
+                componente = sospeso;
+                profondita = profonditaSospeso;
+                sospeso = null;
+            } else if (!aperti.isEmpty()) {
+                Iterator<TaskComponent> figli = aperti.peek();
+                if (!figli.hasNext()) {
+                    aperti.pop();
+                    continue;
+                }
+                componente = figli.next();
+                profondita = aperti.size();
+            } else if (!radici.isEmpty()) {
+                componente = radici.poll();
+                profondita = 0;
+            } else {
+                return;
+            }
+
+            boolean progetto = componente instanceof Project || componente instanceof ProgettoCompatto;
+            if (!riga(profondita, progetto ? "+ Progetto: " : componente.isCompleted() ? "[X] " : "[ ] ", componente.getName())) {
+                sospeso = componente;
+                profonditaSospeso = profondita;
+                return;
+            }
+            if (componente instanceof Project) {
+                aperti.push(((Project) componente).getVistaOrdinata().iterator());
+            } else if (componente instanceof ProgettoCompatto) {
+                // Le righe di un progetto compatto sono viste create una alla volta, in ordine di inserimento
+                aperti.push(((ProgettoCompatto) componente).iterator());
+            }
+        }
+    }
+
+    // Falso se il limite è stato raggiunto e la riga va scritta nella pagina seguente
+    private boolean riga(int profondita, String prefisso, String nome) throws IOException {
+        if (righeDaSaltare > 0) {
+            righeDaSaltare--;
+            return true;
+        }
+        if (righeRimaste == 0) {
+            troncato = true;
+            return false;
+        }
+        righeRimaste--;
+        righeScritte++;
+        uscita.append(rientro(profondita)).append(prefisso).append(nome).append(A_CAPO);
+        return true;
+    }
+
+    private String rientro(int profondita) {
+        while (rientri.size() <= profondita) {
+            rientri.add(rientri.isEmpty() ? base : rientri.get(rientri.size() - 1) + RIENTRO);
+        }
+        return rientri.get(profondita);
+    }
+}
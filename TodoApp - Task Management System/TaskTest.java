@@ -2,6 +2,34 @@ import static org.junit.jupiter.api.Assertions.*;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.BeforeEach;
 
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
 public class TaskTest {
     // Variabile globale per usarla in tutti i test
     private Project root;
@@ -50,4 +78,1101 @@ public class TaskTest {
             TaskFactory.createTask("SIMPLE", "");
         });
     }
+
+    @Test
+    void testCompletaTaskInSottoProgetto() {
+        // Il task vive due livelli sotto la radice: l'indice deve trovarlo comunque
+        Project sotto = new Project("Sotto");
+        Project sottoSotto = new Project("Sotto Sotto");
+        sottoSotto.add(new SimpleTask("Profondo"));
+        sotto.add(sottoSotto);
+        root.add(sotto);
+
+        assertTrue(root.contiene("PROFONDO"));
+        assertTrue(root.completaTask("profondo"));
+        assertTrue(sottoSotto.isCompleted());
+    }
+
+    @Test
+    void testIndiceAggiornatoDopoRimozione() {
+        // Dopo la pulizia il nome non deve più essere trovato
+        root.add(new SimpleTask("Temporaneo"));
+        root.completaTask("Temporaneo");
+        root.rimuoviCompletati();
+
+        assertFalse(root.contiene("Temporaneo"));
+        assertFalse(root.completaTask("Temporaneo"));
+    }
+
+    @Test
+    void testContatoriCompletamento() {
+        // I contatori devono seguire aggiunte, completamenti e rimozioni anche nei sotto-progetti
+        SimpleTask a = new SimpleTask("A");
+        SimpleTask b = new SimpleTask("B");
+        Project sotto = new Project("Sotto");
+        sotto.add(b);
+        root.add(a);
+        root.add(sotto);
+
+        assertEquals(2, root.getTotaleTask());
+        assertEquals(0, root.getPercentualeCompletamento());
+
+        a.setCompletato(true);
+        assertEquals(50, root.getPercentualeCompletamento());
+        assertFalse(root.isCompleted());
+
+        b.setCompletato(true);
+        assertTrue(sotto.isCompleted());
+        assertTrue(root.isCompleted());
+
+        // Riaprire un task deve far tornare indietro anche gli antenati
+        b.setCompletato(false);
+        assertFalse(sotto.isCompleted());
+        assertFalse(root.isCompleted());
+
+        root.rimuoviCompletati();
+        assertEquals(1, root.getTotaleTask());
+        assertEquals(0, root.getTaskCompletati());
+    }
+
+    @Test
+    void testVistaOrdinataNonCambiaInserimento() {
+        // Mostrare il progetto ordinato non deve perdere l'ordine di inserimento
+        root.add(new SimpleTask("Zeta"));
+        root.add(new SimpleTask("Alfa"));
+        root.setStrategia(OrdinamentoStrategy.daCodice("A"));
+        root.display("");
+        root.add(new SimpleTask("Beta"));
+
+        assertEquals("Alfa", root.getVistaOrdinata().get(0).getName());
+        assertEquals("Beta", root.getVistaOrdinata().get(1).getName());
+        assertEquals("Zeta", root.iterator().next().getName());
+
+        root.setStrategia(null);
+        assertEquals("Zeta", root.getVistaOrdinata().get(0).getName());
+    }
+
+    @Test
+    void testRendererConPaginazione() throws Exception {
+        // Salto la riga del progetto e mi fermo dopo due task
+        root.add(new SimpleTask("Uno"));
+        root.add(new SimpleTask("Due"));
+        root.add(new SimpleTask("Tre"));
+        ((SimpleTask) root.iterator().next()).setCompletato(true);
+
+        StringBuilder uscita = new StringBuilder();
+        TaskRenderer renderer = new TaskRenderer(uscita, 1, 2);
+        renderer.render(root);
+
+        String a = System.lineSeparator();
+        assertEquals("  [X] Uno" + a + "  [ ] Due" + a, uscita.toString());
+        assertTrue(renderer.isTroncato());
+    }
+
+    @Test
+    void testRendererContinuaDaDoveSiEraFermato() throws Exception {
+        // Le pagine scritte con continua() messe in fila devono dare la stessa uscita di un render senza limite
+        Project sotto = new Project("Sotto");
+        sotto.add(new SimpleTask("Profondo"));
+        root.add(new SimpleTask("Uno"));
+        root.add(sotto);
+        root.add(new SimpleTask("Due"));
+        Project altro = new Project("Altro");
+        altro.add(new SimpleTask("Tre"));
+
+        StringBuilder intero = new StringBuilder();
+        TaskRenderer completo = new TaskRenderer(intero);
+        completo.render(root);
+        completo.render(altro);
+
+        StringBuilder pagine = new StringBuilder();
+        TaskRenderer renderer = new TaskRenderer(pagine, 0, 2);
+        renderer.render(root);
+        renderer.render(altro);
+        int numeroPagine = 1;
+        while (renderer.isTroncato()) {
+            renderer.continua(2);
+            numeroPagine++;
+        }
+        assertEquals(intero.toString(), pagine.toString());
+        assertEquals(4, numeroPagine);
+        assertEquals(7, renderer.getRigheScritte());
+    }
+
+    @Test
+    void testSalvataggioBinario() throws Exception {
+        // Il formato binario deve conservare stato e sotto-progetti, e il caricamento deve riconoscerlo da solo
+        File file = File.createTempFile("tasks", ".bin");
+        file.deleteOnExit();
+        StorageManager storage = StorageManager.getInstance();
+        storage.setPercorsoFile(file.getPath());
+        try {
+            Project sotto = new Project("Sotto");
+            sotto.add(new SimpleTask("Interno è"));
+            root.add(new SimpleTask("Esterno"));
+            root.add(sotto);
+            root.completaTask("Esterno");
+
+            storage.setFormato(StorageManager.Formato.BINARIO);
+            storage.saveTasks(List.of(root));
+            storage.setFormato(StorageManager.Formato.TESTO);
+            List<Project> caricati = storage.loadTasks();
+            assertEquals(StorageManager.Formato.BINARIO, storage.getFormato());
+
+            Project letto = caricati.get(0);
+            assertEquals("Test Root", letto.getName());
+            assertEquals(2, letto.getTotaleTask());
+            assertEquals(1, letto.getTaskCompletati());
+            assertTrue(letto.contiene("Interno è"));
+        } finally {
+            storage.setPercorsoFile("tasks.txt");
+            storage.setFormato(StorageManager.Formato.TESTO);
+        }
+    }
+
+    @Test
+    void testJournalRiesegueOperazioni() throws Exception {
+        // Le operazioni scritte solo nel journal devono ricomparire al caricamento,
+        // mentre una riga finale troncata da un crash va ignorata
+        File file = File.createTempFile("tasks", ".txt");
+        file.delete();
+        File journal = new File(file.getPath() + ".journal");
+        file.deleteOnExit();
+        journal.deleteOnExit();
+        StorageManager storage = StorageManager.getInstance();
+        storage.setPercorsoFile(file.getPath());
+        storage.setModalitaJournal(true);
+        try {
+            List<Project> progetti = new ArrayList<>(List.of(root));
+            storage.saveTasks(progetti);
+
+            root.add(new SimpleTask("Dal journal"));
+            storage.registra(progetti, StorageManager.Operazione.AGGIUNGI, 0, "Dal journal");
+            root.completaTask("Dal journal");
+            storage.registra(progetti, StorageManager.Operazione.COMPLETA, 0, "Dal journal");
+            Files.write(journal.toPath(), "AGGIUNGI|0|Mezza".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+            Project letto = storage.loadTasks().get(0);
+            assertEquals(1, letto.getTotaleTask());
+            assertEquals(1, letto.getTaskCompletati());
+            assertFalse(letto.contiene("Mezza"));
+        } finally {
+            storage.setModalitaJournal(false);
+            storage.setPercorsoFile("tasks.txt");
+        }
+    }
+
+    @Test
+    void testAccessoConcorrente() throws Exception {
+        // Più thread aggiungono e completano task nello stesso albero mentre un altro lo visualizza:
+        // alla fine i contatori devono tornare e nessuno deve vedere eccezioni
+        Project sotto = new Project("Sotto");
+        root.add(sotto);
+        int threads = 4;
+        int perThread = 2_000;
+        ExecutorService esecutore = Executors.newFixedThreadPool(threads + 1);
+        List<Future<?>> risultati = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            risultati.add(esecutore.submit(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    SimpleTask task = new SimpleTask("T" + id + "-" + i);
+                    (i % 2 == 0 ? root : sotto).add(task);
+                    if (i % 4 < 2) task.setCompletato(true);
+                }
+            }));
+        }
+        risultati.add(esecutore.submit(() -> {
+            for (int i = 0; i < 50; i++) {
+                new TaskRenderer(new StringBuilder()).render(root);
+            }
+            return null;
+        }));
+        for (Future<?> r : risultati) {
+            r.get(30, TimeUnit.SECONDS);
+        }
+        esecutore.shutdown();
+
+        assertEquals(threads * perThread, root.getTotaleTask());
+        assertEquals(threads * perThread / 2, root.getTaskCompletati());
+        assertTrue(root.completaTask("T0-1"));
+    }
+
+    @Test
+    void testValidazioneEquivalenteAllaRegex() {
+        // Confronto differenziale: il validatore a passaggio singolo deve dare gli stessi risultati
+        // (nome pulito o messaggio d'errore) della vecchia implementazione basata su regex
+        char[] alfabeto = "aZ09 \t\n.,!?-<>/|àÈùé@_\"'".toCharArray();
+        Random casuale = new Random(42);
+        for (int prova = 0; prova < 20_000; prova++) {
+            StringBuilder nome = new StringBuilder();
+            int lunghezza = casuale.nextInt(70);
+            for (int i = 0; i < lunghezza; i++) {
+                nome.append(alfabeto[casuale.nextInt(alfabeto.length)]);
+            }
+            String atteso;
+            try {
+                atteso = validaConRegex(nome.toString());
+            } catch (IllegalArgumentException e) {
+                atteso = "errore: " + e.getMessage();
+            }
+            String ottenuto;
+            try {
+                ottenuto = TaskFactory.createTask("SIMPLE", nome.toString()).getName();
+            } catch (IllegalArgumentException e) {
+                ottenuto = "errore: " + e.getMessage();
+            }
+            assertEquals(atteso, ottenuto, "Input: " + nome);
+        }
+    }
+
+    // La versione originale di TaskFactory.validaESanitizza, tenuta come riferimento
+    private static String validaConRegex(String nome) {
+        if (nome == null || nome.trim().isEmpty()) {
+            throw new IllegalArgumentException("Il nome non può essere vuoto!");
+        }
+        String pulito = nome.replaceAll("<[^>]*>", "");
+        if (!pulito.matches("^[a-zA-Z0-9àèìòùÀÈÌÒÙ\\s.,!?\\-]*$")) {
+            throw new IllegalArgumentException("Il nome contiene caratteri speciali non validi!");
+        }
+        if (pulito.length() > 50) {
+            pulito = pulito.substring(0, 47) + "...";
+        }
+        return pulito.trim();
+    }
+
+    @Test
+    void testCreazioneInBlocco() {
+        List<TaskComponent> creati = TaskFactory.createTasks("SIMPLE", List.of("Uno", "<i>Due</i>"));
+        assertEquals(2, creati.size());
+        assertEquals("Due", creati.get(1).getName());
+        assertThrows(IllegalArgumentException.class, () -> TaskFactory.createTasks("SIMPLE", List.of("Ok", "No|")));
+    }
+
+    @Test
+    void testImportExportCsv() throws Exception {
+        StringBuilder csv = new StringBuilder("nome,stato\n");
+        for (int i = 0; i < 25_000; i++) {
+            csv.append("\"Task ").append(i).append(", importato\",").append(i % 2 == 0 ? "X" : "O").append('\n');
+        }
+        csv.append("Riga|sbagliata,O\n");
+        csv.append("\"Virgolette non chiuse\n");
+
+        // Più blocchi e più thread: l'ordine delle righe deve restare quello del file
+        TaskImportExport.Esito esito = TaskImportExport.importa(new StringReader(csv.toString()), TaskImportExport.Formato.CSV, root, 4);
+        assertEquals(25_000, esito.getImportati());
+        assertEquals(2, esito.getScartati());
+        assertTrue(esito.getErrori().get(0).startsWith("riga 25002:"));
+        assertEquals(25_000, root.getTotaleTask());
+        assertEquals(12_500, root.getTaskCompletati());
+        assertEquals("Task 24999, importato", root.getFigli().get(24_999).getName());
+        assertTrue(root.contiene("Task 10, importato"));
+
+        // Esportando e reimportando ottengo lo stesso progetto
+        StringWriter esportato = new StringWriter();
+        assertEquals(25_000, TaskImportExport.esporta(root, esportato));
+        Project copia = new Project("Copia");
+        TaskImportExport.importa(new StringReader(esportato.toString()), TaskImportExport.Formato.CSV, copia);
+        assertEquals(root.getTotaleTask(), copia.getTotaleTask());
+        assertEquals(root.getTaskCompletati(), copia.getTaskCompletati());
+        assertEquals(root.getFigli().get(7).getName(), copia.getFigli().get(7).getName());
+
+        // I sotto-progetti tornano dal percorso nella terza colonna, nello stesso ordine
+        Project albero = new Project("Albero");
+        Project sotto = new Project("Sotto");
+        Project interno = new Project("Interno");
+        albero.add(new SimpleTask("Primo"));
+        albero.add(sotto);
+        sotto.add(new SimpleTask("Dentro, uno"));
+        sotto.add(interno);
+        interno.add(new SimpleTask("In fondo"));
+        sotto.add(new SimpleTask("Dentro due"));
+        albero.add(new SimpleTask("Ultimo"));
+        interno.completaTask("In fondo");
+        StringWriter annidato = new StringWriter();
+        TaskImportExport.esporta(albero, annidato);
+        Project ricostruito = new Project("Ricostruito");
+        TaskImportExport.importa(new StringReader(annidato.toString()), TaskImportExport.Formato.CSV, ricostruito);
+        assertEquals(List.of("Primo", "Sotto", "Ultimo"), nomi(ricostruito.getFigli()));
+        Project sottoLetto = (Project) ricostruito.getFigli().get(1);
+        assertEquals(List.of("Dentro, uno", "Interno", "Dentro due"), nomi(sottoLetto.getFigli()));
+        assertEquals(1, ricostruito.getTaskCompletati());
+        assertTrue(((Project) sottoLetto.getFigli().get(1)).isCompleted());
+    }
+
+    @Test
+    void testSalvataggioGerarchicoSenzaPerdite() throws Exception {
+        // Sottoprogetti a qualsiasi profondità e strategie devono sopravvivere a salvataggio e caricamento
+        // in entrambi i formati; un vecchio file con solo PROGETTO e TASK deve restare leggibile
+        File file = File.createTempFile("tasks", ".txt");
+        file.deleteOnExit();
+        StorageManager storage = StorageManager.getInstance();
+        storage.setPercorsoFile(file.getPath());
+        try {
+            root.setStrategia(OrdinamentoStrategy.daCodice("Z"));
+            root.add(new SimpleTask("Prima"));
+            Project corrente = root;
+            for (int livello = 0; livello < 1_000; livello++) {
+                Project sotto = new Project("Livello " + livello);
+                corrente.add(sotto);
+                corrente = sotto;
+            }
+            corrente.add(new SimpleTask("In fondo"));
+            corrente.setStrategia(OrdinamentoStrategy.daCodice("A"));
+            root.add(new SimpleTask("Dopo"));
+            root.completaTask("In fondo");
+
+            for (StorageManager.Formato formato : StorageManager.Formato.values()) {
+                storage.setFormato(formato);
+                storage.saveTasks(List.of(root));
+                Project letto = storage.loadTasks().get(0);
+
+                assertEquals(3, letto.getTotaleTask(), formato.name());
+                assertEquals(1, letto.getTaskCompletati(), formato.name());
+                assertEquals("Z", letto.getStrategia().getCodice());
+                assertEquals("Dopo", letto.getFigli().get(2).getName(), "L'ordine di inserimento va conservato");
+                Project profondo = (Project) letto.getFigli().get(1);
+                for (int livello = 1; livello < 1_000; livello++) {
+                    profondo = (Project) profondo.getFigli().get(0);
+                }
+                assertEquals("Livello 999", profondo.getName());
+                assertEquals("A", profondo.getStrategia().getCodice());
+                assertTrue(profondo.getFigli().get(0).isCompleted());
+            }
+
+            storage.setFormato(StorageManager.Formato.TESTO);
+            Files.writeString(file.toPath(), "PROGETTO|Vecchio\nTASK|X|Uno\nTASK|O|Due\n", StandardCharsets.UTF_8);
+            Project vecchio = storage.loadTasks().get(0);
+            assertEquals(2, vecchio.getTotaleTask());
+            assertNull(vecchio.getStrategia());
+        } finally {
+            storage.setPercorsoFile("tasks.txt");
+            storage.setFormato(StorageManager.Formato.TESTO);
+        }
+    }
+
+    @Test
+    void testCaricamentoPigro() throws Exception {
+        // I progetti arrivano con i soli contatori; i figli si leggono al primo accesso e, oltre il budget,
+        // i progetti non modificati tornano sul disco. Un salvataggio deve copiare intatti quelli mai aperti
+        File file = File.createTempFile("tasks", ".txt");
+        file.deleteOnExit();
+        StorageManager storage = StorageManager.getInstance();
+        storage.setPercorsoFile(file.getPath());
+        try {
+            List<Project> progetti = new ArrayList<>();
+            for (int p = 0; p < 3; p++) {
+                Project progetto = new Project("Progetto " + p);
+                Project sotto = new Project("Sotto " + p);
+                sotto.add(new SimpleTask("Interno " + p));
+                progetto.add(sotto);
+                for (int i = 0; i < 10; i++) {
+                    progetto.add(new SimpleTask("Task " + p + " " + i));
+                }
+                progetto.completaTask("Interno " + p);
+                progetti.add(progetto);
+            }
+
+            for (StorageManager.Formato formato : StorageManager.Formato.values()) {
+                storage.setCaricamentoPigro(false);
+                storage.setFormato(formato);
+                storage.saveTasks(progetti);
+                storage.setCaricamentoPigro(true);
+                storage.setBudgetTask(15);
+                List<Project> letti = storage.loadTasks();
+
+                Project primo = letti.get(0);
+                assertFalse(primo.isCaricato(), formato.name());
+                assertEquals(11, primo.getTotaleTask());
+                assertEquals(1, primo.getTaskCompletati());
+                assertEquals(11, primo.getNumeroFigli());
+                assertFalse(primo.isCompleted());
+
+                assertTrue(primo.contiene("Interno 0"));
+                assertTrue(primo.isCaricato());
+                letti.get(1).getFigli();
+                assertFalse(primo.isCaricato(), "Oltre il budget il progetto meno recente va scaricato");
+                assertTrue(letti.get(1).isCaricato());
+
+                // Un progetto modificato resta in memoria finché non viene salvato
+                letti.get(1).add(new SimpleTask("Nuovo"));
+                letti.get(2).getFigli();
+                assertTrue(letti.get(1).isCaricato());
+
+                storage.saveTasks(letti);
+                assertFalse(primo.isCaricato(), "Il salvataggio copia il segmento senza aprire il progetto");
+                storage.setCaricamentoPigro(false);
+                List<Project> riletti = storage.loadTasks();
+                assertEquals(12, riletti.get(1).getTotaleTask(), formato.name());
+                for (int p = 0; p < 3; p++) {
+                    Project riletto = riletti.get(p);
+                    assertEquals(progetti.get(p).getName(), riletto.getName());
+                    assertEquals(1, riletto.getTaskCompletati());
+                    assertTrue(riletto.getFigli().get(0).isCompleted());
+                    assertEquals("Task " + p + " 9", riletto.getFigli().get(10).getName());
+                }
+            }
+
+            // L'indice accetta le righe che poi si riescono ad aprire, e solo quelle: come il caricamento completo
+            storage.setFormato(StorageManager.Formato.TESTO);
+            storage.setCaricamentoPigro(true);
+            Files.write(file.toPath(), "PROGETTO|Rovinato\nTASK|O|<script\n".getBytes(StandardCharsets.UTF_8));
+            assertThrows(TaskStorageException.class, storage::loadTasks);
+            Files.write(file.toPath(), "PROGETTO|Strano\nTASK|XY|Uno\nTASK|X|Due\n".getBytes(StandardCharsets.UTF_8));
+            Project strano = storage.loadTasks().get(0);
+            assertEquals(2, strano.getTotaleTask());
+            assertEquals(1, strano.getTaskCompletati());
+            assertEquals(2, strano.getFigli().size());
+            assertEquals(1, strano.getTaskCompletati());
+        } finally {
+            storage.setCaricamentoPigro(false);
+            storage.setBudgetTask(1_000_000);
+            storage.setPercorsoFile("tasks.txt");
+            storage.setFormato(StorageManager.Formato.TESTO);
+        }
+    }
+
+    @Test
+    void testProgettoCompatto() {
+        // Le colonne devono comportarsi come un Project di soli task: ricerca senza maiuscole,
+        // contatori, compattazione e viste che diventano non valide dopo una rimozione
+        PoolNomi pool = new PoolNomi();
+        ProgettoCompatto compatto = new ProgettoCompatto("Compatto", pool);
+        for (int i = 0; i < 1_000; i++) {
+            compatto.add("Task " + (i % 100));
+        }
+        assertEquals(100, pool.getNumero(), "I nomi ripetuti vanno salvati una volta sola");
+        assertEquals(pool.interna("Task 5"), pool.interna("Task 5"));
+        // I nomi passano dalla TaskFactory come quelli dei task semplici
+        ProgettoCompatto validato = new ProgettoCompatto("Validato");
+        assertThrows(IllegalArgumentException.class, () -> validato.add("  "));
+        validato.add("<b>Evidenziato</b>");
+        assertEquals(1, validato.getTotaleTask());
+        assertEquals("Evidenziato", validato.iterator().next().getName());
+
+        assertTrue(compatto.completaTask("TASK 5"));
+        assertTrue(compatto.contiene("task 99"));
+        assertFalse(compatto.contiene("Task 100"));
+        TaskComponent prima = compatto.iterator().next();
+        ((ProgettoCompatto.Riga) prima).setCompletato(true);
+        assertEquals(2, compatto.getTaskCompletati());
+
+        compatto.rimuoviCompletati();
+        assertEquals(998, compatto.getTotaleTask());
+        assertEquals("Task 1", compatto.iterator().next().getName());
+        assertThrows(IllegalStateException.class, prima::getName);
+
+        // Con il suo pool un tabellone libera i nomi dei task tolti, e l'indice dei nomi segue le righe spostate
+        ProgettoCompatto proprio = new ProgettoCompatto("Proprio");
+        for (int i = 0; i < 1_000; i++) {
+            proprio.add("Nome " + i);
+        }
+        for (int i = 0; i < 900; i++) {
+            assertTrue(proprio.completaTask("nome " + i));
+        }
+        proprio.rimuoviCompletati();
+        assertEquals(100, proprio.getNomiNelPool());
+        assertTrue(proprio.contiene("NOME 950"));
+        assertFalse(proprio.contiene("Nome 5"));
+        assertTrue(proprio.completaTask("Nome 999"));
+        assertEquals(1, proprio.getTaskCompletati());
+        assertEquals("Nome 900", proprio.iterator().next().getName());
+
+        root.add(new SimpleTask("Uno"));
+        root.add(new SimpleTask("Due"));
+        root.completaTask("Due");
+        ProgettoCompatto copia = ProgettoCompatto.da(root);
+        Project espanso = copia.espandi();
+        assertEquals(2, espanso.getTotaleTask());
+        assertEquals(1, espanso.getTaskCompletati());
+        assertEquals("Uno", espanso.getFigli().get(0).getName());
+
+        // Dentro un Project si mette solo la versione espansa
+        assertThrows(IllegalArgumentException.class, () -> root.add(copia));
+        assertThrows(IllegalArgumentException.class, () -> root.addAll(List.of(new SimpleTask("Tre"), copia.iterator().next())));
+        assertEquals(2, root.getTotaleTask());
+
+        StringBuilder uscita = new StringBuilder();
+        assertDoesNotThrow(() -> new TaskRenderer(uscita).render(copia));
+        String a = System.lineSeparator();
+        assertEquals("+ Progetto: Test Root" + a + "  [ ] Uno" + a + "  [X] Due" + a, uscita.toString());
+    }
+
+    @Test
+    void testVisitaParallela() throws Exception {
+        // Con una soglia bassa il lavoro si divide tra progetti e dentro le liste lunghe:
+        // i risultati devono coincidere con una visita sequenziale, anche su un albero molto profondo
+        List<Project> radici = new ArrayList<>();
+        for (int p = 0; p < 4; p++) {
+            Project progetto = new Project("P" + p);
+            for (int i = 0; i < 5_000; i++) {
+                progetto.add(new SimpleTask("Task " + p + " " + i));
+            }
+            radici.add(progetto);
+        }
+        Project corrente = radici.get(0);
+        for (int livello = 0; livello < 2_000; livello++) {
+            Project sotto = new Project("Livello " + livello);
+            corrente.add(sotto);
+            corrente = sotto;
+        }
+        corrente.add(new SimpleTask("In fondo"));
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            VisitaParallela visita = new VisitaParallela(pool, 16);
+            assertEquals(20_001, visita.conta(radici, t -> true));
+
+            long modificati = visita.modifica(radici, t -> t.getName().endsWith("7"), t -> ((SimpleTask) t).setCompletato(true));
+            assertEquals(2_000, modificati);
+            assertEquals(2_000, radici.stream().mapToInt(Project::getTaskCompletati).sum());
+
+            List<TaskComponent> completati = visita.filtra(radici, TaskComponent::isCompleted);
+            assertEquals(2_000, completati.size());
+            assertEquals("Task 0 7", completati.get(0).getName(), "L'ordine di visita va conservato");
+            assertEquals("Task 3 4997", completati.get(1_999).getName());
+
+            assertEquals("In fondo", visita.trovaQualsiasi(radici, t -> t.getName().equals("In fondo")).get().getName());
+            assertTrue(visita.trovaQualsiasi(radici, t -> t.getName().equals("Nessuno")).isEmpty());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testRicercaPerPrefisso() {
+        // L'indice nasce alla prima ricerca e deve seguire aggiunte e rimozioni, anche nei sotto-progetti
+        Project sotto = new Project("Università");
+        sotto.add(new SimpleTask("Studiare perché serve"));
+        root.add(sotto);
+        root.add(new SimpleTask("Studio matematica"));
+
+        assertEquals(2, root.cerca("stud", 10).size());
+        List<IndiceRicerca.Risultato> accento = root.cerca("PERCHE", 10);
+        assertEquals(1, accento.size());
+        assertSame(sotto, accento.get(0).getProgetto());
+        assertEquals("Università", root.cerca("univ", 10).get(0).getTask().getName());
+        assertSame(root, root.cerca("univ", 10).get(0).getProgetto());
+        assertSame(root, root.cerca("mate", 10).get(0).getProgetto());
+        assertEquals(1, root.cerca("studio mate", 10).size());
+        assertTrue(root.cerca("studio perc", 10).isEmpty(), "Le parole intere devono comparire tutte");
+
+        sotto.add(new SimpleTask("Studiare storia"));
+        assertEquals(3, root.cerca("stud", 10).size());
+        root.completaTask("Studio matematica");
+        root.rimuoviCompletati();
+        assertEquals(2, root.cerca("stud", 10).size());
+        assertEquals(1, root.cerca("stud", 1).size());
+        assertTrue(root.cerca("mat", 10).isEmpty());
+    }
+
+    @Test
+    void testPuliziaRicorsivaConArchivio() throws Exception {
+        // La pulizia scende nei sotto-progetti non completati, toglie interi quelli completati e archivia tutto
+        Project fatto = new Project("Fatto");
+        fatto.add(new SimpleTask("Vecchio"));
+        Project aperto = new Project("Aperto");
+        aperto.add(new SimpleTask("Da fare"));
+        aperto.add(new SimpleTask("Finito"));
+        fatto.completaTask("Vecchio");
+        aperto.completaTask("Finito");
+        root.add(fatto);
+        root.add(aperto);
+        root.add(new SimpleTask("Chiuso"));
+        root.completaTask("Chiuso");
+
+        File file = File.createTempFile("pulizia", ".txt");
+        File archivio = new File(file.getPath() + ".archivio");
+        StorageManager storage = StorageManager.getInstance();
+        try {
+            storage.setPercorsoFile(file.getPath());
+            Project.Pulizia pulizia = storage.rimuoviCompletati(List.of(root), 0);
+
+            assertEquals(3, pulizia.getTaskRimossi());
+            assertEquals(1, pulizia.getProgettiRimossi());
+            assertEquals(1, root.getTotaleTask());
+            assertEquals(1, aperto.getTotaleTask());
+            assertEquals(0, root.getTaskCompletati());
+            assertFalse(root.contiene("Finito"));
+            assertTrue(root.contiene("Da fare"));
+
+            List<String> righe = Files.readAllLines(archivio.toPath(), StandardCharsets.UTF_8);
+            assertEquals(3, righe.size());
+            assertTrue(righe.stream().anyMatch(r -> r.endsWith("|Test Root/Fatto|Vecchio")));
+            assertTrue(righe.stream().anyMatch(r -> r.endsWith("|Test Root/Aperto|Finito")));
+
+            // Una seconda pulizia non trova niente e non scrive
+            assertEquals(0, storage.rimuoviCompletati(List.of(root), 0).getTaskRimossi());
+            assertEquals(3, Files.readAllLines(archivio.toPath(), StandardCharsets.UTF_8).size());
+
+            // Annullare la pulizia toglie le sue righe dall'archivio, così ripeterla non le duplica
+            root.add(new SimpleTask("Altro"));
+            root.completaTask("Altro");
+            StoricoComandi storico = new StoricoComandi();
+            storico.esegui(StoricoComandi.rimuoviCompletati(root,
+                    () -> storage.rimuoviCompletati(List.of(root), 0), storage::annullaArchiviazione));
+            assertEquals(4, Files.readAllLines(archivio.toPath(), StandardCharsets.UTF_8).size());
+            storico.annulla();
+            assertTrue(root.contiene("Altro"));
+            assertEquals(3, Files.readAllLines(archivio.toPath(), StandardCharsets.UTF_8).size());
+            storico.ripeti();
+            assertEquals(4, Files.readAllLines(archivio.toPath(), StandardCharsets.UTF_8).size());
+
+            // Se qualcun altro ha scritto dopo, l'archivio non si taglia: la pulizia annullata viene compensata
+            Files.write(archivio.toPath(), "ARCHIVIATO|ieri|Server|Esterno\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+            storico.annulla();
+            righe = Files.readAllLines(archivio.toPath(), StandardCharsets.UTF_8);
+            assertEquals(6, righe.size());
+            assertTrue(righe.get(5).startsWith("RIPRISTINATO|") && righe.get(5).endsWith("|Test Root|Altro"));
+        } finally {
+            storage.setPercorsoFile("tasks.txt");
+            file.delete();
+            archivio.delete();
+            new File(file.getPath() + ".journal").delete();
+        }
+    }
+
+    @Test
+    void testMetriche() throws Exception {
+        // Registro separato: istogramma a potenze di due, contatori, sonde e interruttore generale
+        Metriche metriche = new Metriche();
+        Metriche.Istogramma durate = metriche.istogramma("prova.ns");
+        assertSame(durate, metriche.istogramma("prova.ns"));
+        for (int i = 1; i <= 100; i++) {
+            durate.registra(i);
+        }
+        metriche.contatore("prova.eventi").aggiungi(3);
+        metriche.sonda("prova.sonda", () -> 42);
+
+        Map<String, Long> valori = metriche.istantanea();
+        assertEquals(100, valori.get("prova.ns.conteggio"));
+        assertEquals(50, valori.get("prova.ns.media"));
+        assertEquals(63, valori.get("prova.ns.p50"));
+        assertEquals(100, valori.get("prova.ns.p99"));
+        assertEquals(3, valori.get("prova.eventi"));
+        assertEquals(42, valori.get("prova.sonda"));
+        assertTrue(metriche.comeTesto().contains("prova.eventi = 3"));
+        assertThrows(IllegalArgumentException.class, () -> metriche.contatore("prova.ns"));
+
+        metriche.setAttive(false);
+        assertEquals(0, durate.inizio());
+        metriche.contatore("prova.eventi").incrementa();
+        assertEquals(3, metriche.istantanea().get("prova.eventi"));
+
+        // Il registro globale conta i nomi rifiutati dalla factory
+        Metriche.Contatore scartati = Metriche.getInstance().contatore("factory.scartati");
+        long prima = scartati.valore();
+        assertThrows(IllegalArgumentException.class, () -> TaskFactory.createTask("SIMPLE", "<script"));
+        assertEquals(prima + 1, scartati.valore());
+
+        // Via JMX le metriche si leggono e basta: un'operazione viene rifiutata come metodo inesistente
+        ObjectName nome = Metriche.getInstance().esportaJmx();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertEquals(scartati.valore(), server.getAttribute(nome, "factory.scartati"));
+        ReflectionException rifiutata = assertThrows(ReflectionException.class,
+                () -> server.invoke(nome, "azzera", new Object[0], new String[0]));
+        assertInstanceOf(NoSuchMethodException.class, rifiutata.getTargetException());
+    }
+
+    @Test
+    void testSalvataggioAsincrono() throws Exception {
+        // Tre modifiche ravvicinate diventano un solo snapshot, scritto in background; flush() lo rende definitivo
+        File file = File.createTempFile("asincrono", ".txt");
+        file.delete();
+        StorageManager storage = StorageManager.getInstance();
+        Metriche.Istogramma salvataggi = Metriche.getInstance().istogramma("storage.save.ns");
+        try {
+            storage.setPercorsoFile(file.getPath());
+            storage.setSalvataggioAsincrono(60_000);
+            List<Project> progetti = new ArrayList<>(List.of(root));
+            long prima = salvataggi.conteggio();
+            for (String nome : List.of("Uno", "Due", "Tre")) {
+                root.add(new SimpleTask(nome));
+                storage.registra(progetti, StorageManager.Operazione.AGGIUNGI, 0, nome);
+            }
+            assertFalse(file.exists(), "Con un ritardo lungo nessuno deve aver ancora scritto");
+
+            storage.flush();
+            assertEquals(prima + 1, salvataggi.conteggio());
+            assertEquals(3, storage.loadTasks().get(0).getTotaleTask());
+            // Niente più in attesa: un secondo flush non scrive
+            storage.flush();
+            assertEquals(prima + 1, salvataggi.conteggio());
+        } finally {
+            storage.setSalvataggioAsincrono(0);
+            storage.setPercorsoFile("tasks.txt");
+            file.delete();
+            new File(file.getPath() + ".journal").delete();
+        }
+    }
+
+    @Test
+    void testJournalConCompattazioneAsincrona() throws Exception {
+        // Col journal ogni modifica è subito sul disco; la compattazione oltre la soglia aspetta il thread in background
+        File file = File.createTempFile("compatta", ".txt");
+        File journal = new File(file.getPath() + ".journal");
+        StorageManager storage = StorageManager.getInstance();
+        Metriche.Istogramma salvataggi = Metriche.getInstance().istogramma("storage.save.ns");
+        try {
+            storage.setPercorsoFile(file.getPath());
+            storage.setModalitaJournal(true);
+            storage.setSogliaCompattazione(2);
+            List<Project> progetti = new ArrayList<>(List.of(root));
+            storage.saveTasks(progetti);
+            storage.setSalvataggioAsincrono(60_000);
+            long prima = salvataggi.conteggio();
+            for (String nome : List.of("Uno", "Due", "Tre")) {
+                root.add(new SimpleTask(nome));
+                storage.registra(progetti, StorageManager.Operazione.AGGIUNGI, 0, nome);
+            }
+            assertEquals(prima, salvataggi.conteggio(), "La compattazione non deve girare sul thread della modifica");
+            assertEquals(3, storage.loadTasks().get(0).getTotaleTask());
+
+            storage.flush();
+            assertEquals(prima + 1, salvataggi.conteggio());
+            assertEquals(3, storage.loadTasks().get(0).getTotaleTask());
+            assertTrue(Files.readAllLines(journal.toPath()).stream().noneMatch(r -> r.startsWith("AGGIUNGI")));
+        } finally {
+            storage.setSalvataggioAsincrono(0);
+            storage.setSogliaCompattazione(1000);
+            storage.setModalitaJournal(false);
+            storage.setPercorsoFile("tasks.txt");
+            file.delete();
+            journal.delete();
+        }
+    }
+
+    @Test
+    void testFileIlleggibileConservatoPrimaDiSalvare() throws Exception {
+        // Un file che non si riesce a leggere non viene perso: il primo salvataggio lo sposta da parte
+        File cartella = Files.createTempDirectory("illeggibile").toFile();
+        File file = new File(cartella, "tasks.txt");
+        String contenuto = "GENERAZIONE|rotta\nPROGETTO|Vecchio\nTASK|O|Da non perdere\n";
+        Files.write(file.toPath(), contenuto.getBytes(StandardCharsets.UTF_8));
+        StorageManager storage = StorageManager.getInstance();
+        try {
+            storage.setPercorsoFile(file.getPath());
+            assertThrows(TaskStorageException.class, storage::loadTasks);
+
+            storage.saveTasks(new ArrayList<>(List.of(root)));
+            File[] copie = cartella.listFiles((d, nome) -> nome.startsWith("tasks.txt.illeggibile-"));
+            assertEquals(1, copie.length);
+            assertEquals(contenuto, Files.readString(copie[0].toPath()));
+            assertEquals(root.getTotaleTask(), storage.loadTasks().get(0).getTotaleTask());
+
+            // Il file nuovo si legge: i salvataggi successivi non fanno altre copie
+            storage.saveTasks(new ArrayList<>(List.of(root)));
+            assertEquals(1, cartella.listFiles((d, nome) -> nome.contains("illeggibile")).length);
+        } finally {
+            storage.setPercorsoFile("tasks.txt");
+            for (File f : cartella.listFiles()) f.delete();
+            cartella.delete();
+        }
+    }
+
+    @Test
+    void testAnnullaERipeti() {
+        // Ogni comando torna esattamente allo stato precedente, ordine dei figli compreso
+        Project sotto = new Project("Sotto");
+        sotto.add(new SimpleTask("S1"));
+        sotto.add(new SimpleTask("S2"));
+        root.add(new SimpleTask("A"));
+        root.add(sotto);
+        root.add(new SimpleTask("B"));
+        root.add(new SimpleTask("C"));
+        root.setStrategia(OrdinamentoStrategy.daCodice("A"));
+        StoricoComandi storico = new StoricoComandi();
+
+        storico.esegui(StoricoComandi.completa(root, "A"));
+        storico.esegui(StoricoComandi.completa(root, "C"));
+        storico.esegui(StoricoComandi.completa(root, "S1"));
+        assertFalse(storico.esegui(StoricoComandi.completa(root, "Inesistente")));
+        storico.esegui(StoricoComandi.rimuoviCompletati(root, root::rimuoviCompletati));
+        assertEquals(List.of("Sotto", "B"), nomi(root.getFigli()));
+        assertEquals(List.of("S2"), nomi(sotto.getFigli()));
+
+        assertEquals("pulizia di \"Test Root\"", storico.annulla());
+        assertEquals(List.of("A", "Sotto", "B", "C"), nomi(root.getFigli()));
+        assertEquals(List.of("S1", "S2"), nomi(sotto.getFigli()));
+        assertEquals(3, root.getTaskCompletati());
+        assertTrue(root.contiene("S1"));
+
+        storico.esegui(StoricoComandi.svuota(root));
+        assertEquals(0, root.getTotaleTask());
+        assertFalse(storico.puoRipetere(), "Un nuovo comando cancella quelli da ripetere");
+        storico.annulla();
+        assertEquals(5, root.getTotaleTask());
+        assertEquals("A", root.getStrategia().getCodice());
+
+        storico.annulla();
+        storico.annulla();
+        storico.annulla();
+        assertEquals(0, root.getTaskCompletati());
+        assertNull(storico.annulla());
+        assertEquals("completamento di \"A\"", storico.ripeti());
+        assertTrue(root.cercaTask("A").isCompleted());
+
+        // Un comando che non ha più niente da fare non risulta ripetuto né finisce tra gli annullabili
+        root.rimuovi(root.cercaTask("C"));
+        assertThrows(IllegalStateException.class, storico::ripeti);
+        assertFalse(storico.puoRipetere());
+        assertEquals("completamento di \"A\"", storico.annulla());
+        assertFalse(storico.puoAnnullare());
+    }
+
+    private static List<String> nomi(List<TaskComponent> componenti) {
+        List<String> nomi = new ArrayList<>();
+        for (TaskComponent c : componenti) {
+            nomi.add(c.getName());
+        }
+        return nomi;
+    }
+
+    @Test
+    void testServerTask() throws Exception {
+        // Giro completo sulle API: aggiunta validata, pagine dell'albero, completamento e pulizia
+        File file = File.createTempFile("server", ".txt");
+        StorageManager storage = StorageManager.getInstance();
+        storage.setPercorsoFile(file.getPath());
+        storage.setSalvataggioAsincrono(60_000);
+        ServerTask server = new ServerTask(new ArrayList<>(List.of(root)), storage, 0);
+        server.avvia();
+        try {
+            HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            String base = "http://localhost:" + server.getPorta() + "/progetti";
+            for (int i = 0; i < 5; i++) {
+                assertEquals(201, invia(client, base + "/0/task", "nome=Task+" + i).statusCode());
+            }
+            assertEquals(400, invia(client, base + "/0/task", "nome=%3Cscript").statusCode());
+            assertEquals(404, invia(client, base + "/7/task", "nome=X").statusCode());
+            // Una codifica sbagliata è un errore di chi chiama, non del server
+            assertEquals(400, invia(client, base + "/0/task", "nome=%zz").statusCode());
+            assertEquals(400, invia(client, base + "/0/completa", "nome=Task%").statusCode());
+
+            // Le pagine riprendono dal cursore, anche dentro un sotto-progetto
+            Project sotto = new Project("Sotto");
+            sotto.add(new SimpleTask("A"));
+            sotto.add(new SimpleTask("B"));
+            root.add(sotto);
+            HttpResponse<String> pagina = client.send(HttpRequest.newBuilder(URI.create(base + "/0/task?limite=3")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertTrue(pagina.body().endsWith("\"nome\":\"Task 2\",\"completato\":false,\"profondita\":0}],\"prossima\":\"3\"}"));
+            pagina = client.send(HttpRequest.newBuilder(URI.create(base + "/0/task?limite=3&cursore=3")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertTrue(pagina.body().endsWith("\"nome\":\"Sotto\",\"completato\":false,\"profondita\":0,\"progetto\":true}],\"prossima\":\"5.0\"}"));
+            pagina = client.send(HttpRequest.newBuilder(URI.create(base + "/0/task?limite=3&cursore=5.0")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals("{\"righe\":[{\"nome\":\"A\",\"completato\":false,\"profondita\":1},"
+                    + "{\"nome\":\"B\",\"completato\":false,\"profondita\":1}],\"prossima\":null}", pagina.body());
+            assertEquals(400, client.send(HttpRequest.newBuilder(URI.create(base + "/0/task?cursore=1.x")).build(),
+                    HttpResponse.BodyHandlers.ofString()).statusCode());
+            root.rimuovi(sotto);
+
+            assertEquals(200, invia(client, base + "/0/completa", "nome=task+4").statusCode());
+            assertEquals(404, invia(client, base + "/0/completa", "nome=Nessuno").statusCode());
+            assertEquals("{\"taskRimossi\":1,\"progettiRimossi\":0}", invia(client, base + "/0/pulizia", "").body());
+            assertTrue(client.send(HttpRequest.newBuilder(URI.create(base)).build(), HttpResponse.BodyHandlers.ofString())
+                    .body().contains("\"task\":4,\"completati\":0"));
+        } finally {
+            server.ferma(0);
+            storage.setSalvataggioAsincrono(0);
+            storage.setPercorsoFile("tasks.txt");
+            file.delete();
+            new File(file.getPath() + ".archivio").delete();
+            new File(file.getPath() + ".journal").delete();
+        }
+    }
+
+    private static HttpResponse<String> invia(HttpClient client, String indirizzo, String corpo) throws Exception {
+        HttpRequest richiesta = HttpRequest.newBuilder(URI.create(indirizzo))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(corpo)).build();
+        return client.send(richiesta, HttpResponse.BodyHandlers.ofString());
+    }
+
+    @Test
+    void testEventiTask() throws Exception {
+        // Ogni modifica arriva all'iscritto nell'ordine in cui è avvenuta, anche a lotti piccoli
+        List<String> ricevuti = Collections.synchronizedList(new ArrayList<>());
+        try (EventiTask.Iscrizione iscrizione = EventiTask.getInstance().iscrivi("test", 2, 3, EventiTask.Pressione.ATTENDI,
+                (eventi, persi) -> eventi.forEach(e -> ricevuti.add(e.toString())))) {
+            Project sotto = new Project("Sotto");
+            root.add(sotto);
+            sotto.addAll(List.of(new SimpleTask("A"), new SimpleTask("B")));
+            root.completaTask("A");
+            root.cercaTask("A").setCompletato(false);
+            root.completaTask("B");
+            root.rimuoviCompletati();
+            root.setStrategia(OrdinamentoStrategy.daCodice("A"));
+            root.svuotaProgetto();
+            assertTrue(iscrizione.aspetta(5_000));
+        }
+        assertEquals(List.of("AGGIUNTO Test Root/Sotto", "AGGIUNTO Sotto/A", "AGGIUNTO Sotto/B", "COMPLETATO Sotto/A",
+                "RIAPERTO Sotto/A", "COMPLETATO Sotto/B", "RIMOSSO Sotto/B", "STRATEGIA Test Root", "SVUOTATO Test Root"), ricevuti);
+
+        // Con Pressione.SCARTA chi modifica non aspetta mai: gli eventi in più si perdono e il lotto dopo lo dice
+        CountDownLatch sblocca = new CountDownLatch(1);
+        AtomicLong consegnati = new AtomicLong();
+        AtomicLong persi = new AtomicLong();
+        try (EventiTask.Iscrizione iscrizione = EventiTask.getInstance().iscrivi("lento", 4, 100, EventiTask.Pressione.SCARTA,
+                (eventi, scartati) -> {
+                    try {
+                        sblocca.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    consegnati.addAndGet(eventi.size());
+                    persi.addAndGet(scartati);
+                })) {
+            for (int i = 0; i < 100; i++) {
+                root.add(new SimpleTask("T" + i));
+            }
+            sblocca.countDown();
+            root.add(new SimpleTask("Ultimo"));
+            assertTrue(iscrizione.aspetta(5_000));
+        }
+        assertTrue(persi.get() > 0);
+        assertEquals(101, consegnati.get() + persi.get());
+
+        // Un iscritto che richiama StorageManager non blocca chi modifica tenendone il monitor
+        File file = File.createTempFile("tasks", ".txt");
+        file.deleteOnExit();
+        StorageManager storage = StorageManager.getInstance();
+        storage.setPercorsoFile(file.getPath());
+        ExecutorService esecutore = Executors.newSingleThreadExecutor();
+        try (EventiTask.Iscrizione iscrizione = EventiTask.getInstance().iscrivi("storage", 1, 1, EventiTask.Pressione.ATTENDI,
+                (eventi, scartati) -> storage.getFormato())) {
+            Project pulito = new Project("Pulito");
+            for (int i = 0; i < 5; i++) {
+                pulito.add(new SimpleTask("Fatto " + i));
+                pulito.completaTask("Fatto " + i);
+            }
+            Future<Project.Pulizia> pulizia = esecutore.submit(() -> storage.rimuoviCompletati(List.of(pulito), 0));
+            assertEquals(5, pulizia.get(5, TimeUnit.SECONDS).getTaskRimossi());
+            assertTrue(iscrizione.aspetta(5_000));
+        } finally {
+            esecutore.shutdownNow();
+            storage.setPercorsoFile("tasks.txt");
+            file.delete();
+            new File(file.getPath() + ".archivio").delete();
+        }
+        assertFalse(EventiTask.getInstance().isAttivo());
+    }
+
+    @Test
+    void testOrdineComposto() {
+        // Maiuscole e accenti non rompono l'ordine; a parità di nome resta l'ordine di inserimento
+        for (String nome : List.of("perchi", "Perché", "banana", "perche", "Albero", "banana")) {
+            root.add(new SimpleTask(nome));
+        }
+        OrdinamentoStrategy naturale = OrdinamentoStrategy.daCodice("N");
+        List<TaskComponent> vista = naturale.creaVista(root.getFigli());
+        assertEquals(List.of("Albero", "banana", "banana", "perche", "Perché", "perchi"), nomi(vista));
+        assertSame(root.getFigli().get(2), vista.get(1));
+
+        // Per stato: la vista del progetto segue i completamenti senza essere ricostruita
+        root.setStrategia(OrdinamentoStrategy.daCodice("S"));
+        assertEquals(List.of("Albero", "banana", "banana", "perche", "Perché", "perchi"), nomi(root.getVistaOrdinata()));
+        root.completaTask("Albero");
+        root.completaTask("perche");
+        assertEquals(List.of("banana", "banana", "Perché", "perchi", "Albero", "perche"), nomi(root.getVistaOrdinata()));
+        root.cercaTask("Albero").setCompletato(false);
+        assertEquals(List.of("Albero", "banana", "banana", "Perché", "perchi", "perche"), nomi(root.getVistaOrdinata()));
+        // Tra due nomi uguali, quello riaperto torna davanti all'altro come in una vista nuova
+        SimpleTask primaBanana = (SimpleTask) root.getFigli().get(2);
+        primaBanana.setCompletato(true);
+        primaBanana.setCompletato(false);
+        assertEquals(OrdinamentoStrategy.daCodice("S").creaVista(root.getFigli()), root.getVistaOrdinata());
+
+        // Anche un sotto-progetto che diventa completato cambia posto; sopra la soglia l'ordinamento è parallelo
+        Project sotto = new Project("aaa");
+        sotto.add(new SimpleTask("X"));
+        root.add(sotto);
+        assertEquals("aaa", root.getVistaOrdinata().get(0).getName());
+        sotto.completaTask("X");
+        assertEquals("perche", root.getVistaOrdinata().get(6).getName());
+        assertEquals("aaa", root.getVistaOrdinata().get(5).getName());
+
+        List<TaskComponent> molti = new ArrayList<>();
+        for (int i = 20_000; i > 0; i--) {
+            SimpleTask task = new SimpleTask("Task " + (i % 1000));
+            task.setCompletato(i % 3 == 0);
+            molti.add(task);
+        }
+        List<TaskComponent> atteso = new ArrayList<>(molti);
+        atteso.sort(OrdinamentoStrategy.daCodice("S").getComparatore());
+        assertEquals(atteso, OrdinamentoStrategy.daCodice("S").creaVista(molti));
+    }
+
+    @Test
+    void testFormatoVerificatoSaltaBloccoDanneggiato() throws Exception {
+        // Tre progetti in tre blocchi: rovinando un byte del secondo, gli altri due si caricano lo stesso
+        File file = File.createTempFile("tasks", ".oobv");
+        File danneggiati = new File(file.getPath() + ".danneggiati");
+        file.deleteOnExit();
+        danneggiati.deleteOnExit();
+        StorageManager storage = StorageManager.getInstance();
+        storage.setPercorsoFile(file.getPath());
+        try {
+            List<Project> progetti = new ArrayList<>();
+            for (String nome : List.of("Primo", "Secondo", "Terzo")) {
+                Project p = new Project(nome);
+                Project sotto = new Project("Sotto " + nome);
+                sotto.add(new SimpleTask("Interno è"));
+                p.add(new SimpleTask("Task di " + nome));
+                p.add(sotto);
+                p.setStrategia(OrdinamentoStrategy.daCodice("S"));
+                progetti.add(p);
+            }
+            progetti.get(2).completaTask("Interno è");
+            storage.setFormato(StorageManager.Formato.VERIFICATO);
+            storage.saveTasks(progetti);
+
+            // Senza danni: albero, stati e strategie tornano uguali, sia caricando tutto sia in modo pigro
+            storage.setFormato(StorageManager.Formato.TESTO);
+            for (boolean pigro : new boolean[] {false, true}) {
+                storage.setCaricamentoPigro(pigro);
+                List<Project> letti = storage.loadTasks();
+                assertEquals(StorageManager.Formato.VERIFICATO, storage.getFormato());
+                assertEquals(3, letti.size());
+                Project terzo = letti.get(2);
+                assertEquals(2, terzo.getTotaleTask());
+                assertEquals(1, terzo.getTaskCompletati());
+                assertEquals("S", terzo.getStrategia().getCodice());
+                assertEquals(List.of("Task di Terzo", "Sotto Terzo"), nomi(terzo.getVistaOrdinata()));
+            }
+
+            // Il checksum si ricontrolla anche quando i figli di un progetto pigro si leggono dopo il caricamento
+            List<Project> pigri = storage.loadTasks();
+            byte[] dati = Files.readAllBytes(file.toPath());
+            String testo = new String(dati, StandardCharsets.ISO_8859_1);
+            dati[testo.indexOf("Task di Secondo") + 2] ^= 1;
+            Files.write(file.toPath(), dati);
+            assertThrows(UncheckedIOException.class, pigri.get(1)::getFigli);
+            // E anche quando il salvataggio copia il blocco: non gli si dà un checksum nuovo e valido
+            long errori = Metriche.getInstance().istantanea().get("storage.save.errori");
+            storage.saveTasks(pigri);
+            assertEquals(errori + 1, Metriche.getInstance().istantanea().get("storage.save.errori"));
+            assertArrayEquals(dati, Files.readAllBytes(file.toPath()));
+            storage.setCaricamentoPigro(false);
+            long prima = Metriche.getInstance().istantanea().get("storage.load.blocchiDanneggiati");
+
+            List<Project> letti = storage.loadTasks();
+            assertEquals(List.of("Primo", "Progetto danneggiato 2", "Terzo"), List.of(letti.get(0).getName(),
+                    letti.get(1).getName(), letti.get(2).getName()));
+            assertEquals(0, letti.get(1).getTotaleTask());
+            assertTrue(letti.get(0).contiene("Interno è"));
+            assertEquals(1, letti.get(2).getTaskCompletati());
+            assertEquals(prima + 1, Metriche.getInstance().istantanea().get("storage.load.blocchiDanneggiati"));
+            assertTrue(new String(Files.readAllBytes(danneggiati.toPath()), StandardCharsets.ISO_8859_1).contains("Sotto Secondo"));
+        } finally {
+            storage.setCaricamentoPigro(false);
+            storage.setPercorsoFile("tasks.txt");
+            storage.setFormato(StorageManager.Formato.TESTO);
+            file.delete();
+            danneggiati.delete();
+            new File(file.getPath() + ".journal").delete();
+        }
+    }
 }
@@ -1,35 +1,99 @@
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
 
 public class TodoApp {
+    private static final int RIGHE_PER_PAGINA = 200;
+    private static final int SUGGERIMENTI = 10;
+    private static final long RITARDO_SALVATAGGIO = 500;
+    private static final int PORTA_SERVER = 8080;
+
     public static void main(String[] args) {
         Scanner tastiera = new Scanner(System.in);
         StorageManager storage = StorageManager.getInstance();
+        // Ogni modifica diventa subito una riga del journal; lo snapshot che lo compatta viene scritto in background,
+        // così il menu non aspetta mai la riscrittura del file. "Salva" e l'uscita scrivono subito
+        storage.setModalitaJournal(true);
+        storage.setSalvataggioAsincrono(RITARDO_SALVATAGGIO);
+        // All'avvio si leggono solo le intestazioni dei progetti; i task arrivano quando il progetto viene aperto
+        storage.setCaricamentoPigro(true);
+
+        int portaServer = -1;
+        for (int i = 0; i < args.length; i++) {
+            String argomento = args[i];
+            // Con "--server [porta]" al posto del menu parte il servizio HTTP/JSON su localhost (vedi ServerTask)
+            if (argomento.equalsIgnoreCase("--server")) {
+                portaServer = PORTA_SERVER;
+                if (i + 1 < args.length && args[i + 1].matches("\\d+")) {
+                    portaServer = Integer.parseInt(args[++i]);
+                }
+            }
+            // Con "--binario" i salvataggi usano il formato binario (il file di testo esistente viene migrato al primo salvataggio)
+            if (argomento.equalsIgnoreCase("--binario")) {
+                storage.setFormato(StorageManager.Formato.BINARIO);
+            }
+            // Con "--verificato" i salvataggi usano il formato binario a blocchi con checksum: all'avvio un blocco rovinato
+            // costa solo il suo progetto, e i nomi già validati non passano di nuovo dalla TaskFactory
+            if (argomento.equalsIgnoreCase("--verificato")) {
+                storage.setFormato(StorageManager.Formato.VERIFICATO);
+            }
+            // Con "--metriche" le metriche si leggono via JMX (OOB:type=Metriche) e ogni minuto vengono stampate su stderr
+            if (argomento.equalsIgnoreCase("--metriche")) {
+                try {
+                    Metriche.getInstance().esportaJmx();
+                } catch (JMException e) {
+                    System.out.println("⚠️ Metriche non disponibili via JMX.");
+                }
+                Metriche.getInstance().avviaStampa(1, TimeUnit.MINUTES, System.err::print);
+            }
+        }
         
         List<Project> listaProgetti = new ArrayList<>();
+        boolean caricato = false;
 
         // 1. Caricamento dati
         try {
             listaProgetti = storage.loadTasks();
-            if (listaProgetti.isEmpty()) {
-                listaProgetti.add(new Project("Generali"));
-            }
+            caricato = true;
             System.out.println("✅ Dati caricati correttamente.");
         } catch (TaskStorageException e) {
             System.out.println("⚠️ Attenzione: " + e.getMessage());
-            listaProgetti.add(new Project("Generali"));
         } catch (Exception e) {
             System.out.println("❌ Errore critico nel caricamento. Reset dell'applicazione.");
+        }
+
+        // Anche il progetto di partenza passa dal journal, così le operazioni successive trovano il loro indice.
+        // Dopo un caricamento fallito non si registra niente: il file illeggibile resta com'è finché l'utente
+        // non fa una modifica, e anche allora viene prima messo da parte
+        if (listaProgetti.isEmpty()) {
             listaProgetti.add(new Project("Generali"));
+            if (caricato) storage.registra(listaProgetti, StorageManager.Operazione.NUOVO_PROGETTO, 0, "Generali");
+        }
+
+        if (portaServer >= 0) {
+            avviaServer(listaProgetti, storage, portaServer);
+            return;
         }
 
         Project progettoCorrente = listaProgetti.get(0);
+        StoricoComandi storico = new StoricoComandi();
 
         boolean inEsecuzione = true;
         while (inEsecuzione) {
             System.out.println("\n--------------------------------------------");
-            System.out.println(" PROGETTO ATTIVO: [" + progettoCorrente.getName().toUpperCase() + "]");
+            System.out.println(" PROGETTO ATTIVO: [" + progettoCorrente.getName().toUpperCase() + "]"
+                    + (progettoCorrente.getTotaleTask() > 0 ? " - " + progettoCorrente.getPercentualeCompletamento() + "% completato" : ""));
             System.out.println("--------------------------------------------");
             stampaMenu();
             
@@ -37,133 +101,223 @@ public class TodoApp {
 
             if (sceltaInput.isEmpty()) continue;
 
-            switch (sceltaInput.toLowerCase()) {
-                case "1": // Aggiungi Task
-                    System.out.print("Nome del Task: ");
-                    String nomeT = tastiera.nextLine().trim();
-                    try {
-                        progettoCorrente.add(TaskFactory.createTask("SIMPLE", nomeT));
-                        System.out.println("✅ Task aggiunto.");
-                    } catch (IllegalArgumentException e) {
-                        System.out.println("❌ Errore: " + e.getMessage());
-                    }
-                    break;
-
-                case "2": // Nuovo Progetto
-                    System.out.print("Nome del nuovo Progetto: ");
-                    String nomeP = tastiera.nextLine().trim();
-                    try {
-                        Project nuovoP = (Project) TaskFactory.createTask("PROJECT", nomeP);
-                        listaProgetti.add(nuovoP);
-                        progettoCorrente = nuovoP;
-                        System.out.println("✅ Progetto creato e attivo.");
-                    } catch (IllegalArgumentException e) {
-                        System.out.println("❌ Errore: " + e.getMessage());
-                    }
-                    break;
-
-                case "3": // Mostra Tutto
-                    System.out.println("\n--- PANORAMICA COMPLETA ---");
-                    for (Project p : listaProgetti) {
-                        p.display("");
-                    }
-                    break;
-
-                case "a": // Strategia Alfabetica
-                    progettoCorrente.setStrategia(new OrdineAlfabetico());
-                    storage.saveTasks(listaProgetti); // Persistenza immediata
-                    System.out.println("🔤 Ordinamento ALFABETICO attivato e salvato.");
-                    break;
-
-                case "i": // Strategia Inserimento 
-                    progettoCorrente.setStrategia(null);
-                    storage.saveTasks(listaProgetti); 
-                    System.out.println("🕙 Ordinamento INSERIMENTO attivato e salvato.");
-                    break;
-
-                case "z": // Strategia Alfabetica Reverse
-                    progettoCorrente.setStrategia(new OrdineInverso());
-                    storage.saveTasks(listaProgetti); 
-                    System.out.println("Ordine Alfabetico inverso impostato.");
-                    break;
-
-                case "4": // Salvataggio manuale
-                    storage.saveTasks(listaProgetti);
-                    System.out.println("💾 Salvataggio completato.");
-                    break;
-
-                case "6": // Cambio Progetto
-                    if (listaProgetti.size() <= 1) {
-                        System.out.println("ℹ️ Esiste solo un progetto.");
-                        break;
-                    }
-                    System.out.println("\n--- SELEZIONE PROGETTO ---");
-                    for (int i = 0; i < listaProgetti.size(); i++) {
-                        System.out.println(i + ". " + listaProgetti.get(i).getName());
-                    }
-                    System.out.print("Scegli l'indice: ");
-                    try {
-                        int idx = Integer.parseInt(tastiera.nextLine());
-                        if (idx >= 0 && idx < listaProgetti.size()) {
-                            progettoCorrente = listaProgetti.get(idx);
-                            System.out.println(">>> Attivo: " + progettoCorrente.getName());
-                        } else {
-                            System.out.println("❌ Indice non valido.");
+            // Un progetto pigro si legge dal disco al primo uso: se il suo pezzo di file è rovinato
+            // lo segnalo come al caricamento e il menu resta in piedi
+            try {
+                switch (sceltaInput.toLowerCase()) {
+                    case "1": // Aggiungi Task
+                        System.out.print("Nome del Task: ");
+                        String nomeT = tastiera.nextLine().trim();
+                        try {
+                            TaskComponent nuovoT = TaskFactory.createTask("SIMPLE", nomeT);
+                            storico.esegui(StoricoComandi.aggiungi(progettoCorrente, nuovoT));
+                            storage.registra(listaProgetti, StorageManager.Operazione.AGGIUNGI, listaProgetti.indexOf(progettoCorrente), nuovoT.getName());
+                            System.out.println("✅ Task aggiunto.");
+                        } catch (IllegalArgumentException e) {
+                            System.out.println("❌ Errore: " + e.getMessage());
                         }
-                    } catch (Exception e) {
-                        System.out.println("❌ Inserisci un numero.");
-                    }
-                    break;
-
-                case "7": // Reset
-                    System.out.print("Svuotare '" + progettoCorrente.getName() + "'? (s/n): ");
-                    if (tastiera.nextLine().trim().equalsIgnoreCase("s")) {
-                        progettoCorrente.svuotaProgetto();
+                        break;
+
+                    case "2": // Nuovo Progetto
+                        System.out.print("Nome del nuovo Progetto: ");
+                        String nomeP = tastiera.nextLine().trim();
+                        try {
+                            Project nuovoP = (Project) TaskFactory.createTask("PROJECT", nomeP);
+                            listaProgetti.add(nuovoP);
+                            storage.registra(listaProgetti, StorageManager.Operazione.NUOVO_PROGETTO, listaProgetti.size() - 1, nuovoP.getName());
+                            progettoCorrente = nuovoP;
+                            System.out.println("✅ Progetto creato e attivo.");
+                        } catch (IllegalArgumentException e) {
+                            System.out.println("❌ Errore: " + e.getMessage());
+                        }
+                        break;
+
+                    case "3": // Mostra Tutto
+                        System.out.println("\n--- PANORAMICA COMPLETA ---");
+                        mostraPanoramica(listaProgetti, tastiera);
+                        break;
+
+                    case "a": // Strategia Alfabetica
+                        storico.esegui(StoricoComandi.strategia(progettoCorrente, new OrdineAlfabetico()));
+                        storage.registra(listaProgetti, StorageManager.Operazione.STRATEGIA, listaProgetti.indexOf(progettoCorrente), "A"); // Persistenza immediata
+                        System.out.println("🔤 Ordinamento ALFABETICO attivato e salvato.");
+                        break;
+
+                    case "i": // Strategia Inserimento 
+                        storico.esegui(StoricoComandi.strategia(progettoCorrente, null));
+                        storage.registra(listaProgetti, StorageManager.Operazione.STRATEGIA, listaProgetti.indexOf(progettoCorrente), "I");
+                        System.out.println("🕙 Ordinamento INSERIMENTO attivato e salvato.");
+                        break;
+
+                    case "z": // Strategia Alfabetica Reverse
+                        storico.esegui(StoricoComandi.strategia(progettoCorrente, new OrdineInverso()));
+                        storage.registra(listaProgetti, StorageManager.Operazione.STRATEGIA, listaProgetti.indexOf(progettoCorrente), "Z");
+                        System.out.println("Ordine Alfabetico inverso impostato.");
+                        break;
+
+                    case "n": // Strategia Alfabetica senza maiuscole né accenti
+                        storico.esegui(StoricoComandi.strategia(progettoCorrente, OrdineComposto.naturale()));
+                        storage.registra(listaProgetti, StorageManager.Operazione.STRATEGIA, listaProgetti.indexOf(progettoCorrente), "N");
+                        System.out.println("🔤 Ordine NATURALE (maiuscole e accenti non contano) attivato e salvato.");
+                        break;
+
+                    case "s": // Strategia per stato: prima i task da fare
+                        storico.esegui(StoricoComandi.strategia(progettoCorrente, OrdineComposto.perStato()));
+                        storage.registra(listaProgetti, StorageManager.Operazione.STRATEGIA, listaProgetti.indexOf(progettoCorrente), "S");
+                        System.out.println("📌 Ordine PER STATO (prima i task da fare, poi A-Z) attivato e salvato.");
+                        break;
+
+                    case "4": // Salvataggio manuale
                         storage.saveTasks(listaProgetti);
-                        System.out.println("🗑️ Progetto svuotato.");
-                    }
-                    break;
-
-                case "8": // Segna come fatto
-                    if (isSistemaVuoto(listaProgetti)) {
-                        System.out.println("⚠️ Non c'è nessun task nel sistema. Aggiungine uno prima!");
-                        break;
-                    }
-                    System.out.print("Nome del task completato: ");
-                    String nomeCercato = tastiera.nextLine().trim();
-                    if (!progettoCorrente.completaTask(nomeCercato)) {
-                        String trovatoIn = cercaTaskInAltriProgetti(listaProgetti, nomeCercato);
-                        if (trovatoIn != null) {
-                            System.out.println("⚠️ Task trovato in: [" + trovatoIn + "]. Cambia progetto per completarlo.");
+                        System.out.println("💾 Salvataggio completato.");
+                        break;
+
+                    case "6": // Cambio Progetto
+                        if (listaProgetti.size() <= 1) {
+                            System.out.println("ℹ️ Esiste solo un progetto.");
+                            break;
+                        }
+                        System.out.println("\n--- SELEZIONE PROGETTO ---");
+                        for (int i = 0; i < listaProgetti.size(); i++) {
+                            System.out.println(i + ". " + listaProgetti.get(i).getName());
+                        }
+                        System.out.print("Scegli l'indice: ");
+                        try {
+                            int idx = Integer.parseInt(tastiera.nextLine());
+                            if (idx >= 0 && idx < listaProgetti.size()) {
+                                progettoCorrente = listaProgetti.get(idx);
+                                System.out.println(">>> Attivo: " + progettoCorrente.getName());
+                            } else {
+                                System.out.println("❌ Indice non valido.");
+                            }
+                        } catch (Exception e) {
+                            System.out.println("❌ Inserisci un numero.");
+                        }
+                        break;
+
+                    case "7": // Reset
+                        System.out.print("Svuotare '" + progettoCorrente.getName() + "'? (s/n): ");
+                        if (tastiera.nextLine().trim().equalsIgnoreCase("s")) {
+                            storico.esegui(StoricoComandi.svuota(progettoCorrente));
+                            storage.registra(listaProgetti, StorageManager.Operazione.SVUOTA, listaProgetti.indexOf(progettoCorrente), "");
+                            System.out.println("🗑️ Progetto svuotato (U per annullare).");
+                        }
+                        break;
+
+                    case "8": // Segna come fatto
+                        if (isSistemaVuoto(listaProgetti)) {
+                            System.out.println("⚠️ Non c'è nessun task nel sistema. Aggiungine uno prima!");
+                            break;
+                        }
+                        System.out.print("Nome del task completato: ");
+                        String nomeCercato = tastiera.nextLine().trim();
+                        if (storico.esegui(StoricoComandi.completa(progettoCorrente, nomeCercato))) {
+                            storage.registra(listaProgetti, StorageManager.Operazione.COMPLETA, listaProgetti.indexOf(progettoCorrente), nomeCercato);
                         } else {
-                            System.out.println("❌ Task non trovato.");
+                            String trovatoIn = cercaTaskInAltriProgetti(listaProgetti, nomeCercato);
+                            if (trovatoIn != null) {
+                                System.out.println("⚠️ Task trovato in: [" + trovatoIn + "]. Cambia progetto per completarlo.");
+                            } else {
+                                System.out.println("❌ Task non trovato.");
+                                stampaRisultati(progettoCorrente.cerca(nomeCercato, SUGGERIMENTI), "   Forse cercavi: ");
+                            }
                         }
-                    }
-                    break;
+                        break;
 
-                case "9": // Rimuovi completati 
-                    if (isSistemaVuoto(listaProgetti)) {
-                        System.out.println("⚠️ Non c'è nessun task nel sistema. Niente da rimuovere!");
+                    case "c": // Cerca per parole o inizio di parola in tutti i progetti
+                        System.out.print("Cerca: ");
+                        String testoCercato = tastiera.nextLine().trim();
+                        List<IndiceRicerca.Risultato> trovati = new ArrayList<>();
+                        for (Project p : listaProgetti) {
+                            trovati.addAll(p.cerca(testoCercato, SUGGERIMENTI - trovati.size()));
+                            if (trovati.size() >= SUGGERIMENTI) break;
+                        }
+                        if (trovati.isEmpty()) {
+                            System.out.println("❌ Nessun task trovato.");
+                        } else {
+                            stampaRisultati(trovati, "   🔎 ");
+                        }
                         break;
-                    }
 
-                    if (!haTaskCompletati(progettoCorrente)) {
-                        System.out.println("ℹ️ Non ci sono task completati nel progetto attivo. Niente da pulire.");
+                    case "9": // Rimuovi completati 
+                        if (isSistemaVuoto(listaProgetti)) {
+                            System.out.println("⚠️ Non c'è nessun task nel sistema. Niente da rimuovere!");
+                            break;
+                        }
+
+                        // Una sola passata: se non c'era niente da togliere lo dice la pulizia stessa
+                        List<Project> progettiDaPulire = listaProgetti;
+                        int indicePulito = listaProgetti.indexOf(progettoCorrente);
+                        StoricoComandi.ComandoPulizia comandoPulizia = StoricoComandi.rimuoviCompletati(progettoCorrente,
+                                () -> storage.rimuoviCompletati(progettiDaPulire, indicePulito), storage::annullaArchiviazione);
+                        storico.esegui(comandoPulizia);
+                        Project.Pulizia pulizia = comandoPulizia.getPulizia();
+                        if (pulizia.getTaskRimossi() == 0 && pulizia.getProgettiRimossi() == 0) {
+                            System.out.println("ℹ️ Non ci sono task completati nel progetto attivo. Niente da pulire.");
+                        } else {
+                            System.out.println("🧹 Pulizia effettuata: " + pulizia.getTaskRimossi() + " task e "
+                                    + pulizia.getProgettiRimossi() + " sotto-progetti spostati nell'archivio.");
+                        }
+                        break;
+
+                    case "u": // Annulla l'ultima modifica
+                    case "r": // Ripeti quella annullata
+                        try {
+                            String fatto = sceltaInput.equalsIgnoreCase("u") ? storico.annulla() : storico.ripeti();
+                            if (fatto == null) {
+                                System.out.println("ℹ️ Niente da " + (sceltaInput.equalsIgnoreCase("u") ? "annullare." : "ripetere."));
+                            } else {
+                                // Il journal non sa descrivere un annullamento: salvo subito uno snapshot, che azzera il journal.
+                                // In background un crash riporterebbe indietro l'operazione annullata rieseguendo il journal
+                                storage.saveTasks(listaProgetti);
+                                System.out.println((sceltaInput.equalsIgnoreCase("u") ? "↩️ Annullato: " : "↪️ Ripetuto: ") + fatto);
+                            }
+                        } catch (IllegalStateException e) {
+                            System.out.println("⚠️ " + e.getMessage());
+                        }
                         break;
-                    }
 
-                    progettoCorrente.rimuoviCompletati();
-                    storage.saveTasks(listaProgetti);
-                    System.out.println("🧹 Pulizia effettuata: i task completati sono stati rimossi.");
-                    break;
+                    case "m": // Importa da file
+                        System.out.print("File da importare (.csv oppure un nome per riga): ");
+                        String daImportare = tastiera.nextLine().trim();
+                        TaskImportExport.Formato formato = daImportare.toLowerCase().endsWith(".csv")
+                                ? TaskImportExport.Formato.CSV : TaskImportExport.Formato.RIGHE;
+                        try (FileReader sorgente = new FileReader(daImportare, StandardCharsets.UTF_8)) {
+                            TaskImportExport.Esito esito = TaskImportExport.importa(sorgente, formato, progettoCorrente);
+                            // Un'operazione nel journal per ogni riga non avrebbe senso: salvo subito uno snapshot,
+                            // così come le altre modifiche l'importazione è sul disco prima di tornare al menu
+                            storage.saveTasks(listaProgetti);
+                            System.out.println("📥 Importati " + esito.getImportati() + " task, scartate " + esito.getScartati() + " righe.");
+                            for (String errore : esito.getErrori()) {
+                                System.out.println("   ⚠️ " + errore);
+                            }
+                        } catch (IOException e) {
+                            System.out.println("❌ Impossibile leggere il file: " + e.getMessage());
+                        }
+                        break;
+
+                    case "e": // Esporta in CSV
+                        System.out.print("File CSV di destinazione: ");
+                        String destinazione = tastiera.nextLine().trim();
+                        try (FileWriter uscita = new FileWriter(destinazione, StandardCharsets.UTF_8)) {
+                            long esportati = TaskImportExport.esporta(progettoCorrente, uscita);
+                            System.out.println("📤 Esportati " + esportati + " task in " + destinazione
+                                    + " (la terza colonna è il sotto-progetto; i sotto-progetti vuoti non vengono esportati).");
+                        } catch (IOException e) {
+                            System.out.println("❌ Impossibile scrivere il file: " + e.getMessage());
+                        }
+                        break;
 
-                case "5": // Esci
-                    storage.saveTasks(listaProgetti);
-                    inEsecuzione = false;
-                    break;
+                    case "5": // Esci
+                        storage.saveTasks(listaProgetti);
+                        inEsecuzione = false;
+                        break;
 
-                default:
-                    System.out.println("⚠️ Opzione non valida. Seleziona un numero tra quelli proposti!");
+                    default:
+                        System.out.println("⚠️ Opzione non valida. Seleziona un numero tra quelli proposti!");
+                }
+            } catch (UncheckedIOException e) {
+                System.out.println("⚠️ Attenzione: " + e.getMessage());
             }
         }
         System.out.println("Arrivederci!");
@@ -172,27 +326,63 @@ public class TodoApp {
 
     // --- Altri metodi (aggiunti qua per rendere il codice più pulito) ---
 
+    // Resta in ascolto finché il processo non viene fermato (Ctrl+C): l'hook di StorageManager salva quello che manca
+    private static void avviaServer(List<Project> listaProgetti, StorageManager storage, int porta) {
+        try {
+            ServerTask server = new ServerTask(listaProgetti, storage, porta);
+            server.avvia();
+            System.out.println("🌐 Server in ascolto su http://localhost:" + server.getPorta() + "/progetti (Ctrl+C per fermarlo)");
+            new CountDownLatch(1).await();
+        } catch (IOException e) {
+            System.out.println("❌ Impossibile avviare il server: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     private static boolean isSistemaVuoto(List<Project> lista) {
+        // Il numero di figli è noto anche per i progetti non ancora caricati
         for (Project p : lista) {
-            if (p.iterator().hasNext()) return false;
+            if (p.getNumeroFigli() > 0) return false;
         }
         return true;
     }
 
-    private static boolean haTaskCompletati(Project p) {
-        for (TaskComponent t : p) {
-            if (t.isCompleted()) return true;
+    private static String cercaTaskInAltriProgetti(List<Project> lista, String nome) {
+        // Ogni progetto ha il suo indice dei nomi: un accesso O(1) per progetto invece di scorrere tutti i task
+        for (Project p : lista) {
+            if (p.contiene(nome)) return p.getName();
         }
-        return false;
+        return null;
     }
 
-    private static String cercaTaskInAltriProgetti(List<Project> lista, String nome) {
-        for (Project p : lista) {
-            for (TaskComponent t : p) {
-                if (t.getName().equalsIgnoreCase(nome)) return p.getName();
+    // Mostra tutti i progetti una pagina alla volta, con un solo flush per pagina.
+    // Ogni pagina riparte da dove si era fermata la precedente, senza rivisitare le righe già mostrate
+    private static void mostraPanoramica(List<Project> lista, Scanner tastiera) {
+        PrintWriter uscita = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+        try {
+            TaskRenderer renderer = new TaskRenderer(uscita, 0, RIGHE_PER_PAGINA);
+            for (Project p : lista) {
+                renderer.render(p);
+            }
+            while (true) {
+                uscita.flush();
+
+                if (!renderer.isTroncato()) break;
+                System.out.print("-- Invio per continuare, Q per tornare al menu: ");
+                if (tastiera.nextLine().trim().equalsIgnoreCase("q")) break;
+                renderer.continua(RIGHE_PER_PAGINA);
             }
+        } catch (IOException e) {
+            System.out.println("⚠️ Errore durante la visualizzazione dei task.");
+        }
+    }
+
+    private static void stampaRisultati(List<IndiceRicerca.Risultato> risultati, String prefisso) {
+        for (IndiceRicerca.Risultato r : risultati) {
+            String stato = r.getTask().isCompleted() ? "[X] " : "[ ] ";
+            System.out.println(prefisso + stato + r.getTask().getName() + " (in " + r.getProgetto().getName() + ")");
         }
-        return null;
     }
 
     private static void stampaMenu() {
@@ -201,6 +391,9 @@ public class TodoApp {
         System.out.println("6. Cambia Progetto    |  7. Reset Progetto");
         System.out.println("8. Segna come fatto   |  9. Rimuovi completati");
         System.out.println("A. Ordine Alfabetico  |  I. Ordine Inserimento |  Z. Ordine Inverso");
+        System.out.println("N. Ordine Naturale    |  S. Ordine per Stato");
+        System.out.println("M. Importa da file    |  E. Esporta in CSV     |  C. Cerca");
+        System.out.println("U. Annulla            |  R. Ripeti");
         System.out.println("5. Esci");
         System.out.print("Scelta: ");
     }
@@ -0,0 +1,191 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// Interrogazioni su tutti i task di uno o più alberi, divise tra i thread di un ForkJoinPool.
+// Il lavoro viene spezzato sia tra i sotto-progetti sia dentro le liste di figli lunghe; sotto la soglia
+// sequenziale un pezzo non si divide più. Servono per i criteri che non hanno un indice o un contatore già pronto
+public class VisitaParallela {
+    // Sotto questo numero (stimato) di task dividere costa più che scorrere
+    private static final int SOGLIA_SEQUENZIALE = 1024;
+
+    private final ForkJoinPool pool;
+    private final int soglia;
+
+    public VisitaParallela() {
+        this(ForkJoinPool.commonPool(), SOGLIA_SEQUENZIALE);
+    }
+
+    public VisitaParallela(ForkJoinPool pool, int soglia) {
+        this.pool = pool;
+        this.soglia = Math.max(1, soglia);
+    }
+
+    // Quanti task soddisfano il criterio
+    public long conta(List<? extends TaskComponent> radici, Predicate<TaskComponent> criterio) {
+        return esegui(() -> flusso(radici).filter(criterio).count());
+    }
+
+    // I task che soddisfano il criterio, nell'ordine in cui li visiterebbe il renderer con l'ordine di inserimento
+    public List<TaskComponent> filtra(List<? extends TaskComponent> radici, Predicate<TaskComponent> criterio) {
+        return esegui(() -> flusso(radici).filter(criterio).collect(Collectors.toList()));
+    }
+
+    // Un task qualsiasi che soddisfa il criterio: il primo thread che lo trova ferma gli altri
+    public Optional<TaskComponent> trovaQualsiasi(List<? extends TaskComponent> radici, Predicate<TaskComponent> criterio) {
+        return esegui(() -> flusso(radici).filter(criterio).findAny());
+    }
+
+    // Modifica in blocco i task che soddisfano il criterio; restituisce quanti sono stati toccati.
+    // I task dello stesso albero condividono un lock, quindi la parte che scala è la ricerca, non la scrittura
+    public long modifica(List<? extends TaskComponent> radici, Predicate<TaskComponent> criterio, Consumer<TaskComponent> modifica) {
+        return esegui(() -> flusso(radici).filter(criterio).mapToLong(c -> {
+            modifica.accept(c);
+            return 1;
+        }).sum());
+    }
+
+    // Lo stream parallelo dei task (le foglie) delle radici; i progetti vengono attraversati, non restituiti
+    public Stream<TaskComponent> flusso(List<? extends TaskComponent> radici) {
+        return StreamSupport.stream(new Divisore(new ArrayList<>(radici), 0, radici.size(), stima(radici), soglia), true);
+    }
+
+    // Uno stream parallelo usa il pool del thread che lo avvia: lo faccio partire dentro il pool scelto
+    private <T> T esegui(Callable<T> lavoro) {
+        try {
+            return pool.submit(lavoro).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Visita interrotta", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IllegalStateException("Visita fallita", e.getCause());
+        }
+    }
+
+    private static long stima(List<? extends TaskComponent> nodi) {
+        long totale = 0;
+        for (TaskComponent c : nodi) {
+            totale += peso(c);
+        }
+        return totale;
+    }
+
+    // I contatori dei progetti danno il numero di task in O(1)
+    private static long peso(TaskComponent c) {
+        if (c instanceof Project) return Math.max(1, ((Project) c).getTotaleTask());
+        if (c instanceof ProgettoCompatto) return Math.max(1, ((ProgettoCompatto) c).getTotaleTask());
+        return 1;
+    }
+
+    private static boolean isContenitore(TaskComponent c) {
+        return c instanceof Project || c instanceof ProgettoCompatto;
+    }
+
+    // Figli presi sotto lock (copie), così la visita non viene disturbata da chi modifica l'albero
+    private static List<TaskComponent> figliDi(TaskComponent c) {
+        if (c instanceof Project) return ((Project) c).getFigli();
+        List<TaskComponent> righe = new ArrayList<>(((ProgettoCompatto) c).getTotaleTask());
+        for (TaskComponent riga : (ProgettoCompatto) c) {
+            righe.add(riga);
+        }
+        return righe;
+    }
+
+    // Spliterator su un intervallo di nodi fratelli. Si divide a metà dell'intervallo; se resta un solo progetto
+    // scende nei suoi figli e divide quelli. La visita sequenziale usa una pila esplicita, quindi anche
+    // gli alberi molto profondi non consumano lo stack
+    private static final class Divisore implements Spliterator<TaskComponent> {
+        private static final int NODI_STIMA_ESATTA = 64;
+
+        private List<TaskComponent> nodi;
+        private int inizio;
+        private int fine;
+        private long stima;
+        private final int soglia;
+        // Iteratori dei progetti in cui la visita sequenziale è già entrata
+        private final Deque<Iterator<TaskComponent>> aperti = new ArrayDeque<>();
+
+        Divisore(List<TaskComponent> nodi, int inizio, int fine, long stima, int soglia) {
+            this.nodi = nodi;
+            this.inizio = inizio;
+            this.fine = fine;
+            this.stima = stima;
+            this.soglia = soglia;
+        }
+
+        @Override
+        public Spliterator<TaskComponent> trySplit() {
+            if (!aperti.isEmpty() || stima < 2L * soglia) return null;
+            if (fine - inizio == 1 && isContenitore(nodi.get(inizio))) {
+                nodi = figliDi(nodi.get(inizio));
+                inizio = 0;
+                fine = nodi.size();
+            }
+            if (fine - inizio < 2) return null;
+
+            // Con pochi nodi ricalcolo la stima dai contatori (potrebbero essere progetti grandi);
+            // con liste lunghe la divido in proporzione, perché ricalcolarla costerebbe quanto la visita
+            int meta = (inizio + fine) >>> 1;
+            long stimaPrima;
+            if (fine - inizio <= NODI_STIMA_ESATTA) {
+                stimaPrima = stima(nodi.subList(inizio, meta));
+                stima = stima(nodi.subList(meta, fine));
+            } else {
+                stimaPrima = stima * (meta - inizio) / (fine - inizio);
+                stima -= stimaPrima;
+            }
+            Divisore prima = new Divisore(nodi, inizio, meta, stimaPrima, soglia);
+            inizio = meta;
+            return prima;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super TaskComponent> azione) {
+            while (true) {
+                TaskComponent prossimo;
+                if (!aperti.isEmpty()) {
+                    Iterator<TaskComponent> figli = aperti.peek();
+                    if (!figli.hasNext()) {
+                        aperti.pop();
+                        continue;
+                    }
+                    prossimo = figli.next();
+                } else if (inizio < fine) {
+                    prossimo = nodi.get(inizio++);
+                } else {
+                    return false;
+                }
+
+                if (isContenitore(prossimo)) {
+                    aperti.push(figliDi(prossimo).iterator());
+                } else {
+                    azione.accept(prossimo);
+                    return true;
+                }
+            }
+        }
+
+        @Override
+        public long estimateSize() {
+            return stima;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL;
+        }
+    }
+}